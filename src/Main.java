@@ -1,16 +1,25 @@
+import ast.ASTArena;
 import ast.ASTPrinter;
 import ast.Program;
 import gen.CodeGenerator;
+import lexer.ParallelTokeniser;
 import lexer.Scanner;
 import lexer.Token;
+import lexer.TokenPipe;
+import lexer.TokenStream;
 import lexer.Tokeniser;
+import parser.HeaderCache;
 import parser.Parser;
 import sem.SemanticAnalyzer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -26,6 +35,30 @@ public class Main {
     private static final int PARSER_FAIL    = 245;
     private static final int SEM_FAIL       = 240;
     private static final int PASS           = 0;
+
+    // files at least this large are lexed on a thread of their own while being parsed, if there is more than one CPU
+    private static final long PIPELINE_THRESHOLD = 128 << 10;
+    // files at least this large are lexed in one go into a TokenStream before parsing
+    private static final long TOKEN_STREAM_THRESHOLD = 1 << 20;
+    // ... and at least this large, lexed on several threads
+    private static final long PARALLEL_LEXING_THRESHOLD = 16 << 20;
+
+    // files at least this large keep their function bodies packed in an ASTArena, rather than as objects, between passes
+    private static final long ARENA_THRESHOLD = 16 << 20;
+
+    // files at least this large have the bodies of their functions type checked on several threads, if there is more
+    // than one CPU
+    private static final long PARALLEL_TYPE_CHECK_THRESHOLD = 1 << 20;
+
+    // the parser gives up after reporting this many errors
+    private static final int MAX_PARSE_ERRORS = 100;
+
+    // headers standing for the functions the name analysis declares itself, so that including them adds nothing.
+    // tests/minic-stdlib.h is the implementation of those functions in C, for linking the programs with a C compiler
+    private static final Set<String> BUILT_IN_HEADERS = Collections.singleton("minic-stdlib.h");
+
+    // included headers are kept parsed in the directory this system property names, if set, for later runs to reuse
+    private static final String HEADER_CACHE_PROPERTY = "minic.headerCache";
     
     private enum Mode {
         LEXER, PARSER, AST, SEMANTICANALYSIS, GEN
@@ -34,9 +67,42 @@ public class Main {
     private static void usage() {
         System.out.println("Usage: java "+Main.class.getSimpleName()+" pass inputfile outputfile");
         System.out.println("where pass is either: -lexer, -parser, -ast, -sem or -gen");
+        System.out.println("and -D"+HEADER_CACHE_PROPERTY+"=directory keeps the included headers parsed there");
         System.exit(-1);
     }
 
+    // parses the token stream if the file was lexed in one go, with function bodies parsed on several threads,
+    // otherwise with the table-driven parser. Either way the parser recovers from syntax errors, up to a limit, and
+    // includes are looked up next to the input file. Large programs are kept in an arena
+    private static Parser newParser(Tokeniser tokeniser, TokenStream tokens, File inputFile) {
+        Parser parser = tokens != null ? new Parser(tokens) : new Parser(tokeniser);
+        parser.setErrorRecovery(true);
+        parser.setMaxErrors(MAX_PARSE_ERRORS);
+        String cacheDirectory = System.getProperty(HEADER_CACHE_PROPERTY);
+        parser.setHeaderCache(new HeaderCache(cacheDirectory != null ? new File(cacheDirectory) : null),
+                inputFile.getAbsoluteFile().getParentFile());
+        parser.setBuiltInHeaders(BUILT_IN_HEADERS);
+        if (inputFile.length() >= ARENA_THRESHOLD)
+            parser.setArena(new ASTArena());
+        if (tokens != null && Runtime.getRuntime().availableProcessors() > 1)
+            parser.setParallelBodies(ForkJoinPool.commonPool());
+        else
+            parser.setTableDriven(true);
+        return parser;
+    }
+
+    // the names of a large program are resolved first and then the bodies of its functions type checked on several
+    // threads, if there is more than one CPU. Otherwise the names of a program kept in an arena are resolved and its
+    // types checked declaration by declaration, so that each function body is rebuilt once rather than twice
+    private static SemanticAnalyzer newSemanticAnalyzer(File inputFile) {
+        SemanticAnalyzer sem = new SemanticAnalyzer();
+        if (inputFile.length() >= PARALLEL_TYPE_CHECK_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1)
+            sem.setParallelBodies(ForkJoinPool.commonPool());
+        else if (inputFile.length() >= ARENA_THRESHOLD)
+            sem.setInterleaved(true);
+        return sem;
+    }
+
     public static void main(String[] args) {
 
         if (args.length != 3)
@@ -62,9 +128,23 @@ public class Main {
             System.out.println("File "+inputFile.toString()+" does not exist.");
             System.exit(FILE_NOT_FOUND);
             return;
+        } catch (IOException e) {
+            System.out.println("File "+inputFile.toString()+" could not be read: "+e.getMessage());
+            System.exit(FILE_NOT_FOUND);
+            return;
         }
 
         Tokeniser tokeniser = new Tokeniser(scanner);
+        TokenStream tokens = null;
+        if (inputFile.length() >= PARALLEL_LEXING_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+            tokens = new ParallelTokeniser(scanner).tokenise();
+            tokeniser = new Tokeniser(tokens);
+        } else if (inputFile.length() >= TOKEN_STREAM_THRESHOLD) {
+            tokens = tokeniser.tokenise();
+            tokeniser = new Tokeniser(tokens);
+        } else if (inputFile.length() >= PIPELINE_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+            tokeniser = new Tokeniser(new TokenPipe(scanner).start());
+        }
         if (mode == Mode.LEXER) {
             for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken()) 
             	System.out.println(t);
@@ -74,7 +154,7 @@ public class Main {
         		System.out.println("Lexing: failed ("+tokeniser.getErrorCount()+" errors)");	
             System.exit(tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL);
         } else if (mode == Mode.PARSER) {
-		    Parser parser = new Parser(tokeniser);
+		    Parser parser = newParser(tokeniser, tokens, inputFile);
 		    parser.parse();
 		    if (parser.getErrorCount() == 0)
 		    	System.out.println("Parsing: pass");
@@ -82,7 +162,7 @@ public class Main {
 		    	System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
 		    System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
         }  else if (mode == Mode.AST) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = newParser(tokeniser, tokens, inputFile);
             Program programAst = parser.parse();
             if (parser.getErrorCount() == 0) {
                 System.out.println("Parsing: pass");
@@ -102,10 +182,10 @@ public class Main {
                 System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
             System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
         } else if (mode == Mode.SEMANTICANALYSIS) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = newParser(tokeniser, tokens, inputFile);
             Program programAst = parser.parse();
             if (parser.getErrorCount() == 0) {
-                SemanticAnalyzer sem = new SemanticAnalyzer();
+                SemanticAnalyzer sem = newSemanticAnalyzer(inputFile);
                 int errors = sem.analyze(programAst);
                 if (errors == 0)
                     System.out.println("Semantic analysis: Pass");
@@ -115,11 +195,11 @@ public class Main {
             } else
                 System.exit(PARSER_FAIL);
         } else if (mode == Mode.GEN) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = newParser(tokeniser, tokens, inputFile);
             Program programAst = parser.parse();
             if (parser.getErrorCount() > 0)
                 System.exit(PARSER_FAIL);
-            SemanticAnalyzer sem = new SemanticAnalyzer();
+            SemanticAnalyzer sem = newSemanticAnalyzer(inputFile);
             int errors = sem.analyze(programAst);
             if (errors > 0)
                 System.exit(SEM_FAIL);
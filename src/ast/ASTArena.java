@@ -0,0 +1,455 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the bodies of functions packed into int arrays rather than as one object per node, so that a large program
+ * is only held as objects one function at a time: a body is rebuilt as a tree of the usual nodes when a pass calls
+ * FunDecl.getBlock(), and packed again, with what the pass filled in, when it calls FunDecl.releaseBlock().
+ *
+ * A body is a run of records, each a tag from ASTFormat followed by the node's fields, a node's children before the
+ * node itself. Children are referred to by the offset of their record, -1 for a missing one. Names, types and the
+ * declarations outside of the body (globals, parameters, functions) are 1 + their index in tables shared by all the
+ * bodies, 0 for null. A reference to a declaration of the body itself is -1 - the offset of its record.
+ *
+ *   VAR_DECL     type name id
+ *   INT_LITERAL  type value             STR_LITERAL  type value            CHR_LITERAL  type value
+ *   VAR_EXPR     type name vd           FUN_CALL     type name fd count expr*
+ *   BIN_OP       type lhs op rhs        ARRAY_ACCESS type array index      FIELD_ACCESS type structure field
+ *   VALUE_AT     type expr              SIZE_OF      type type             TYPECAST     type type expr
+ *   BLOCK        count count vardecl* stmt*
+ *   WHILE expr stmt    IF expr stmt stmt    ASSIGN expr expr    RETURN expr    EXPR_STMT expr
+ *
+ * The type of an expression comes first, as Expr.type. Types are made through TypeFactory, one object per distinct
+ * type, so the type table is keyed by the objects themselves.
+ */
+public final class ASTArena {
+
+    private static final Op[] OPS = Op.values();
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final List<Type> types = new ArrayList<>();
+    private final Map<Type, Integer> typeIndices = new IdentityHashMap<>();
+    private final List<ASTNode> declarations = new ArrayList<>();
+    private final Map<ASTNode, Integer> declarationIndices = new IdentityHashMap<>();
+
+    /*
+     * Moves the body of the function into this arena.
+     */
+    public void add(FunDecl fd) {
+        fd.setBlockStore(new Body());
+    }
+
+    private int string(String s) {
+        if (s == null)
+            return 0;
+        Integer index = stringIndices.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndices.put(s, index);
+        }
+        return index + 1;
+    }
+
+    private int type(Type type) {
+        if (type == null)
+            return 0;
+        Integer index = typeIndices.get(type);
+        if (index == null) {
+            index = types.size();
+            types.add(type);
+            typeIndices.put(type, index);
+        }
+        return index + 1;
+    }
+
+    private int declaration(ASTNode decl) {
+        if (decl == null)
+            return 0;
+        Integer index = declarationIndices.get(decl);
+        if (index == null) {
+            index = declarations.size();
+            declarations.add(decl);
+            declarationIndices.put(decl, index);
+        }
+        return index + 1;
+    }
+
+    /*
+     * The packed body of one function.
+     */
+    private final class Body implements FunDecl.BlockStore {
+        private int[] data;
+        private int root;
+
+        public Block get() {
+            return (Block) new Unpacker(data).node(root);
+        }
+
+        public void store(Block block) {
+            Packer packer = new Packer();
+            root = packer.node(block);
+            data = Arrays.copyOf(packer.data, packer.size);
+        }
+    }
+
+    /*
+     * Dispatches on the class of the node rather than through accept(), so that the passes' own calls to accept()
+     * do not see one more visitor.
+     */
+    private final class Packer {
+        private final Map<VarDecl, Integer> locals = new IdentityHashMap<>();
+        int[] data = new int[256];
+        int size = 0;
+
+        private void add(int value) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+
+        int node(ASTNode node) {
+            if (node == null)
+                return -1;
+            if (node instanceof BinOp)
+                return pack((BinOp) node);
+            if (node instanceof VarExpr)
+                return pack((VarExpr) node);
+            if (node instanceof IntLiteral)
+                return pack((IntLiteral) node);
+            if (node instanceof Assign)
+                return pack((Assign) node);
+            if (node instanceof Block)
+                return pack((Block) node);
+            if (node instanceof FunCallExpr)
+                return pack((FunCallExpr) node);
+            if (node instanceof ExprStmt)
+                return pack((ExprStmt) node);
+            if (node instanceof If)
+                return pack((If) node);
+            if (node instanceof While)
+                return pack((While) node);
+            if (node instanceof Return)
+                return pack((Return) node);
+            if (node instanceof ArrayAccessExpr)
+                return pack((ArrayAccessExpr) node);
+            if (node instanceof ValueAtExpr)
+                return pack((ValueAtExpr) node);
+            if (node instanceof FieldAccessExpr)
+                return pack((FieldAccessExpr) node);
+            if (node instanceof StrLiteral)
+                return pack((StrLiteral) node);
+            if (node instanceof ChrLiteral)
+                return pack((ChrLiteral) node);
+            if (node instanceof SizeOfExpr)
+                return pack((SizeOfExpr) node);
+            if (node instanceof TypecastExpr)
+                return pack((TypecastExpr) node);
+            throw new IllegalStateException("Unexpected node " + node.getClass().getSimpleName());
+        }
+
+        // a declaration of this body, packed on first sight, or one from outside of it
+        private int varDecl(VarDecl vd) {
+            if (vd == null)
+                return 0;
+            Integer offset = locals.get(vd);
+            if (offset != null)
+                return -1 - offset;
+            offset = size;
+            locals.put(vd, offset);
+            add(ASTFormat.VAR_DECL);
+            add(type(vd.type));
+            add(string(vd.varName));
+            add(vd.id);
+            return -1 - offset;
+        }
+
+        // references from expressions to declarations not met in this body are to the outside
+        private int reference(VarDecl vd) {
+            Integer offset = locals.get(vd);
+            return offset != null ? -1 - offset : declaration(vd);
+        }
+
+        private int expr(int tag, Expr e) {
+            int offset = size;
+            add(tag);
+            add(type(e.type));
+            return offset;
+        }
+
+        // Expressions
+        private int pack(IntLiteral i) {
+            int offset = expr(ASTFormat.INT_LITERAL, i);
+            add(i.value);
+            return offset;
+        }
+
+        private int pack(StrLiteral s) {
+            int offset = expr(ASTFormat.STR_LITERAL, s);
+            add(string(s.value));
+            return offset;
+        }
+
+        private int pack(ChrLiteral c) {
+            int offset = expr(ASTFormat.CHR_LITERAL, c);
+            add(c.value);
+            return offset;
+        }
+
+        private int pack(VarExpr v) {
+            int offset = expr(ASTFormat.VAR_EXPR, v);
+            add(string(v.name));
+            add(v.vd == null ? 0 : reference(v.vd));
+            return offset;
+        }
+
+        private int pack(FunCallExpr f) {
+            int[] args = new int[f.params.size()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = node(f.params.get(i));
+            int offset = expr(ASTFormat.FUN_CALL, f);
+            add(string(f.name));
+            add(declaration(f.fd));
+            add(args.length);
+            for (int arg : args)
+                add(arg);
+            return offset;
+        }
+
+        private int pack(BinOp bo) {
+            int lhs = node(bo.lhs);
+            int rhs = node(bo.rhs);
+            int offset = expr(ASTFormat.BIN_OP, bo);
+            add(lhs);
+            add(bo.op.ordinal());
+            add(rhs);
+            return offset;
+        }
+
+        private int pack(ArrayAccessExpr aa) {
+            int array = node(aa.array);
+            int index = node(aa.index);
+            int offset = expr(ASTFormat.ARRAY_ACCESS, aa);
+            add(array);
+            add(index);
+            return offset;
+        }
+
+        private int pack(FieldAccessExpr fa) {
+            int structure = node(fa.structure);
+            int offset = expr(ASTFormat.FIELD_ACCESS, fa);
+            add(structure);
+            add(string(fa.field));
+            return offset;
+        }
+
+        private int pack(ValueAtExpr va) {
+            int e = node(va.expr);
+            int offset = expr(ASTFormat.VALUE_AT, va);
+            add(e);
+            return offset;
+        }
+
+        private int pack(SizeOfExpr so) {
+            int offset = expr(ASTFormat.SIZE_OF, so);
+            add(type(so.type));
+            return offset;
+        }
+
+        private int pack(TypecastExpr t) {
+            int e = node(t.expr);
+            int offset = expr(ASTFormat.TYPECAST, t);
+            add(type(t.type));
+            add(e);
+            return offset;
+        }
+
+        // Statements
+        private int pack(ExprStmt es) {
+            int e = node(es.expr);
+            int offset = size;
+            add(ASTFormat.EXPR_STMT);
+            add(e);
+            return offset;
+        }
+
+        private int pack(While w) {
+            int e = node(w.expr);
+            int stmt = node(w.stmt);
+            int offset = size;
+            add(ASTFormat.WHILE);
+            add(e);
+            add(stmt);
+            return offset;
+        }
+
+        private int pack(If i) {
+            int e = node(i.expr);
+            int stmt1 = node(i.stmt1);
+            int stmt2 = node(i.stmt2);
+            int offset = size;
+            add(ASTFormat.IF);
+            add(e);
+            add(stmt1);
+            add(stmt2);
+            return offset;
+        }
+
+        private int pack(Assign a) {
+            int e1 = node(a.expr1);
+            int e2 = node(a.expr2);
+            int offset = size;
+            add(ASTFormat.ASSIGN);
+            add(e1);
+            add(e2);
+            return offset;
+        }
+
+        private int pack(Return r) {
+            int e = node(r.expr);
+            int offset = size;
+            add(ASTFormat.RETURN);
+            add(e);
+            return offset;
+        }
+
+        private int pack(Block b) {
+            // the declarations first, so that the statements find them
+            int[] params = new int[b.params.size()];
+            for (int i = 0; i < params.length; i++)
+                params[i] = varDecl(b.params.get(i));
+            int[] stmts = new int[b.stmts.size()];
+            for (int i = 0; i < stmts.length; i++)
+                stmts[i] = node(b.stmts.get(i));
+            int offset = size;
+            add(ASTFormat.BLOCK);
+            add(params.length);
+            add(stmts.length);
+            for (int param : params)
+                add(param);
+            for (int stmt : stmts)
+                add(stmt);
+            return offset;
+        }
+
+    }
+
+    private final class Unpacker {
+        private final int[] data;
+        private final VarDecl[] locals; // by offset
+
+        Unpacker(int[] data) {
+            this.data = data;
+            this.locals = new VarDecl[data.length];
+        }
+
+        private String string(int ref) {
+            return ref == 0 ? null : strings.get(ref - 1);
+        }
+
+        private Type type(int ref) {
+            return ref == 0 ? null : types.get(ref - 1);
+        }
+
+        private VarDecl varDecl(int ref) {
+            if (ref == 0)
+                return null;
+            if (ref > 0)
+                return (VarDecl) declarations.get(ref - 1);
+            int offset = -1 - ref;
+            VarDecl vd = locals[offset];
+            if (vd == null) {
+                vd = new VarDecl(type(data[offset + 1]), string(data[offset + 2]), data[offset + 3]);
+                locals[offset] = vd;
+            }
+            return vd;
+        }
+
+        @SuppressWarnings("unchecked")
+        <N extends ASTNode> N node(int offset) {
+            return offset < 0 ? null : (N) build(offset);
+        }
+
+        private ASTNode build(int offset) {
+            int tag = data[offset];
+            int i = offset + 1;
+            switch (tag) {
+                case ASTFormat.BLOCK: {
+                    int paramCount = data[i++];
+                    int stmtCount = data[i++];
+                    List<VarDecl> params = new ArrayList<>(paramCount);
+                    for (int n = 0; n < paramCount; n++)
+                        params.add(varDecl(data[i++]));
+                    List<Stmt> stmts = new ArrayList<>(stmtCount);
+                    for (int n = 0; n < stmtCount; n++)
+                        stmts.add(node(data[i++]));
+                    return new Block(params, stmts);
+                }
+                case ASTFormat.WHILE:
+                    return new While(node(data[i]), node(data[i + 1]));
+                case ASTFormat.IF:
+                    return new If(node(data[i]), node(data[i + 1]), node(data[i + 2]));
+                case ASTFormat.ASSIGN:
+                    return new Assign(node(data[i]), node(data[i + 1]));
+                case ASTFormat.RETURN:
+                    return new Return(node(data[i]));
+                case ASTFormat.EXPR_STMT:
+                    return new ExprStmt(node(data[i]));
+                default: {
+                    Expr e = buildExpr(tag, i + 1);
+                    e.type = type(data[i]);
+                    return e;
+                }
+            }
+        }
+
+        // the fields of an expression start at i, after its type
+        private Expr buildExpr(int tag, int i) {
+            switch (tag) {
+                case ASTFormat.INT_LITERAL:
+                    return new IntLiteral(data[i]);
+                case ASTFormat.STR_LITERAL:
+                    return new StrLiteral(string(data[i]));
+                case ASTFormat.CHR_LITERAL:
+                    return new ChrLiteral((char) data[i]);
+                case ASTFormat.VAR_EXPR: {
+                    VarExpr v = new VarExpr(string(data[i]));
+                    v.vd = varDecl(data[i + 1]);
+                    return v;
+                }
+                case ASTFormat.FUN_CALL: {
+                    String name = string(data[i]);
+                    int fd = data[i + 1];
+                    int count = data[i + 2];
+                    List<Expr> params = new ArrayList<>(count);
+                    for (int n = 0; n < count; n++)
+                        params.add(node(data[i + 3 + n]));
+                    FunCallExpr f = new FunCallExpr(name, params);
+                    f.fd = fd == 0 ? null : (FunDecl) declarations.get(fd - 1);
+                    return f;
+                }
+                case ASTFormat.BIN_OP:
+                    return new BinOp(node(data[i]), OPS[data[i + 1]], node(data[i + 2]));
+                case ASTFormat.ARRAY_ACCESS:
+                    return new ArrayAccessExpr(node(data[i]), node(data[i + 1]));
+                case ASTFormat.FIELD_ACCESS:
+                    return new FieldAccessExpr(node(data[i]), string(data[i + 1]));
+                case ASTFormat.VALUE_AT:
+                    return new ValueAtExpr(node(data[i]));
+                case ASTFormat.SIZE_OF:
+                    return new SizeOfExpr(type(data[i]));
+                case ASTFormat.TYPECAST:
+                    return new TypecastExpr(type(data[i]), node(data[i + 1]));
+                default:
+                    throw new IllegalStateException("Corrupt arena, unexpected tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes a deep copy of a tree, as it was built by the parser: the annotations that the semantic analysis fills in
+ * (Expr.type, VarExpr.vd and FunCallExpr.fd) are not copied. Types hold no such state and are shared. The copied
+ * declarations take new ids from the given Program.ids, so that they can be added to that program.
+ *
+ * Used to hand out a parsed tree more than once, as the semantic analysis modifies the trees it is given.
+ */
+public class ASTCopier implements ASTVisitor<ASTNode> {
+
+    private final AtomicInteger ids;
+
+    public ASTCopier(AtomicInteger ids) {
+        this.ids = ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <N extends ASTNode> N copy(N node) {
+        return node == null ? null : (N) node.accept(this);
+    }
+
+    private <N extends ASTNode> List<N> copy(List<N> nodes) {
+        List<N> copies = new ArrayList<>(nodes.size());
+        for (N node : nodes)
+            copies.add(copy(node));
+        return copies;
+    }
+
+    // Types
+    @Override
+    public ASTNode visitBaseType(BaseType bt) {
+        return bt;
+    }
+
+    @Override
+    public ASTNode visitPointerType(PointerType pt) {
+        return pt;
+    }
+
+    @Override
+    public ASTNode visitStructType(StructType st) {
+        return st;
+    }
+
+    @Override
+    public ASTNode visitArrayType(ArrayType at) {
+        return at;
+    }
+
+    // Expressions
+    @Override
+    public ASTNode visitIntLiteral(IntLiteral i) {
+        return new IntLiteral(i.value);
+    }
+
+    @Override
+    public ASTNode visitStrLiteral(StrLiteral s) {
+        return new StrLiteral(s.value);
+    }
+
+    @Override
+    public ASTNode visitChrLiteral(ChrLiteral c) {
+        return new ChrLiteral(c.value);
+    }
+
+    @Override
+    public ASTNode visitVarExpr(VarExpr v) {
+        return new VarExpr(v.name);
+    }
+
+    @Override
+    public ASTNode visitFunCallExpr(FunCallExpr f) {
+        return new FunCallExpr(f.name, copy(f.params));
+    }
+
+    @Override
+    public ASTNode visitBinOp(BinOp bo) {
+        return new BinOp(copy(bo.lhs), bo.op, copy(bo.rhs));
+    }
+
+    @Override
+    public ASTNode visitOp(Op op) {
+        return op;
+    }
+
+    @Override
+    public ASTNode visitArrayAccessExpr(ArrayAccessExpr aa) {
+        return new ArrayAccessExpr(copy(aa.array), copy(aa.index));
+    }
+
+    @Override
+    public ASTNode visitFieldAccessExpr(FieldAccessExpr fa) {
+        return new FieldAccessExpr(copy(fa.structure), fa.field);
+    }
+
+    @Override
+    public ASTNode visitValueAtExpr(ValueAtExpr va) {
+        return new ValueAtExpr(copy(va.expr));
+    }
+
+    @Override
+    public ASTNode visitSizeOfExpr(SizeOfExpr so) {
+        return new SizeOfExpr(so.type);
+    }
+
+    @Override
+    public ASTNode visitTypecastExpr(TypecastExpr t) {
+        return new TypecastExpr(t.type, copy(t.expr));
+    }
+
+    // Statements
+    @Override
+    public ASTNode visitExprStmt(ExprStmt es) {
+        return new ExprStmt(copy(es.expr));
+    }
+
+    @Override
+    public ASTNode visitWhile(While w) {
+        return new While(copy(w.expr), copy(w.stmt));
+    }
+
+    @Override
+    public ASTNode visitIf(If i) {
+        return new If(copy(i.expr), copy(i.stmt1), copy(i.stmt2));
+    }
+
+    @Override
+    public ASTNode visitAssign(Assign a) {
+        return new Assign(copy(a.expr1), copy(a.expr2));
+    }
+
+    @Override
+    public ASTNode visitReturn(Return r) {
+        return new Return(copy(r.expr));
+    }
+
+    @Override
+    public ASTNode visitBlock(Block b) {
+        return new Block(copy(b.params), copy(b.stmts));
+    }
+
+    // Declarations
+    @Override
+    public ASTNode visitProgram(Program p) {
+        Program copy = new Program(copy(p.structTypeDecls), copy(p.varDecls), copy(p.funDecls), ids);
+        if (p.builtInFunsAdded())
+            copy.setBuiltInFunsAdded();
+        return copy;
+    }
+
+    @Override
+    public ASTNode visitStructTypeDecl(StructTypeDecl st) {
+        return new StructTypeDecl(st.structType, copy(st.params));
+    }
+
+    @Override
+    public ASTNode visitVarDecl(VarDecl vd) {
+        return new VarDecl(vd.type, vd.varName, ids.getAndIncrement());
+    }
+
+    @Override
+    public ASTNode visitFunDecl(FunDecl p) {
+        return new FunDecl(p.type, p.name, copy(p.params), copy(p.getBlock()), ids.getAndIncrement());
+    }
+}
@@ -0,0 +1,73 @@
+package ast;
+
+/**
+ * The binary encoding of a Program written by ASTWriter and read by ASTReader.
+ *
+ *   file       ::= MAGIC VERSION program CHECKSUM
+ *   program    ::= flags count structdecl* count vardecl* count fundecl*
+ *   structdecl ::= name count vardecl*
+ *   vardecl    ::= VAR_DECL type name | DECL_REF index
+ *   fundecl    ::= FUN_DECL type name count vardecl* block
+ *   stmt       ::= a statement tag followed by its fields, in constructor order, NONE for a missing one
+ *   expr       ::= an expression tag followed by its fields, in constructor order, then its type (NONE if not known)
+ *   type       ::= INT | CHAR | VOID | POINTER type | STRUCT name | ARRAY type count
+ *
+ * Counts, indices and characters are unsigned varints (7 bits per byte, low bits first) and int literals zigzag
+ * varints. Names and string literals go through a string table built as the stream is read: a varint 0 is followed
+ * by a new string (its length, then its characters), anything else is 1 + the index of a string seen before.
+ *
+ * Variable and function declarations are numbered in the order they are written, each kind on its own. A variable
+ * declaration met again is written as a DECL_REF, and the declarations VarExpr.vd and FunCallExpr.fd refer to are
+ * written as 1 + their index, 0 when not resolved.
+ * The ids of the declarations are not part of the encoding: they are given again, in the order read.
+ *
+ * The flags of a program are a count whose bit BUILT_IN_FUNS_ADDED is set if Program.builtInFunsAdded().
+ *
+ * CHECKSUM is the CRC-32 of all the bytes before it, in 4 bytes, high byte first as MAGIC. Nothing follows it.
+ */
+final class ASTFormat {
+
+    static final int MAGIC = 0x4D434153; // "MCAS"
+    static final int VERSION = 3;
+
+    // program flags
+    static final int BUILT_IN_FUNS_ADDED = 1;
+
+    static final int NONE = 0;
+
+    // types
+    static final int INT = 1;
+    static final int CHAR = 2;
+    static final int VOID = 3;
+    static final int POINTER = 4;
+    static final int STRUCT = 5;
+    static final int ARRAY = 6;
+
+    // declarations
+    static final int VAR_DECL = 10;
+    static final int DECL_REF = 11;
+    static final int FUN_DECL = 12;
+
+    // statements
+    static final int BLOCK = 20;
+    static final int WHILE = 21;
+    static final int IF = 22;
+    static final int ASSIGN = 23;
+    static final int RETURN = 24;
+    static final int EXPR_STMT = 25;
+
+    // expressions
+    static final int INT_LITERAL = 30;
+    static final int STR_LITERAL = 31;
+    static final int CHR_LITERAL = 32;
+    static final int VAR_EXPR = 33;
+    static final int FUN_CALL = 34;
+    static final int BIN_OP = 35;
+    static final int ARRAY_ACCESS = 36;
+    static final int FIELD_ACCESS = 37;
+    static final int VALUE_AT = 38;
+    static final int SIZE_OF = 39;
+    static final int TYPECAST = 40;
+
+    private ASTFormat() {}
+}
@@ -2,4 +2,7 @@ package ast;
 
 public interface ASTNode {
     public <T> T accept(ASTVisitor<T> v);
+
+    // what kind of node this is, for the passes that dispatch on it rather than through accept (see ASTWalker)
+    public NodeKind kind();
 }
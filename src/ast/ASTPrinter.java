@@ -2,7 +2,7 @@ package ast;
 
 import java.io.PrintWriter;
 
-public class ASTPrinter implements ASTVisitor<Void> {
+public class ASTPrinter extends ASTWalker<Void> {
 
     private PrintWriter writer;
 
@@ -27,222 +27,76 @@ public class ASTPrinter implements ASTVisitor<Void> {
             this.writer = writer;
     }
 
-    //Types
-    @Override
-    public Void visitBaseType(BaseType bt){
-        writer.print(""+bt);
-        return null;
-    }
-
-    @Override
-    public Void visitPointerType(PointerType pt){
-        writer.print("PointerType(");
-        pt.type.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitStructType(StructType st){
-        writer.print("StructType(");
-        writer.print(st.structName);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitArrayType(ArrayType at){
-        writer.print("ArrayType(");
-        at.type.accept(this);
-        writer.print(","+at.elements);
-        writer.print(")");
-        return null;
-    }
-
-    //Expressions
-    @Override
-    public Void visitIntLiteral(IntLiteral i) {
-        writer.print("IntLiteral(");
-        writer.print(i.value);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitStrLiteral(StrLiteral s) {
-        writer.print("StrLiteral(");
-        writer.print(s.value);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitChrLiteral(ChrLiteral c) {
-        writer.print("ChrLiteral(");
-        writer.print(printChar(c.value));
-        writer.print(")");
-        return null;
-    }
-
-
-    @Override
-    public Void visitVarExpr(VarExpr v) {
-        writer.print("VarExpr(");
-        writer.print(v.name);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitFunCallExpr(FunCallExpr f) {
-        writer.print("FunCallExpr(");
-        writer.print(f.name);
-        for (Expr param: f.params) {
-            writer.print(",");
-            param.accept(this);
+    // opens the node, and prints its fields that are not nodes where they come before the children
+    @Override
+    protected boolean pre(ASTNode node) {
+        switch (node.kind()) {
+            case BASE_TYPE:         writer.print(""+node); break;
+            case OP:                writer.print(""+node); break;
+            case POINTER_TYPE:      writer.print("PointerType("); break;
+            case STRUCT_TYPE:       writer.print("StructType("); writer.print(((StructType) node).structName); break;
+            case ARRAY_TYPE:        writer.print("ArrayType("); break;
+            case INT_LITERAL:       writer.print("IntLiteral("); writer.print(((IntLiteral) node).value); break;
+            case STR_LITERAL:       writer.print("StrLiteral("); writer.print(((StrLiteral) node).value); break;
+            case CHR_LITERAL:       writer.print("ChrLiteral("); writer.print(printChar(((ChrLiteral) node).value)); break;
+            case VAR_EXPR:          writer.print("VarExpr("); writer.print(((VarExpr) node).name); break;
+            case FUN_CALL_EXPR:     writer.print("FunCallExpr("); writer.print(((FunCallExpr) node).name); break;
+            case BIN_OP:            writer.print("BinOp("); break;
+            case ARRAY_ACCESS_EXPR: writer.print("ArrayAccessExpr("); break;
+            case FIELD_ACCESS_EXPR: writer.print("FieldAccessExpr("); break;
+            case VALUE_AT_EXPR:     writer.print("ValueAtExpr("); break;
+            case SIZE_OF_EXPR:      writer.print("SizeOfExpr("); break;
+            case TYPECAST_EXPR:     writer.print("TypecastExpr("); break;
+            case EXPR_STMT:         writer.print("ExprStmt("); break;
+            case WHILE:             writer.print("While("); break;
+            case IF:                writer.print("If("); break;
+            case ASSIGN:            writer.print("Assign("); break;
+            case RETURN:            writer.print("Return("); break;
+            case BLOCK:             writer.print("Block("); break;
+            case STRUCT_TYPE_DECL:  writer.print("StructTypeDecl("); break;
+            case VAR_DECL:          writer.print("VarDecl("); break;
+            case FUN_DECL:          writer.print("FunDecl("); break;
+            default:                throw new IllegalStateException(node.kind().toString());
         }
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitBinOp(BinOp bo) {
-        writer.print("BinOp(");
-        bo.lhs.accept(this);
-        writer.print(",");
-        bo.op.accept(this);
-        writer.print(",");
-        bo.rhs.accept(this);
-        writer.print(")");
-        return null;
+        return true;
     }
 
+    // the separators between the children
     @Override
-    public Void visitOp(Op op){
-        writer.print(""+op);
-        return null;
-    }
-
-    @Override
-    public Void visitArrayAccessExpr(ArrayAccessExpr aa) {
-        writer.print("ArrayAccessExpr(");
-        aa.array.accept(this);
-        writer.print(",");
-        aa.index.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitFieldAccessExpr(FieldAccessExpr fa) {
-        writer.print("FieldAccessExpr(");
-        fa.structure.accept(this);
-        writer.print(",");
-        writer.print(fa.field);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitValueAtExpr(ValueAtExpr va) {
-        writer.print("ValueAtExpr(");
-        va.expr.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitSizeOfExpr(SizeOfExpr so) {
-        writer.print("SizeOfExpr(");
-        so.type.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitTypecastExpr(TypecastExpr t) {
-        writer.print("TypecastExpr(");
-        t.type.accept(this);
-        writer.print(",");
-        t.expr.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    //Stmt
-
-    @Override
-    public Void visitExprStmt(ExprStmt es) {
-        writer.print("ExprStmt(");
-        es.expr.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitWhile(While w) {
-        writer.print("While(");
-        w.expr.accept(this);
-        writer.print(",");
-        w.stmt.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitIf(If i) {
-        writer.print("If(");
-        i.expr.accept(this);
-        writer.print(",");
-        i.stmt1.accept(this);
-        if (i.stmt2 != null){
-            writer.print(",");
-            i.stmt2.accept(this);
-        }
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitAssign(Assign a) {
-        writer.print("Assign(");
-        a.expr1.accept(this);
-        writer.print(",");
-        a.expr2.accept(this);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitReturn(Return r) {
-        writer.print("Return(");
-        if (r.expr != null){
-            r.expr.accept(this);
+    protected ASTNode child(ASTNode node, int index) {
+        ASTNode child = super.child(node, index);
+        if (child == null)
+            return null;
+        switch (node.kind()) {
+            case FUN_CALL_EXPR:
+                // after the name
+                writer.print(",");
+                break;
+            case FUN_DECL:
+                if (index == 1)
+                    writer.print(","+((FunDecl) node).name+",");
+                else if (index > 1)
+                    // after each param
+                    writer.print(",");
+                break;
+            default:
+                if (index > 0)
+                    writer.print(",");
         }
-        writer.print(")");
-        return null;
+        return child;
     }
 
+    // prints the fields that come after the children, and closes the node
     @Override
-    public Void visitBlock(Block b) {
-        // more complicated than others since commas must match
-        writer.print("Block(");
-        if(!b.params.isEmpty()) {
-            b.params.get(0).accept(this);
-            for (int i = 1; i < b.params.size(); i++) {
-                writer.print(",");
-                b.params.get(i).accept(this);
-            }
-        }
-        if(!b.stmts.isEmpty()) {
-            if (!b.params.isEmpty()){
-                writer.print(",");
-            }
-            b.stmts.get(0).accept(this);
-            for (int i = 1; i < b.stmts.size(); i++) {
-                writer.print(",");
-                b.stmts.get(i).accept(this);
-            }
+    protected Void post(ASTNode node) {
+        switch (node.kind()) {
+            case BASE_TYPE:
+            case OP:
+                return null;
+            case ARRAY_TYPE:        writer.print(","+((ArrayType) node).elements); break;
+            case FIELD_ACCESS_EXPR: writer.print(","); writer.print(((FieldAccessExpr) node).field); break;
+            case VAR_DECL:          writer.print(","+((VarDecl) node).varName); break;
+            default:
         }
         writer.print(")");
         return null;
@@ -266,44 +120,10 @@ public class ASTPrinter implements ASTVisitor<Void> {
             writer.print(delimiter);
             delimiter = ",";
             fd.accept(this);
+            fd.discardBlock();
         }
         writer.print(")");
         writer.flush();
         return null;
     }
-
-    @Override
-    public Void visitStructTypeDecl(StructTypeDecl st) {
-        writer.print("StructTypeDecl(");
-        st.structType.accept(this);
-        for (VarDecl vd : st.params) {
-            writer.print(",");
-            vd.accept(this);
-        }
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitVarDecl(VarDecl vd){
-        writer.print("VarDecl(");
-        vd.type.accept(this);
-        writer.print(","+vd.varName);
-        writer.print(")");
-        return null;
-    }
-
-    @Override
-    public Void visitFunDecl(FunDecl fd) {
-        writer.print("FunDecl(");
-        fd.type.accept(this);
-        writer.print(","+fd.name+",");
-        for (VarDecl vd : fd.params) {
-            vd.accept(this);
-            writer.print(",");
-        }
-        fd.block.accept(this);
-        writer.print(")");
-        return null;
-    }
 }
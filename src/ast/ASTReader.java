@@ -0,0 +1,348 @@
+package ast;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Reads back a Program written by ASTWriter, as the stream is read. Declaration references are resolved to the
+ * decoded declarations, a call to the function being decoded once that function has been built.
+ *
+ * A stream that is cut short, or that is not what ASTWriter wrote, is rejected with an IOException rather than read in
+ * part: every tag, index and length is checked as it is read, and the checksum written after the program is compared
+ * with that of the bytes read, which must be the last of the stream.
+ */
+public class ASTReader {
+
+    private static final Op[] OPS = Op.values();
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+
+    // of the bytes read, up to checked in the buffer
+    private final CRC32 crc = new CRC32();
+    private int checked = 0;
+
+    private final List<String> strings = new ArrayList<>();
+    private final List<VarDecl> varDecls = new ArrayList<>();
+    private final List<FunDecl> funDecls = new ArrayList<>(); // null while the function's body is read
+    private final AtomicInteger ids = new AtomicInteger(); // the declarations are numbered again as they are read
+
+    // calls to the function being read, to point at it once it is built
+    private final List<FunCallExpr> recursiveCalls = new ArrayList<>();
+
+    public ASTReader(InputStream in) {
+        this.in = in;
+    }
+
+    // buffered here rather than through a BufferedInputStream, whose methods are synchronized
+    private int readByte() throws IOException {
+        if (position == limit) {
+            crc.update(buffer, checked, limit - checked);
+            checked = 0;
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException("Truncated AST file");
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    public Program read() throws IOException {
+        int magic = 0;
+        for (int i = 0; i < 4; i++)
+            magic = magic << 8 | readByte();
+        if (magic != ASTFormat.MAGIC)
+            throw new IOException("Not an AST file");
+        int version = readCount();
+        if (version != ASTFormat.VERSION)
+            throw new IOException("Unsupported AST file version " + version);
+
+        Program program;
+        try {
+            program = readProgram();
+        } catch (StackOverflowError e) {
+            throw new IOException("Corrupt AST file, nested too deeply");
+        }
+
+        crc.update(buffer, checked, position - checked);
+        checked = position;
+        int checksum = 0;
+        for (int i = 0; i < 4; i++)
+            checksum = checksum << 8 | readByte();
+        if (checksum != (int) crc.getValue())
+            throw new IOException("Corrupt AST file, checksum mismatch");
+        if (position < limit || in.read() >= 0)
+            throw new IOException("Corrupt AST file, data after the program");
+        return program;
+    }
+
+    private Program readProgram() throws IOException {
+        int flags = readCount();
+        int count = readCount();
+        List<StructTypeDecl> structTypeDecls = list(count);
+        for (int i = 0; i < count; i++) {
+            StructType structType = TypeFactory.struct(readString());
+            structTypeDecls.add(new StructTypeDecl(structType, readVarDecls()));
+        }
+        List<VarDecl> vds = readVarDecls();
+        count = readCount();
+        List<FunDecl> fds = list(count);
+        for (int i = 0; i < count; i++)
+            fds.add(readFunDecl(readByte()));
+        Program program = new Program(structTypeDecls, vds, fds, ids);
+        if ((flags & ASTFormat.BUILT_IN_FUNS_ADDED) != 0)
+            program.setBuiltInFunsAdded();
+        return program;
+    }
+
+    // a list for count elements, not sized beyond what the rest of the stream could hold until they have been read
+    private static <T> List<T> list(int count) {
+        return new ArrayList<>(Math.min(count, 1024));
+    }
+
+    // at most the 5 bytes that 32 bits take
+    private int readVarint() throws IOException {
+        int n = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28)
+                throw new IOException("Corrupt AST file, varint too long");
+            b = readByte();
+            n |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return n;
+    }
+
+    private int readCount() throws IOException {
+        int n = readVarint();
+        if (n < 0)
+            throw new IOException("Corrupt AST file, count out of range");
+        return n;
+    }
+
+    // 1 + an index into the list, 0 for none
+    private static <T> T reference(List<T> list, int ref) throws IOException {
+        if (ref > list.size())
+            throw new IOException("Corrupt AST file, reference out of range");
+        return ref == 0 ? null : list.get(ref - 1);
+    }
+
+    private int readInt() throws IOException {
+        int n = readVarint();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private char readChar() throws IOException {
+        int c = readCount();
+        if (c > Character.MAX_VALUE)
+            throw new IOException("Corrupt AST file, character out of range");
+        return (char) c;
+    }
+
+    private String readString() throws IOException {
+        int ref = readCount();
+        if (ref > 0)
+            return reference(strings, ref);
+        int length = readCount();
+        StringBuilder sb = new StringBuilder(Math.min(length, 1024));
+        for (int i = 0; i < length; i++)
+            sb.append(readChar());
+        String s = sb.toString();
+        strings.add(s);
+        return s;
+    }
+
+    private IOException corrupt(int tag) {
+        return new IOException("Corrupt AST file, unexpected tag " + tag);
+    }
+
+    // null for NONE
+    private Type readType() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case ASTFormat.NONE:    return null;
+            case ASTFormat.INT:     return BaseType.INT;
+            case ASTFormat.CHAR:    return BaseType.CHAR;
+            case ASTFormat.VOID:    return BaseType.VOID;
+            case ASTFormat.POINTER: return TypeFactory.pointer(readRequiredType());
+            case ASTFormat.STRUCT:  return TypeFactory.struct(readString());
+            case ASTFormat.ARRAY: {
+                Type type = readRequiredType();
+                return TypeFactory.array(type, readCount());
+            }
+            default: throw corrupt(tag);
+        }
+    }
+
+    // the type of a declaration, or the element type of a pointer or array
+    private Type readRequiredType() throws IOException {
+        Type type = readType();
+        if (type == null)
+            throw corrupt(ASTFormat.NONE);
+        return type;
+    }
+
+    private List<VarDecl> readVarDecls() throws IOException {
+        int count = readCount();
+        List<VarDecl> vds = list(count);
+        for (int i = 0; i < count; i++)
+            vds.add(readVarDecl());
+        return vds;
+    }
+
+    private VarDecl readVarDecl() throws IOException {
+        int tag = readByte();
+        if (tag == ASTFormat.DECL_REF) {
+            int index = readCount();
+            if (index >= varDecls.size())
+                throw new IOException("Corrupt AST file, reference out of range");
+            return varDecls.get(index);
+        }
+        if (tag != ASTFormat.VAR_DECL)
+            throw corrupt(tag);
+        Type type = readRequiredType();
+        VarDecl vd = new VarDecl(type, readString(), ids.getAndIncrement());
+        varDecls.add(vd);
+        return vd;
+    }
+
+    private FunDecl readFunDecl(int tag) throws IOException {
+        if (tag != ASTFormat.FUN_DECL)
+            throw corrupt(tag);
+        int index = funDecls.size();
+        funDecls.add(null);
+        Type type = readType();
+        String name = readString();
+        List<VarDecl> params = readVarDecls();
+        Block block = readBlock(readByte());
+        FunDecl fd = new FunDecl(type, name, params, block, ids.getAndIncrement());
+        funDecls.set(index, fd);
+        for (FunCallExpr call : recursiveCalls)
+            call.fd = fd;
+        recursiveCalls.clear();
+        return fd;
+    }
+
+    private Block readBlock(int tag) throws IOException {
+        if (tag != ASTFormat.BLOCK)
+            throw corrupt(tag);
+        List<VarDecl> params = readVarDecls();
+        int count = readCount();
+        List<Stmt> stmts = list(count);
+        for (int i = 0; i < count; i++)
+            stmts.add(readStmt(readByte()));
+        return new Block(params, stmts);
+    }
+
+    // null for NONE
+    private Stmt readStmt(int tag) throws IOException {
+        switch (tag) {
+            case ASTFormat.NONE:
+                return null;
+            case ASTFormat.BLOCK:
+                return readBlock(tag);
+            case ASTFormat.WHILE: {
+                Expr e = readExpr();
+                return new While(e, readStmt(readByte()));
+            }
+            case ASTFormat.IF: {
+                Expr e = readExpr();
+                Stmt stmt1 = readStmt(readByte());
+                return new If(e, stmt1, readStmt(readByte()));
+            }
+            case ASTFormat.ASSIGN: {
+                Expr e1 = readExpr();
+                return new Assign(e1, readExpr());
+            }
+            case ASTFormat.RETURN:
+                return new Return(readExpr());
+            case ASTFormat.EXPR_STMT:
+                return new ExprStmt(readExpr());
+            default:
+                throw corrupt(tag);
+        }
+    }
+
+    // null for NONE
+    private Expr readExpr() throws IOException {
+        int tag = readByte();
+        Expr e;
+        switch (tag) {
+            case ASTFormat.NONE:
+                return null;
+            case ASTFormat.INT_LITERAL:
+                e = new IntLiteral(readInt());
+                break;
+            case ASTFormat.STR_LITERAL:
+                e = new StrLiteral(readString());
+                break;
+            case ASTFormat.CHR_LITERAL:
+                e = new ChrLiteral(readChar());
+                break;
+            case ASTFormat.VAR_EXPR: {
+                VarExpr v = new VarExpr(readString());
+                v.vd = reference(varDecls, readCount());
+                e = v;
+                break;
+            }
+            case ASTFormat.FUN_CALL: {
+                String name = readString();
+                int count = readCount();
+                List<Expr> params = list(count);
+                for (int i = 0; i < count; i++)
+                    params.add(readExpr());
+                FunCallExpr f = new FunCallExpr(name, params);
+                int ref = readCount();
+                f.fd = reference(funDecls, ref);
+                if (ref > 0 && f.fd == null)
+                    recursiveCalls.add(f);
+                e = f;
+                break;
+            }
+            case ASTFormat.BIN_OP: {
+                Expr lhs = readExpr();
+                int op = readByte();
+                if (op >= OPS.length)
+                    throw new IOException("Corrupt AST file, unknown operator " + op);
+                e = new BinOp(lhs, OPS[op], readExpr());
+                break;
+            }
+            case ASTFormat.ARRAY_ACCESS: {
+                Expr array = readExpr();
+                e = new ArrayAccessExpr(array, readExpr());
+                break;
+            }
+            case ASTFormat.FIELD_ACCESS: {
+                Expr structure = readExpr();
+                e = new FieldAccessExpr(structure, readString());
+                break;
+            }
+            case ASTFormat.VALUE_AT:
+                e = new ValueAtExpr(readExpr());
+                break;
+            case ASTFormat.SIZE_OF:
+                e = new SizeOfExpr(readType());
+                break;
+            case ASTFormat.TYPECAST: {
+                Type type = readType();
+                e = new TypecastExpr(type, readExpr());
+                break;
+            }
+            default:
+                throw corrupt(tag);
+        }
+        e.type = readType();
+        return e;
+    }
+}
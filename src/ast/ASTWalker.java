@@ -0,0 +1,387 @@
+package ast;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks a tree with stacks of its own, on the heap, rather than by recursing through accept: how deep a tree can be
+ * walked is no longer limited by the size of the thread's stack, so long else-if chains and deeply nested expressions,
+ * such as generated programs have, can be walked like any other. Nodes are told apart by their kind() rather than by
+ * double dispatch.
+ *
+ * A pass extends this class and walks each node in three steps:
+ *
+ *   pre(node)       on the way down. Returning false skips the node: its children and post are not walked, and its
+ *                   result is null.
+ *   child(node, i)  the node's children, asked for one at a time, each once the ones before it have been walked, until
+ *                   it returns null. By default those of the node's kind, in the order of its fields, but a pass may walk
+ *                   others, in another order, and do what it has to between two children here.
+ *   post(node)      on the way up, returning the node's result. The results of its children are given by result(i).
+ *
+ * A walker is also a visitor, whose visit methods walk the node they are given: it can be handed to accept like any
+ * visitor. A walk started from within a hook is walked on the same stacks and returns before the hook does.
+ *
+ * Walking costs several times what recursing through accept does, as every node goes through the same few hooks
+ * rather than through call sites that each see a few kinds. A pass that has to be fast can override the visit methods
+ * as well, to deal with each node on its own and visit(...) its parts, sharing the rules with its hooks: visit recurses
+ * through accept, and only once MAX_RECURSION visits are nested does it walk the node, with the hooks, instead.
+ */
+public abstract class ASTWalker<T> implements ASTVisitor<T> {
+
+    // one frame per node being walked, from the root
+    private ASTNode[] nodes = new ASTNode[64];
+    private int[] asked = new int[64];     // number of children asked for so far
+    private int[] bases = new int[64];     // where the results of the node's children start
+    private Object[] states = new Object[64];
+    private int depth = 0;
+
+    // the results of the children walked so far, of each node on the stack in turn
+    private Object[] results = new Object[64];
+    private int size = 0;
+
+    // how many visits may be nested, well within the stack of a thread, before the rest of a tree is walked
+    private static final int MAX_RECURSION = 500;
+    private int recursion = 0;
+
+    /*
+     * Called on the way down. Returns false to skip the node.
+     */
+    protected boolean pre(ASTNode node) {
+        return true;
+    }
+
+    /*
+     * Returns the child of the node at the given index, or null when there are no more. Called with index 0, 1, 2... in
+     * turn, each once the children before it have been walked, and with no index past the first that returned null.
+     */
+    protected ASTNode child(ASTNode node, int index) {
+        switch (node.kind()) {
+            case POINTER_TYPE:
+                return index == 0 ? ((PointerType) node).type : null;
+            case ARRAY_TYPE:
+                return index == 0 ? ((ArrayType) node).type : null;
+            case FUN_CALL_EXPR:
+                return element(((FunCallExpr) node).params, index);
+            case BIN_OP: {
+                BinOp bo = (BinOp) node;
+                return index == 0 ? bo.lhs : index == 1 ? bo.op : index == 2 ? bo.rhs : null;
+            }
+            case ARRAY_ACCESS_EXPR: {
+                ArrayAccessExpr aa = (ArrayAccessExpr) node;
+                return index == 0 ? aa.array : index == 1 ? aa.index : null;
+            }
+            case FIELD_ACCESS_EXPR:
+                return index == 0 ? ((FieldAccessExpr) node).structure : null;
+            case VALUE_AT_EXPR:
+                return index == 0 ? ((ValueAtExpr) node).expr : null;
+            case SIZE_OF_EXPR:
+                return index == 0 ? ((SizeOfExpr) node).type : null;
+            case TYPECAST_EXPR: {
+                TypecastExpr t = (TypecastExpr) node;
+                return index == 0 ? t.type : index == 1 ? t.expr : null;
+            }
+            case EXPR_STMT:
+                return index == 0 ? ((ExprStmt) node).expr : null;
+            case WHILE: {
+                While w = (While) node;
+                return index == 0 ? w.expr : index == 1 ? w.stmt : null;
+            }
+            case IF: {
+                If i = (If) node;
+                return index == 0 ? i.expr : index == 1 ? i.stmt1 : index == 2 ? i.stmt2 : null;
+            }
+            case ASSIGN: {
+                Assign a = (Assign) node;
+                return index == 0 ? a.expr1 : index == 1 ? a.expr2 : null;
+            }
+            case RETURN:
+                return index == 0 ? ((Return) node).expr : null;
+            case BLOCK: {
+                Block b = (Block) node;
+                if (index < b.params.size())
+                    return b.params.get(index);
+                return element(b.stmts, index - b.params.size());
+            }
+            case PROGRAM: {
+                Program p = (Program) node;
+                if (index < p.structTypeDecls.size())
+                    return p.structTypeDecls.get(index);
+                index -= p.structTypeDecls.size();
+                if (index < p.varDecls.size())
+                    return p.varDecls.get(index);
+                return element(p.funDecls, index - p.varDecls.size());
+            }
+            case STRUCT_TYPE_DECL: {
+                StructTypeDecl st = (StructTypeDecl) node;
+                return index == 0 ? st.structType : element(st.params, index - 1);
+            }
+            case VAR_DECL:
+                return index == 0 ? ((VarDecl) node).type : null;
+            case FUN_DECL: {
+                FunDecl fd = (FunDecl) node;
+                if (index == 0)
+                    return fd.type;
+                if (index <= fd.params.size())
+                    return fd.params.get(index - 1);
+                return index == fd.params.size() + 1 ? fd.getBlock() : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    // the element of the list at the given index, null past its end
+    protected static ASTNode element(List<? extends ASTNode> nodes, int index) {
+        return index < nodes.size() ? nodes.get(index) : null;
+    }
+
+    /*
+     * Called on the way up, once the node's children have been walked. Returns the node's result.
+     */
+    protected abstract T post(ASTNode node);
+
+    /*
+     * The result of the child at the given index of the node being walked, from within child() or post().
+     */
+    @SuppressWarnings("unchecked")
+    protected final T result(int index) {
+        int base = bases[depth - 1];
+        if (index < 0 || base + index >= size)
+            throw new IndexOutOfBoundsException("No result for child " + index);
+        return (T) results[base + index];
+    }
+
+    /*
+     * Something kept for the node being walked, from one of its hooks to the next. Null until set.
+     */
+    protected final void setState(Object state) {
+        states[depth - 1] = state;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected final <S> S getState() {
+        return (S) states[depth - 1];
+    }
+
+    /*
+     * Walks the tree under the given node and returns the node's result.
+     */
+    @SuppressWarnings("unchecked")
+    public final T walk(ASTNode root) {
+        int bottom = depth;
+        int resultsBottom = size;
+        boolean done = false;
+        try {
+            enter(root);
+            while (depth > bottom) {
+                int top = depth - 1;
+                ASTNode node = nodes[top];
+                ASTNode child = child(node, asked[top]++);
+                if (child != null) {
+                    enter(child);
+                    continue;
+                }
+                T result = post(node);
+                depth = top;
+                nodes[top] = null;
+                states[top] = null;
+                truncate(bases[top]);
+                add(result);
+            }
+            done = true;
+            T result = (T) results[resultsBottom];
+            truncate(resultsBottom);
+            return result;
+        } finally {
+            if (!done) {
+                // a hook threw: drop what is left of this walk, the walk it was started from (if any) goes on
+                for (int i = bottom; i < depth; i++) {
+                    nodes[i] = null;
+                    states[i] = null;
+                }
+                depth = bottom;
+                truncate(resultsBottom);
+            }
+        }
+    }
+
+    /*
+     * Visits the node through accept, or walks it if MAX_RECURSION visits are nested, and returns its result.
+     */
+    protected final T visit(ASTNode node) {
+        if (recursion == MAX_RECURSION)
+            return walk(node);
+        recursion++;
+        try {
+            return node.accept(this);
+        } finally {
+            recursion--;
+        }
+    }
+
+    // pushes the node, which pre() can then keep a state for, unless it is skipped
+    private void enter(ASTNode node) {
+        push(node);
+        if (!pre(node)) {
+            depth--;
+            nodes[depth] = null;
+            states[depth] = null;
+            add(null);
+        }
+    }
+
+    private void push(ASTNode node) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            asked = Arrays.copyOf(asked, depth * 2);
+            bases = Arrays.copyOf(bases, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        nodes[depth] = node;
+        asked[depth] = 0;
+        bases[depth] = size;
+        depth++;
+    }
+
+    private void add(Object result) {
+        if (size == results.length)
+            results = Arrays.copyOf(results, size * 2);
+        results[size++] = result;
+    }
+
+    private void truncate(int newSize) {
+        Arrays.fill(results, newSize, size, null);
+        size = newSize;
+    }
+
+    // Visiting a node walks it
+    @Override
+    public T visitBaseType(BaseType bt) {
+        return walk(bt);
+    }
+
+    @Override
+    public T visitPointerType(PointerType pt) {
+        return walk(pt);
+    }
+
+    @Override
+    public T visitStructType(StructType st) {
+        return walk(st);
+    }
+
+    @Override
+    public T visitArrayType(ArrayType at) {
+        return walk(at);
+    }
+
+    @Override
+    public T visitIntLiteral(IntLiteral i) {
+        return walk(i);
+    }
+
+    @Override
+    public T visitStrLiteral(StrLiteral s) {
+        return walk(s);
+    }
+
+    @Override
+    public T visitChrLiteral(ChrLiteral c) {
+        return walk(c);
+    }
+
+    @Override
+    public T visitVarExpr(VarExpr v) {
+        return walk(v);
+    }
+
+    @Override
+    public T visitFunCallExpr(FunCallExpr f) {
+        return walk(f);
+    }
+
+    @Override
+    public T visitBinOp(BinOp bo) {
+        return walk(bo);
+    }
+
+    @Override
+    public T visitOp(Op op) {
+        return walk(op);
+    }
+
+    @Override
+    public T visitArrayAccessExpr(ArrayAccessExpr aa) {
+        return walk(aa);
+    }
+
+    @Override
+    public T visitFieldAccessExpr(FieldAccessExpr fa) {
+        return walk(fa);
+    }
+
+    @Override
+    public T visitValueAtExpr(ValueAtExpr va) {
+        return walk(va);
+    }
+
+    @Override
+    public T visitSizeOfExpr(SizeOfExpr so) {
+        return walk(so);
+    }
+
+    @Override
+    public T visitTypecastExpr(TypecastExpr t) {
+        return walk(t);
+    }
+
+    @Override
+    public T visitExprStmt(ExprStmt es) {
+        return walk(es);
+    }
+
+    @Override
+    public T visitWhile(While w) {
+        return walk(w);
+    }
+
+    @Override
+    public T visitIf(If i) {
+        return walk(i);
+    }
+
+    @Override
+    public T visitAssign(Assign a) {
+        return walk(a);
+    }
+
+    @Override
+    public T visitReturn(Return r) {
+        return walk(r);
+    }
+
+    @Override
+    public T visitBlock(Block b) {
+        return walk(b);
+    }
+
+    @Override
+    public T visitProgram(Program p) {
+        return walk(p);
+    }
+
+    @Override
+    public T visitStructTypeDecl(StructTypeDecl st) {
+        return walk(st);
+    }
+
+    @Override
+    public T visitVarDecl(VarDecl vd) {
+        return walk(vd);
+    }
+
+    @Override
+    public T visitFunDecl(FunDecl p) {
+        return walk(p);
+    }
+}
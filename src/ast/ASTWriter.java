@@ -0,0 +1,353 @@
+package ast;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a Program in the binary encoding described in ASTFormat, as the tree is walked, so that nothing but the
+ * output buffer is held in memory. The declarations the name analysis resolved are kept, and so are the types of the
+ * expressions once type checked, so a checked tree reads back checked.
+ */
+public class ASTWriter implements ASTVisitor<Void> {
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private final CRC32 crc = new CRC32(); // of the bytes written
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<VarDecl, Integer> varDecls = new IdentityHashMap<>();
+    private final Map<FunDecl, Integer> funDecls = new IdentityHashMap<>();
+
+    public ASTWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /*
+     * Writes the program and flushes the stream, which is left open.
+     */
+    public void write(Program program) throws IOException {
+        try {
+            for (int shift = 24; shift >= 0; shift -= 8)
+                writeByte(ASTFormat.MAGIC >>> shift);
+            writeCount(ASTFormat.VERSION);
+            program.accept(this);
+            flush();
+            int checksum = (int) crc.getValue();
+            for (int shift = 24; shift >= 0; shift -= 8)
+                writeByte(checksum >>> shift);
+            flush();
+            out.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // buffered here rather than through a BufferedOutputStream, whose methods are synchronized
+    private void writeByte(int b) {
+        if (position == buffer.length)
+            flush();
+        buffer[position++] = (byte) b;
+    }
+
+    private void flush() {
+        crc.update(buffer, 0, position);
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+    }
+
+    // unsigned varint
+    private void writeCount(int n) {
+        while ((n & ~0x7F) != 0) {
+            writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        writeByte(n);
+    }
+
+    // zigzag varint, so that small negative numbers stay small
+    private void writeInt(int n) {
+        writeCount((n << 1) ^ (n >> 31));
+    }
+
+    private void writeString(String s) {
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeCount(index + 1);
+            return;
+        }
+        strings.put(s, strings.size());
+        writeCount(0);
+        writeCount(s.length());
+        for (int i = 0; i < s.length(); i++)
+            writeCount(s.charAt(i));
+    }
+
+    private void writeNode(ASTNode node) {
+        if (node == null)
+            writeByte(ASTFormat.NONE);
+        else
+            node.accept(this);
+    }
+
+    private void writeList(List<? extends ASTNode> nodes) {
+        writeCount(nodes.size());
+        for (ASTNode node : nodes)
+            node.accept(this);
+    }
+
+    // the type of an expression, written after its fields
+    private void writeType(Expr e) {
+        writeNode(e.type);
+    }
+
+    private void writeReference(Map<? extends ASTNode, Integer> indices, ASTNode decl) {
+        if (decl == null) {
+            writeCount(0);
+            return;
+        }
+        Integer index = indices.get(decl);
+        if (index == null)
+            throw new IllegalStateException("Reference to a declaration outside of the program");
+        writeCount(index + 1);
+    }
+
+    // Types
+    @Override
+    public Void visitBaseType(BaseType bt) {
+        switch (bt) {
+            case INT:  writeByte(ASTFormat.INT); break;
+            case CHAR: writeByte(ASTFormat.CHAR); break;
+            case VOID: writeByte(ASTFormat.VOID); break;
+            default:   throw new IllegalStateException(bt.toString());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPointerType(PointerType pt) {
+        writeByte(ASTFormat.POINTER);
+        pt.type.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitStructType(StructType st) {
+        writeByte(ASTFormat.STRUCT);
+        writeString(st.structName);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayType(ArrayType at) {
+        writeByte(ASTFormat.ARRAY);
+        at.type.accept(this);
+        writeCount(at.elements);
+        return null;
+    }
+
+    // Expressions
+    @Override
+    public Void visitIntLiteral(IntLiteral i) {
+        writeByte(ASTFormat.INT_LITERAL);
+        writeInt(i.value);
+        writeType(i);
+        return null;
+    }
+
+    @Override
+    public Void visitStrLiteral(StrLiteral s) {
+        writeByte(ASTFormat.STR_LITERAL);
+        writeString(s.value);
+        writeType(s);
+        return null;
+    }
+
+    @Override
+    public Void visitChrLiteral(ChrLiteral c) {
+        writeByte(ASTFormat.CHR_LITERAL);
+        writeCount(c.value);
+        writeType(c);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(VarExpr v) {
+        writeByte(ASTFormat.VAR_EXPR);
+        writeString(v.name);
+        writeReference(varDecls, v.vd);
+        writeType(v);
+        return null;
+    }
+
+    @Override
+    public Void visitFunCallExpr(FunCallExpr f) {
+        writeByte(ASTFormat.FUN_CALL);
+        writeString(f.name);
+        writeList(f.params);
+        writeReference(funDecls, f.fd);
+        writeType(f);
+        return null;
+    }
+
+    @Override
+    public Void visitBinOp(BinOp bo) {
+        writeByte(ASTFormat.BIN_OP);
+        bo.lhs.accept(this);
+        bo.op.accept(this);
+        bo.rhs.accept(this);
+        writeType(bo);
+        return null;
+    }
+
+    @Override
+    public Void visitOp(Op op) {
+        writeByte(op.ordinal());
+        return null;
+    }
+
+    @Override
+    public Void visitArrayAccessExpr(ArrayAccessExpr aa) {
+        writeByte(ASTFormat.ARRAY_ACCESS);
+        aa.array.accept(this);
+        aa.index.accept(this);
+        writeType(aa);
+        return null;
+    }
+
+    @Override
+    public Void visitFieldAccessExpr(FieldAccessExpr fa) {
+        writeByte(ASTFormat.FIELD_ACCESS);
+        fa.structure.accept(this);
+        writeString(fa.field);
+        writeType(fa);
+        return null;
+    }
+
+    @Override
+    public Void visitValueAtExpr(ValueAtExpr va) {
+        writeByte(ASTFormat.VALUE_AT);
+        va.expr.accept(this);
+        writeType(va);
+        return null;
+    }
+
+    @Override
+    public Void visitSizeOfExpr(SizeOfExpr so) {
+        writeByte(ASTFormat.SIZE_OF);
+        so.type.accept(this);
+        writeType(so);
+        return null;
+    }
+
+    @Override
+    public Void visitTypecastExpr(TypecastExpr t) {
+        writeByte(ASTFormat.TYPECAST);
+        t.type.accept(this);
+        t.expr.accept(this);
+        writeType(t);
+        return null;
+    }
+
+    // Statements
+    @Override
+    public Void visitExprStmt(ExprStmt es) {
+        writeByte(ASTFormat.EXPR_STMT);
+        es.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While w) {
+        writeByte(ASTFormat.WHILE);
+        w.expr.accept(this);
+        w.stmt.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If i) {
+        writeByte(ASTFormat.IF);
+        i.expr.accept(this);
+        i.stmt1.accept(this);
+        writeNode(i.stmt2);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign a) {
+        writeByte(ASTFormat.ASSIGN);
+        a.expr1.accept(this);
+        a.expr2.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return r) {
+        writeByte(ASTFormat.RETURN);
+        writeNode(r.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block b) {
+        writeByte(ASTFormat.BLOCK);
+        writeList(b.params);
+        writeList(b.stmts);
+        return null;
+    }
+
+    // Declarations
+    @Override
+    public Void visitProgram(Program p) {
+        writeCount(p.builtInFunsAdded() ? ASTFormat.BUILT_IN_FUNS_ADDED : 0);
+        writeList(p.structTypeDecls);
+        writeList(p.varDecls);
+        writeList(p.funDecls);
+        return null;
+    }
+
+    @Override
+    public Void visitStructTypeDecl(StructTypeDecl st) {
+        writeString(st.structType.structName);
+        writeList(st.params);
+        return null;
+    }
+
+    @Override
+    public Void visitVarDecl(VarDecl vd) {
+        Integer index = varDecls.get(vd);
+        if (index != null) {
+            writeByte(ASTFormat.DECL_REF);
+            writeCount(index);
+            return null;
+        }
+        varDecls.put(vd, varDecls.size());
+        writeByte(ASTFormat.VAR_DECL);
+        vd.type.accept(this);
+        writeString(vd.varName);
+        return null;
+    }
+
+    @Override
+    public Void visitFunDecl(FunDecl p) {
+        // numbered before its body, which may call it
+        funDecls.put(p, funDecls.size());
+        writeByte(ASTFormat.FUN_DECL);
+        p.type.accept(this);
+        writeString(p.name);
+        writeList(p.params);
+        p.getBlock().accept(this);
+        return null;
+    }
+}
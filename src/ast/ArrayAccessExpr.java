@@ -12,4 +12,8 @@ public class ArrayAccessExpr extends Expr{
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitArrayAccessExpr(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.ARRAY_ACCESS_EXPR;
+    }
+}
@@ -3,29 +3,20 @@ package ast;
 public class ArrayType implements Type {
     public final Type type;
     public final int elements;
+    final int id; // see TypeFactory
 
-    public ArrayType(Type type, int elements) {
+    // made by TypeFactory.array, one per element type and size
+    ArrayType(Type type, int elements, int id) {
         this.type = type;
         this.elements = elements;
-    }
-
-    public boolean equals(Object other){
-        if (other instanceof ArrayType){
-            Type otherT = ((ArrayType) other).type;
-            if (otherT.equals(this.type) && ((ArrayType) other).elements == this.elements) {
-                return true;
-            }
-        }
-        if (other instanceof PointerType){
-            Type otherT = ((PointerType) other).type;
-            if (otherT.equals(this.type)) {
-                return true;
-            }
-        }
-        return false;
+        this.id = id;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitArrayType(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.ARRAY_TYPE;
+    }
 }
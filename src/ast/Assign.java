@@ -12,4 +12,8 @@ public class Assign extends Stmt {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitAssign(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.ASSIGN;
+    }
+}
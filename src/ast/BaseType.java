@@ -6,4 +6,8 @@ public enum BaseType implements Type {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitBaseType(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.BASE_TYPE;
+    }
 }
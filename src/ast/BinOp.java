@@ -14,4 +14,8 @@ public class BinOp extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitBinOp(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.BIN_OP;
+    }
 }
@@ -20,4 +20,8 @@ public class Block extends Stmt {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitBlock(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.BLOCK;
+    }
+}
@@ -10,5 +10,8 @@ public class ChrLiteral extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitChrLiteral(this);
     }
-}
 
+    public NodeKind kind() {
+        return NodeKind.CHR_LITERAL;
+    }
+}
@@ -10,4 +10,8 @@ public class ExprStmt extends Stmt {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitExprStmt(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.EXPR_STMT;
+    }
+}
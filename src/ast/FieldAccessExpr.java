@@ -12,4 +12,8 @@ public class FieldAccessExpr extends Expr{
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitFieldAccessExpr(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.FIELD_ACCESS_EXPR;
+    }
 }
@@ -15,4 +15,8 @@ public class FunCallExpr extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitFunCallExpr(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.FUN_CALL_EXPR;
+    }
+}
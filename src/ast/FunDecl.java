@@ -1,22 +1,91 @@
 package ast;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 public class FunDecl implements ASTNode {
     public final Type type;
     public final String name;
     public final List<VarDecl> params;
-    public final Block block;
-    public String funLoc; // filled during code generation
+    private Block block;
+    private Supplier<Block> deferredBlock; // parses the body on first access, null once it has been parsed
+    private BlockStore store; // where the body is kept between passes, null if it is always held as objects
+    public final int id; // unique among the declarations of a program, see Program.ids
 
-    public FunDecl(Type type, String name, List<VarDecl> params, Block block) {
+    public FunDecl(Type type, String name, List<VarDecl> params, Block block, int id) {
 	    this.type = type;
 	    this.name = name;
 	    this.params = params;
 	    this.block = block;
+	    this.id = id;
+    }
+
+    /*
+     * A function whose body has not been parsed yet, it is parsed by deferredBlock the first time getBlock() is called.
+     */
+    public FunDecl(Type type, String name, List<VarDecl> params, Supplier<Block> deferredBlock, int id) {
+	    this.type = type;
+	    this.name = name;
+	    this.params = params;
+	    this.deferredBlock = deferredBlock;
+	    this.id = id;
+    }
+
+    /*
+     * Somewhere other than a tree of objects to keep the body of a function in (see ASTArena), from which it is rebuilt
+     * each time it is needed.
+     */
+    public interface BlockStore extends Supplier<Block> {
+        // takes the body back, with whatever the pass that had it filled in or changed
+        void store(Block block);
+    }
+
+    public Block getBlock() {
+        if (deferredBlock != null) {
+            block = deferredBlock.get();
+            deferredBlock = null;
+        }
+        return block;
+    }
+
+    /*
+     * Moves the body into the given store. From then on it is only held as objects from a call to getBlock() to the
+     * following call to releaseBlock().
+     */
+    public void setBlockStore(BlockStore store) {
+        getBlock();
+        this.store = store;
+        releaseBlock();
+    }
+
+    /*
+     * Hands the body back to its store once a pass is done with it, so that it is not held as objects until the next
+     * pass asks for it. Does nothing if the body has no store.
+     */
+    public void releaseBlock() {
+        if (store == null || block == null)
+            return;
+        store.store(block);
+        block = null;
+        deferredBlock = store;
+    }
+
+    /*
+     * As releaseBlock(), for a pass that leaves nothing in the body that a later pass needs: what it changed is thrown
+     * away, and the next call to getBlock() gets the body as it was last released.
+     */
+    public void discardBlock() {
+        if (store == null || block == null)
+            return;
+        block = null;
+        deferredBlock = store;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
 	return v.visitFunDecl(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.FUN_DECL;
+    }
 }
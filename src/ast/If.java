@@ -15,4 +15,8 @@ public class If extends Stmt {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitIf(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.IF;
+    }
+}
@@ -10,4 +10,8 @@ public class IntLiteral extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitIntLiteral(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.INT_LITERAL;
+    }
 }
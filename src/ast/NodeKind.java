@@ -0,0 +1,19 @@
+package ast;
+
+/**
+ * One constant per concrete class of node, as returned by ASTNode.kind().
+ */
+public enum NodeKind {
+    // types
+    BASE_TYPE, POINTER_TYPE, STRUCT_TYPE, ARRAY_TYPE,
+
+    // expressions
+    INT_LITERAL, STR_LITERAL, CHR_LITERAL, VAR_EXPR, FUN_CALL_EXPR, BIN_OP, OP, ARRAY_ACCESS_EXPR, FIELD_ACCESS_EXPR,
+    VALUE_AT_EXPR, SIZE_OF_EXPR, TYPECAST_EXPR,
+
+    // statements
+    EXPR_STMT, WHILE, IF, ASSIGN, RETURN, BLOCK,
+
+    // declarations
+    PROGRAM, STRUCT_TYPE_DECL, VAR_DECL, FUN_DECL
+}
@@ -6,4 +6,8 @@ public enum Op implements ASTNode {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitOp(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.OP;
+    }
+}
@@ -2,26 +2,19 @@ package ast;
 
 public class PointerType implements Type {
     public final Type type;
+    final int id; // see TypeFactory
 
-    public PointerType(Type type) {
+    // made by TypeFactory.pointer, one per pointed type
+    PointerType(Type type, int id) {
         this.type = type;
-    }
-
-
-    public boolean equals(Object other){
-       if (other instanceof PointerType){
-               return true;
-       }
-        if (other instanceof ArrayType){
-            Type otherT = ((ArrayType) other).type;
-            if (otherT.equals(this.type)) {
-                return true;
-            }
-        }
-       return false;
+        this.id = id;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitPointerType(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.POINTER_TYPE;
+    }
 }
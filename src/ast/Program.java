@@ -1,6 +1,7 @@
 package ast;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Program implements ASTNode {
 
@@ -8,13 +9,54 @@ public class Program implements ASTNode {
     public final List<VarDecl> varDecls;
     public final List<FunDecl> funDecls;
 
-    public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls) {
+    /*
+     * Hands out the ids of the program's VarDecl and FunDecl, from 0 up, so that the passes can keep what they work out
+     * about each declaration in arrays indexed by id rather than in the tree. Its value is more than any id given so
+     * far. Not every id is used: the parser reserves a range for each body it defers, so that the ids do not depend on
+     * the order in which the bodies are parsed. The declarations added by the semantic analysis take theirs later on.
+     */
+    public final AtomicInteger ids;
+
+    private StructLayouts layouts;
+
+    // whether the semantic analysis has added the built-in functions ahead of funDecls
+    private boolean builtInFunsAdded = false;
+
+    public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls,
+                   AtomicInteger ids) {
         this.structTypeDecls = structTypeDecls;
 	    this.varDecls = varDecls;
 	    this.funDecls = funDecls;
+	    this.ids = ids;
+    }
+
+    /*
+     * The layouts of the program's structs, worked out from structTypeDecls the first time they are asked for, which
+     * must not be before the structs have all been declared.
+     */
+    public synchronized StructLayouts layouts() {
+        if (layouts == null)
+            layouts = new StructLayouts(structTypeDecls);
+        return layouts;
+    }
+
+    /*
+     * Whether the built-in functions have been added ahead of the program's own, so that analysing the program again
+     * does not add them twice. Copies of the program, and programs written and read back, keep it.
+     */
+    public boolean builtInFunsAdded() {
+        return builtInFunsAdded;
+    }
+
+    public void setBuiltInFunsAdded() {
+        builtInFunsAdded = true;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
 	return v.visitProgram(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.PROGRAM;
+    }
 }
@@ -10,4 +10,8 @@ public class Return extends Stmt {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitReturn(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.RETURN;
+    }
 }
@@ -10,4 +10,8 @@ public class SizeOfExpr extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitSizeOfExpr(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.SIZE_OF_EXPR;
+    }
 }
@@ -10,5 +10,8 @@ public class StrLiteral extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitStrLiteral(this);
     }
-}
 
+    public NodeKind kind() {
+        return NodeKind.STR_LITERAL;
+    }
+}
@@ -0,0 +1,62 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the fields of a struct go, as the code generator lays them out: each field takes a word of its own, in the
+ * order it is declared in, whatever its type.
+ */
+public final class StructLayout {
+
+    public static final int WORD = 4;
+
+    public static final class Field {
+        public final VarDecl decl;
+        public final int offset;     // from the start of the struct, in bytes
+        public final int size;
+        public final int alignment;
+
+        Field(VarDecl decl, int offset, int size, int alignment) {
+            this.decl = decl;
+            this.offset = offset;
+            this.size = size;
+            this.alignment = alignment;
+        }
+    }
+
+    public final StructTypeDecl decl;
+    public final int index;          // of the declaration among the program's struct declarations
+    public final List<Field> fields;
+    public final int size;
+    public final int alignment;
+
+    // the first field of each name
+    private final Map<String, Field> byName;
+
+    StructLayout(StructTypeDecl decl, int index) {
+        this.decl = decl;
+        this.index = index;
+        List<Field> fields = new ArrayList<>(decl.params.size());
+        Map<String, Field> byName = new HashMap<>();
+        int offset = 0;
+        for (VarDecl vd : decl.params) {
+            Field field = new Field(vd, offset, WORD, WORD);
+            fields.add(field);
+            byName.putIfAbsent(vd.varName, field);
+            offset += WORD;
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        this.byName = byName;
+        this.size = offset;
+        this.alignment = WORD;
+    }
+
+    // null if the struct has no such field
+    public Field field(String name) {
+        return byName.get(name);
+    }
+}
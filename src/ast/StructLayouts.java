@@ -0,0 +1,27 @@
+package ast;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The layout of each struct a program declares, keyed by its StructType (see Program.layouts()). Where a struct is
+ * declared more than once, its first declaration is the one laid out.
+ */
+public final class StructLayouts {
+
+    private final Map<StructType, StructLayout> layouts = new IdentityHashMap<>();
+
+    StructLayouts(List<StructTypeDecl> structTypeDecls) {
+        for (int i = 0; i < structTypeDecls.size(); i++) {
+            StructTypeDecl st = structTypeDecls.get(i);
+            if (!layouts.containsKey(st.structType))
+                layouts.put(st.structType, new StructLayout(st, i));
+        }
+    }
+
+    // null unless the type is a struct the program declares
+    public StructLayout get(Type type) {
+        return layouts.get(type);
+    }
+}
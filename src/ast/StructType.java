@@ -2,21 +2,19 @@ package ast;
 
 public class StructType implements Type {
     public final String structName;
+    final int id; // see TypeFactory
 
-    public StructType(String structName) {
+    // made by TypeFactory.struct, one per name
+    StructType(String structName, int id) {
         this.structName = structName;
-    }
-
-    public boolean equals(Object other){
-        if (other instanceof StructType){
-            if (((StructType) other).structName.equals(this.structName)) {
-                return true;
-            }
-        }
-        return false;
+        this.id = id;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitStructType(this);
     }
-}
\ No newline at end of file
+
+    public NodeKind kind() {
+        return NodeKind.STRUCT_TYPE;
+    }
+}
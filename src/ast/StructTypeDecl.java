@@ -15,4 +15,7 @@ public class StructTypeDecl implements ASTNode {
         return v.visitStructTypeDecl(this);
     }
 
+    public NodeKind kind() {
+        return NodeKind.STRUCT_TYPE_DECL;
+    }
 }
@@ -0,0 +1,92 @@
+package ast;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Makes the pointer, array and struct types, one object per distinct type: asking twice for the same type gives the
+ * same object, so types that are the same can be told apart from the others with ==, which is also what equals() does.
+ * Whether a value of one type can be used where another is expected is a question for the type checker (see
+ * TypeCheckVisitor.isCompatible). Safe to use from several threads.
+ *
+ * The tables only hold the types weakly: a type no longer used by any program is forgotten, so that a JVM compiling
+ * one program after another does not keep every type it has seen. One that is still used is found again, so there is
+ * never a second object for it to be compared with.
+ */
+public final class TypeFactory {
+
+    // each type made here is numbered, after the base types, to key the types made from it
+    private static final AtomicInteger nextId = new AtomicInteger(BaseType.values().length);
+
+    private static final ConcurrentHashMap<Integer, TypeReference> pointers = new ConcurrentHashMap<>();
+    // keyed by the id of the element type in the high half and the number of elements in the low one
+    private static final ConcurrentHashMap<Long, TypeReference> arrays = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, TypeReference> structs = new ConcurrentHashMap<>();
+
+    // where the references of the types that have been collected are put, for their entries to be removed
+    private static final ReferenceQueue<Type> collected = new ReferenceQueue<>();
+
+    private TypeFactory() {}
+
+    public static PointerType pointer(Type type) {
+        return (PointerType) intern(pointers, id(type), () -> new PointerType(type, nextId.getAndIncrement()));
+    }
+
+    public static ArrayType array(Type type, int elements) {
+        long key = ((long) id(type) << 32) | (elements & 0xFFFFFFFFL);
+        return (ArrayType) intern(arrays, key, () -> new ArrayType(type, elements, nextId.getAndIncrement()));
+    }
+
+    public static StructType struct(String structName) {
+        return (StructType) intern(structs, structName, () -> new StructType(structName, nextId.getAndIncrement()));
+    }
+
+    private static int id(Type type) {
+        if (type instanceof BaseType)
+            return ((BaseType) type).ordinal();
+        if (type instanceof PointerType)
+            return ((PointerType) type).id;
+        if (type instanceof ArrayType)
+            return ((ArrayType) type).id;
+        return ((StructType) type).id;
+    }
+
+    private static final class TypeReference extends WeakReference<Type> {
+        final ConcurrentHashMap<?, TypeReference> table;
+        final Object key;
+
+        TypeReference(Type type, ConcurrentHashMap<?, TypeReference> table, Object key) {
+            super(type, collected);
+            this.table = table;
+            this.key = key;
+        }
+    }
+
+    // the type in the table under the given key, made and added if there is none or it has been collected
+    private static <K> Type intern(ConcurrentHashMap<K, TypeReference> table, K key, Supplier<Type> make) {
+        removeCollected();
+        while (true) {
+            TypeReference reference = table.get(key);
+            Type type = reference == null ? null : reference.get();
+            if (type != null)
+                return type;
+            Type made = make.get();
+            TypeReference madeReference = new TypeReference(made, table, key);
+            if (reference == null ? table.putIfAbsent(key, madeReference) == null
+                                  : table.replace(key, reference, madeReference))
+                return made;
+            // another thread got there first, take its type
+        }
+    }
+
+    private static void removeCollected() {
+        for (Reference<? extends Type> r; (r = collected.poll()) != null; ) {
+            TypeReference reference = (TypeReference) r;
+            reference.table.remove(reference.key, reference);
+        }
+    }
+}
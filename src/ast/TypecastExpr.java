@@ -12,4 +12,8 @@ public class TypecastExpr extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitTypecastExpr(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.TYPECAST_EXPR;
+    }
 }
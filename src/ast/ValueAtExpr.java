@@ -10,4 +10,8 @@ public class ValueAtExpr extends Expr {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitValueAtExpr(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.VALUE_AT_EXPR;
+    }
 }
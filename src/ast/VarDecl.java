@@ -3,14 +3,19 @@ package ast;
 public class VarDecl implements ASTNode {
     public final Type type;
     public final String varName;
-    public String varLoc; // filled during code generation
+    public final int id; // unique among the declarations of a program, see Program.ids
 
-    public VarDecl(Type type, String varName) {
+    public VarDecl(Type type, String varName, int id) {
 	    this.type = type;
 	    this.varName = varName;
+	    this.id = id;
     }
 
      public <T> T accept(ASTVisitor<T> v) {
 	return v.visitVarDecl(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.VAR_DECL;
+    }
 }
@@ -12,4 +12,8 @@ public class While extends Stmt {
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitWhile(this);
     }
+
+    public NodeKind kind() {
+        return NodeKind.WHILE;
+    }
 }
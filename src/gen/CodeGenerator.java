@@ -10,7 +10,7 @@ import java.util.List;
 import java.util.EmptyStackException;
 import java.util.Stack;
 
-public class CodeGenerator implements ASTVisitor<Register> {
+public class CodeGenerator extends ASTWalker<Register> {
 
     /*
      * Simple register allocator.
@@ -61,14 +61,19 @@ public class CodeGenerator implements ASTVisitor<Register> {
     private PrintWriter writer; // use this writer to output the assembly instructions
 
 
+    private Locations locations;
+
+
     public void emitProgram(Program program, File outputFile) throws FileNotFoundException {
         writer = new PrintWriter(outputFile);
+        locations = new Locations(program.ids.get());
+        layouts = program.layouts();
 
         visitProgram(program);
         writer.close();
     }
 
-    public List<StructTypeDecl> structTypeDeclList = new ArrayList<>();
+    private StructLayouts layouts;
     private final String data = ".data";
     private final String text = ".text";
     private final String syscall = "syscall";
@@ -85,14 +90,11 @@ public class CodeGenerator implements ASTVisitor<Register> {
     @Override
     public Register visitProgram(Program p) {
         writer.println(data);
-        for (StructTypeDecl std : p.structTypeDecls) {
-            std.accept(this);
-        }
         for (VarDecl vd : p.varDecls) {
             // if variable is an int, char or pointer
             if (vd.type == BaseType.INT || vd.type == BaseType.CHAR|| vd.type instanceof PointerType ){
                 writer.println(vd.varName + ": .space 4");
-                vd.varLoc = vd.varName;
+                locations.set(vd.id, vd.varName);
 
             // if variable is an array type
             } else if (vd.type instanceof ArrayType){
@@ -103,15 +105,15 @@ public class CodeGenerator implements ASTVisitor<Register> {
                     elements += 4-(elements % 4);
                 }
                 writer.println(vd.varName + ": .space "+elements);
-                vd.varLoc = vd.varName;
+                locations.set(vd.id, vd.varName);
             // if variable is a struct type
             } else if (vd.type instanceof StructType){
-                for (StructTypeDecl s : structTypeDeclList) {
-                    if (s.structType.structName.equals(((StructType) vd.type).structName)) {
-                        for (VarDecl svd : s.params) {
-                            writer.println(vd.varName+"_"+svd.varName + ": .space 4");
-                            svd.varLoc = vd.varName+"_"+svd.varName;
-                        }
+                StructLayout s = layouts.get(vd.type);
+                if (s != null) {
+                    for (StructLayout.Field field : s.fields) {
+                        VarDecl svd = field.decl;
+                        writer.println(vd.varName+"_"+svd.varName + ": .space "+field.size);
+                        locations.set(svd.id, vd.varName+"_"+svd.varName);
                     }
                 }
             }
@@ -119,16 +121,11 @@ public class CodeGenerator implements ASTVisitor<Register> {
         writer.println(text);
         for (FunDecl fd : p.funDecls) {
             fd.accept(this);
+            fd.discardBlock();
         }
         return null;
     }
 
-    @Override
-    public Register visitStructTypeDecl(StructTypeDecl st) {
-        structTypeDeclList.add(st);
-        return null;
-    }
-
     @Override
     public Register visitVarDecl(VarDecl vd) {
         // handled by VarDeclarator
@@ -138,24 +135,23 @@ public class CodeGenerator implements ASTVisitor<Register> {
     @Override
     public Register visitFunDecl(FunDecl p) {
         // exclude built in functions
-        if (!(p.name.equals("print_s") || p.name.equals("print_i") || p.name.equals("print_c") ||
-              p.name.equals("read_c") || p.name.equals("read_i") || p.name.equals("mcmalloc"))){
+        if (!isBuiltIn(p.name)){
             // reset fpOffset
             fpOffset = 0;
             // main function
             if (p.name.equals("main")){
-                p.funLoc = "main";
+                locations.set(p.id, "main");
                 writer.println(".globl main");
-                writer.print(p.funLoc+": ");
+                writer.print(locations.get(p.id)+": ");
                 writer.println("move $fp, $sp");
                 fpOffset = 0;
 
                 // declare all local variables
                 VarDeclarator vd = new VarDeclarator();
-                fpOffset = vd.addVarDecls(p, fpOffset, writer, structTypeDeclList);
+                fpOffset = vd.addVarDecls(p, 0, fpOffset, writer, layouts, locations);
 
                 //continue as usual
-                p.block.accept(this);
+                p.getBlock().accept(this);
 
                 //mark end of function for early return statements
                 writer.println("eof"+eofCount+":"); eofCount++;
@@ -168,8 +164,8 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 writer.println(syscall);
             // not main function
             } else {
-                p.funLoc = p.name + funCount; funCount++;
-                writer.print(p.funLoc + ": ");
+                locations.set(p.id, p.name + funCount); funCount++;
+                writer.print(locations.get(p.id) + ": ");
                 writer.println("move $fp, $sp");
                 fpOffset = 0;
 
@@ -182,25 +178,26 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 // load arguments from stack
                 int fpStart = 0;
                 int fpEnd = 0;
+                int onStack = 0; // the number of params that are passed on the stack, not locals
                 for (VarDecl vd : p.params){
                     if (vd.type == BaseType.INT || vd.type == BaseType.CHAR || vd.type instanceof PointerType ){
                         fpEnd += 4;
-                        p.block.params.remove(0);
+                        onStack++;
                     }
                 }
                 for (VarDecl vd : p.params){
                     if (vd.type == BaseType.INT || vd.type == BaseType.CHAR || vd.type instanceof PointerType ){
-                        vd.varLoc = "+"+((fpEnd-fpStart)+8)+"($fp)";
+                        locations.set(vd.id, "+"+((fpEnd-fpStart)+8)+"($fp)");
                         fpStart += 4;
                     }
                 }
 
                 // declare all local variables
                 VarDeclarator vd = new VarDeclarator();
-                fpOffset = vd.addVarDecls(p, fpOffset, writer, structTypeDeclList);
+                fpOffset = vd.addVarDecls(p, onStack, fpOffset, writer, layouts, locations);
 
                 // continue as usual
-                p.block.accept(this);
+                p.getBlock().accept(this);
 
                 //mark end of function for early return statements
                 writer.println("eof"+eofCount+":"); eofCount++;
@@ -220,116 +217,431 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 
 
-    // EXPRESSIONS
-    @Override
-    public Register visitIntLiteral(IntLiteral i) {
-        Register intLiteral = getRegister();
-        writer.println("li "+intLiteral+", "+i.value);
-        return intLiteral;
+    // What a node keeps between its hooks
+    private static final class BinOpState {
+        Register result;
+        Register oneReg;   // OR only
+        String label;      // OR and AND only
     }
 
-    @Override
-    public Register visitStrLiteral(StrLiteral s) {
-        Register strLiteral = getRegister();
-        writer.println(data);
-        String curString = "var" + strCount;
-        strCount++;
-        writer.println(curString + ": .asciiz " + "\"" + s.value + "\"");
-        writer.println(text);
-        writer.println("la "+strLiteral+", " + curString);
-        return strLiteral;
+    private static final class IfState {
+        String elseStr;
+        String endStr;
     }
 
-    @Override
-    public Register visitChrLiteral(ChrLiteral c) {
-        Register chrLiteral = getRegister();
-        writer.println("li "+chrLiteral+", '" + printChar(c.value)+"'");
-        return chrLiteral;
+    private static final class WhileState {
+        String endStr;
+        String whileStr;
+    }
+
+    private static final class AssignState {
+        Register expr1Address;
+        String arrayAddress;   // when assigning to an array element
+        int isChar = 0;
+    }
+
+    private static final class CallState {
+        int next = 0;          // the param of the function to initialize next
+        int paramCount = 0;
+        int fpTemporary = 0;
+    }
+
+    private static boolean isBuiltIn(String name) {
+        return name.equals("print_s") || name.equals("print_i") || name.equals("print_c") ||
+               name.equals("read_c") || name.equals("read_i") || name.equals("mcmalloc");
+    }
+
+    // the declaration of the field accessed, null if the structure's type is not known to be a struct that has it
+    private VarDecl field(FieldAccessExpr fa) {
+        StructLayout s = layouts.get(fa.structure.type);
+        if (s == null)
+            return null;
+        StructLayout.Field field = s.field(fa.field);
+        return field == null ? null : field.decl;
+    }
+
+    private static boolean isScalar(Type type) {
+        return type == BaseType.INT || type == BaseType.CHAR || type instanceof PointerType;
     }
 
     @Override
-    public Register visitVarExpr(VarExpr v) {
-        Register variable = getRegister();
-        writer.println("la "+variable+", "+v.vd.varLoc);
-        if (!(v.vd.type instanceof ArrayType))
-        writer.println("lw "+variable+", ("+variable+")");
-        return variable;
+    protected boolean pre(ASTNode node) {
+        switch (node.kind()) {
+            case FUN_CALL_EXPR:
+                if (!isBuiltIn(((FunCallExpr) node).name))
+                    setState(new CallState());
+                return true;
+            case ARRAY_ACCESS_EXPR:
+                setState(getRegister());
+                return true;
+            case WHILE: {
+                WhileState w = new WhileState();
+                w.endStr = "end"+endCount; endCount++;
+                w.whileStr = "while"+startCount; startCount++;
+                writer.println(w.whileStr+": ");
+                setState(w);
+                return true;
+            }
+            case IF: {
+                IfState i = new IfState();
+                i.elseStr = "else"+elseCount; elseCount++;
+                i.endStr = "end"+endCount; endCount++;
+                setState(i);
+                return true;
+            }
+            case ASSIGN:
+                setState(preAssign((Assign) node));
+                return true;
+            default:
+                return true;
+        }
     }
 
+    // everything that comes before the children of an assignment
+    private AssignState preAssign(Assign a) {
+        AssignState state = new AssignState();
+        Register expr1Address = getRegister();
+        state.expr1Address = expr1Address;
+        if (a.expr1 instanceof VarExpr){
+            writer.println("la "+expr1Address+", "+locations.get(((VarExpr) a.expr1).vd.id));
+        }
+
+        if(a.expr1 instanceof ArrayAccessExpr){
+            // the index is walked first, and the address taken in child()
+            state.arrayAddress = locations.get(((VarExpr)((ArrayAccessExpr) a.expr1).array).vd.id);
+            return state;
+        }
+
+        if (a.expr1 instanceof ValueAtExpr){
+            String valueAddress = locations.get(((VarExpr) ((ValueAtExpr) a.expr1).expr).vd.id);
+            writer.println("la "+expr1Address+", "+valueAddress);
+            writer.println("lw "+expr1Address+", ("+expr1Address+")");
+        }
+
+        if (a.expr1 instanceof FieldAccessExpr) {
+            VarDecl vd = field((FieldAccessExpr) a.expr1);
+            if (vd != null) {
+                writer.println("la " + expr1Address + ", " + locations.get(vd.id));
+            }
+        }
+        return state;
+    }
+
+    // Only the children that are evaluated, with the code that goes between them
     @Override
-    public Register visitFunCallExpr(FunCallExpr fc) {
-        // inbuilt print_s
-        if (fc.name.equals("print_s")) {
-            Register addressToPrint = fc.params.get(0).accept(this);
-            writer.println("la $a0, (" + addressToPrint + ")");
-            writer.println("li $v0, 4");
-            writer.println(syscall);
-            freeRegister(addressToPrint);
-            return null;
+    protected ASTNode child(ASTNode node, int index) {
+        switch (node.kind()) {
+            case FUN_CALL_EXPR:
+                return callChild((FunCallExpr) node, index);
+            case BIN_OP:
+                return binOpChild((BinOp) node, index);
+            case ARRAY_ACCESS_EXPR:
+                return index == 0 ? ((ArrayAccessExpr) node).index : null;
+            case TYPECAST_EXPR:
+                return index == 0 ? ((TypecastExpr) node).expr : null;
+            case WHILE: {
+                While w = (While) node;
+                if (index == 0)
+                    return w.expr;
+                if (index == 1) {
+                    WhileState state = getState();
+                    Register truthValue = result(0);
+                    writer.println("beqz "+ truthValue +", "+state.endStr);
+                    freeRegister(truthValue);
+                    return w.stmt;
+                }
+                return null;
             }
+            case IF: {
+                If i = (If) node;
+                IfState state = getState();
+                if (index == 0)
+                    return i.expr;
+                if (index == 1) {
+                    Register truthValue = result(0);
+                    writer.println("beqz "+ truthValue +", "+state.elseStr);
+                    freeRegister(truthValue);
+                    return i.stmt1;
+                }
+                if (index == 2) {
+                    writer.println("j "+state.endStr);
+                    writer.println(state.elseStr+":");
+                    return i.stmt2;
+                }
+                return null;
+            }
+            case ASSIGN:
+                return assignChild((Assign) node, index);
+            case EXPR_STMT:
+            case RETURN:
+                return super.child(node, index);
+            case BLOCK:
+                // variables declared by VarDeclarator
+                return element(((Block) node).stmts, index);
+            default:
+                return null;
+        }
+    }
 
-            // inbuilt print_i
-        if (fc.name.equals("print_i")) {
-            Register toPrint = fc.params.get(0).accept(this);
-            writer.println("addi $a0, " + toPrint + ", 0");
-            writer.println("li $v0, 1");
-            writer.println(syscall);
-            freeRegister(toPrint);
+    private ASTNode callChild(FunCallExpr fc, int index) {
+        CallState state = getState();
+        if (state == null) {
+            // inbuilt functions take at most one argument
+            if (index == 0 && (fc.name.equals("print_s") || fc.name.equals("print_i") ||
+                               fc.name.equals("print_c") || fc.name.equals("mcmalloc")))
+                return fc.params.get(0);
             return null;
         }
 
-        // inbuilt print_c
-        if (fc.name.equals("print_c")) {
-            Register toPrint = fc.params.get(0).accept(this);
-            writer.println("addi $a0, " + toPrint + ", 0");
-            writer.println("li $v0, 11");
-            writer.println(syscall);
-            freeRegister(toPrint);
-            return null;
+        // initialize arguments
+        if (index > 0) {
+            Register arg = result(index - 1);
+            writer.println("addi $sp, $sp, -4");
+            writer.println("sw "+arg+", -"+(fpOffset+state.fpTemporary)+"($fp)"); state.fpTemporary += 4;
+            freeRegister(arg);
+            state.paramCount++;
         }
+        List<VarDecl> params = fc.fd.params;
+        while (state.next < params.size()) {
+            VarDecl vd = params.get(state.next++);
+            if (isScalar(vd.type))
+                return fc.params.get(state.paramCount);
+        }
+        return null;
+    }
 
-        // inbuilt read_c
-        if (fc.name.equals("read_c")){
-            writer.println("li $v0, 12");
-            writer.println(syscall);
-            Register ret = getRegister();
-            writer.println("move "+ret+", $v0");
-            return ret;
+    private ASTNode binOpChild(BinOp bo, int index) {
+        if (index == 0)
+            return bo.lhs;
+        if (index != 1)
+            return null;
+        Register lhsReg = result(0);
+        BinOpState state = new BinOpState();
+        state.result = getRegister();
+        switch (bo.op){
+            case OR : state.label = "true"+trueCount; trueCount++;
+                      state.oneReg = getRegister();
+                      writer.println("li "+state.oneReg+", 1");
+                      writer.println("beq "+lhsReg+", "+state.oneReg+", "+state.label);
+                      break;
+
+            case AND: state.label = "false"+trueCount;
+                      writer.println("beqz "+lhsReg+", "+state.label);
+                      break;
         }
+        setState(state);
+        return bo.rhs;
+    }
+
+    private ASTNode assignChild(Assign a, int index) {
+        AssignState state = getState();
+        if (!(a.expr1 instanceof ArrayAccessExpr))
+            return index == 0 ? a.expr2 : null;
+        if (index == 0)
+            return ((ArrayAccessExpr) a.expr1).index;
+        if (index != 1)
+            return null;
 
-        // inbuilt read_i
-        if (fc.name.equals("read_i")){
-            writer.println("li $v0, 5");
-            writer.println(syscall);
-            Register ret = getRegister();
-            writer.println("move "+ret+", $v0");
-            return ret;
+        Register expr1Address = state.expr1Address;
+        String arrayAddress = state.arrayAddress;
+        Register arrayIndex = result(0);
+        // if our array isn't of type char, we need to multiply the index by 4
+        VarDecl vd =((VarExpr)((ArrayAccessExpr) a.expr1).array).vd;
+        if (((ArrayType) vd.type).type != BaseType.CHAR){
+            Register num = getRegister();
+            writer.println("li "+num+", 4");
+            writer.println("mul "+arrayIndex+", "+arrayIndex+", "+num);
+            freeRegister(num);
+            writer.println("la "+expr1Address+", "+arrayAddress);
+            writer.println("add "+expr1Address+", "+expr1Address+", "+arrayIndex);
+            freeRegister(arrayIndex);
+        } else {
+            state.isChar = 1;
+            writer.println("la "+expr1Address+", "+arrayAddress);
+            writer.println("add "+expr1Address+", "+expr1Address+", "+arrayIndex);
+            freeRegister(arrayIndex);
         }
+        return a.expr2;
+    }
 
-        // inbuilt mcmalloc
-        if (fc.name.equals("mcmalloc")) {
-            Register amount = fc.params.get(0).accept(this);
-            writer.println("addi $a0, " + amount + ", 0");
-            writer.println("li $v0, 9");
-            writer.println(syscall);
-            freeRegister(amount);
-            Register ret = getRegister();
-            writer.println("move "+ret+", $v0");
-            return ret;
+    @Override
+    protected Register post(ASTNode node) {
+        switch (node.kind()) {
+            // EXPRESSIONS
+            case INT_LITERAL: {
+                IntLiteral i = (IntLiteral) node;
+                Register intLiteral = getRegister();
+                writer.println("li "+intLiteral+", "+i.value);
+                return intLiteral;
+            }
+            case STR_LITERAL: {
+                StrLiteral s = (StrLiteral) node;
+                Register strLiteral = getRegister();
+                writer.println(data);
+                String curString = "var" + strCount;
+                strCount++;
+                writer.println(curString + ": .asciiz " + "\"" + s.value + "\"");
+                writer.println(text);
+                writer.println("la "+strLiteral+", " + curString);
+                return strLiteral;
+            }
+            case CHR_LITERAL: {
+                ChrLiteral c = (ChrLiteral) node;
+                Register chrLiteral = getRegister();
+                writer.println("li "+chrLiteral+", '" + printChar(c.value)+"'");
+                return chrLiteral;
+            }
+            case VAR_EXPR: {
+                VarExpr v = (VarExpr) node;
+                Register variable = getRegister();
+                writer.println("la "+variable+", "+locations.get(v.vd.id));
+                if (!(v.vd.type instanceof ArrayType))
+                writer.println("lw "+variable+", ("+variable+")");
+                return variable;
+            }
+            case FUN_CALL_EXPR:
+                return postFunCall((FunCallExpr) node);
+            case BIN_OP:
+                return postBinOp((BinOp) node);
+            case ARRAY_ACCESS_EXPR:
+                return postArrayAccess((ArrayAccessExpr) node);
+            case FIELD_ACCESS_EXPR: {
+                FieldAccessExpr fa = (FieldAccessExpr) node;
+                Register value = getRegister();
+                VarDecl vd = field(fa);
+                if (vd != null) {
+                    writer.println("la "+value+", "+locations.get(vd.id));
+                    writer.println("lw "+value+", ("+value+")");
+                }
+                return value;
+            }
+            case VALUE_AT_EXPR: {
+                ValueAtExpr va = (ValueAtExpr) node;
+                Register value = getRegister();
+                String valueAddress = locations.get(((VarExpr) va.expr).vd.id);
+                writer.println("la "+value+", "+valueAddress);
+                writer.println("lw "+value+", ("+value+")");
+                writer.println("lw "+value+", ("+value+")");
+                return value;
+            }
+            case SIZE_OF_EXPR: {
+                SizeOfExpr so = (SizeOfExpr) node;
+                Register size = getRegister();
+                if (so.type == BaseType.CHAR){
+                    writer.println("li "+size+", 1");
+                } else {
+                    writer.println("li "+size+", 4");
+                }
+                return size;
+            }
+            case TYPECAST_EXPR:
+                return result(0);
+
+            // STATEMENTS
+            case WHILE: {
+                WhileState state = getState();
+                writer.println("j "+state.whileStr);
+                writer.println(state.endStr+": ");
+                return null;
+            }
+            case IF: {
+                IfState state = getState();
+                writer.println(state.endStr+": ");
+                return null;
+            }
+            case ASSIGN: {
+                Assign a = (Assign) node;
+                AssignState state = getState();
+                Register expr1Address = state.expr1Address;
+                Register expr2 = result(a.expr1 instanceof ArrayAccessExpr ? 1 : 0);
+                if (state.isChar == 1){
+                    writer.println("sb "+expr2+", ("+expr1Address+")");
+                } else {
+                    writer.println("sw " + expr2 + ", (" + expr1Address + ")");
+                }
+                freeRegister(expr1Address);
+                freeRegister(expr2);
+                return null;
+            }
+            case RETURN: {
+                Return r = (Return) node;
+                if (r.expr == null){
+                    writer.println("li $v0, 0");
+                    writer.println("j eof"+eofCount);
+                } else {
+                    Register ret = result(0);
+                    writer.println("move $v0, "+ret);
+                    writer.println("j eof"+eofCount);
+                    freeRegister(ret);
+                }
+                return null;
+            }
+            default:
+                return null;
         }
-        int paramCount = 0;
-        int fpTemporary = 0;
+    }
 
-        // initialize arguments
-        for (VarDecl vd : fc.fd.params) {
-            if (vd.type == BaseType.INT || vd.type == BaseType.CHAR || vd.type instanceof PointerType ){
-                Register arg = fc.params.get(paramCount).accept(this);
-                writer.println("addi $sp, $sp, -4");
-                writer.println("sw "+arg+", -"+(fpOffset+fpTemporary)+"($fp)"); fpTemporary += 4;
-                freeRegister(arg);
-                paramCount++;
+    private Register postFunCall(FunCallExpr fc) {
+        if (getState() == null) {
+            switch (fc.name) {
+                // inbuilt print_s
+                case "print_s": {
+                    Register addressToPrint = result(0);
+                    writer.println("la $a0, (" + addressToPrint + ")");
+                    writer.println("li $v0, 4");
+                    writer.println(syscall);
+                    freeRegister(addressToPrint);
+                    return null;
+                }
+                // inbuilt print_i
+                case "print_i": {
+                    Register toPrint = result(0);
+                    writer.println("addi $a0, " + toPrint + ", 0");
+                    writer.println("li $v0, 1");
+                    writer.println(syscall);
+                    freeRegister(toPrint);
+                    return null;
+                }
+                // inbuilt print_c
+                case "print_c": {
+                    Register toPrint = result(0);
+                    writer.println("addi $a0, " + toPrint + ", 0");
+                    writer.println("li $v0, 11");
+                    writer.println(syscall);
+                    freeRegister(toPrint);
+                    return null;
+                }
+                // inbuilt read_c
+                case "read_c": {
+                    writer.println("li $v0, 12");
+                    writer.println(syscall);
+                    Register ret = getRegister();
+                    writer.println("move "+ret+", $v0");
+                    return ret;
+                }
+                // inbuilt read_i
+                case "read_i": {
+                    writer.println("li $v0, 5");
+                    writer.println(syscall);
+                    Register ret = getRegister();
+                    writer.println("move "+ret+", $v0");
+                    return ret;
+                }
+                // inbuilt mcmalloc
+                default: {
+                    Register amount = result(0);
+                    writer.println("addi $a0, " + amount + ", 0");
+                    writer.println("li $v0, 9");
+                    writer.println(syscall);
+                    freeRegister(amount);
+                    Register ret = getRegister();
+                    writer.println("move "+ret+", $v0");
+                    return ret;
+                }
             }
         }
+        CallState state = getState();
+        int fpTemporary = state.fpTemporary;
 
         // store $ra and $fp before function call
         writer.println("addi $sp, $sp, -4");
@@ -338,7 +650,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
         writer.println("sw $fp, -"+(fpOffset+fpTemporary+4)+"($fp)");
 
         // function call
-        writer.println("jal "+fc.fd.funLoc);
+        writer.println("jal "+locations.get(fc.fd.id));
 
         // restore $ra and $fp after function call and free stack
         writer.println("lw $ra, 8($fp)");
@@ -348,7 +660,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
         // free stack from function arguments
         for (VarDecl vd : fc.fd.params) {
-            if (vd.type == BaseType.INT || vd.type == BaseType.CHAR || vd.type instanceof PointerType ){
+            if (isScalar(vd.type)){
                 writer.println("addi $sp, $sp, +4");
             }
         }
@@ -362,87 +674,38 @@ public class CodeGenerator implements ASTVisitor<Register> {
         return ret;
     }
 
-    @Override
-    public Register visitBinOp(BinOp bo) {
-        Register lhsReg = bo.lhs.accept(this);
-        Register rhsReg;
-        Register result = getRegister();
+    private Register postBinOp(BinOp bo) {
+        BinOpState state = getState();
+        Register lhsReg = result(0);
+        Register rhsReg = result(1);
+        Register result = state.result;
         switch (bo.op){
-            case ADD: rhsReg = bo.rhs.accept(this);
-                      writer.println("add "+result+", "+lhsReg+", "+rhsReg);
+            case ADD: writer.println("add "+result+", "+lhsReg+", "+rhsReg);
                       freeRegister(rhsReg); break;
 
-            case SUB: rhsReg = bo.rhs.accept(this);
-                      writer.println("sub "+result+", "+lhsReg+", "+rhsReg);
+            case SUB: writer.println("sub "+result+", "+lhsReg+", "+rhsReg);
                       freeRegister(rhsReg); break;
 
-            case MUL: rhsReg = bo.rhs.accept(this);
-                      writer.println("mul "+result+", "+lhsReg+", "+rhsReg);
+            case MUL: writer.println("mul "+result+", "+lhsReg+", "+rhsReg);
                       freeRegister(rhsReg); break;
 
-            case DIV: rhsReg = bo.rhs.accept(this);
-                      writer.println("div "+lhsReg+", "+rhsReg);
+            case DIV: writer.println("div "+lhsReg+", "+rhsReg);
                       writer.println("mflo "+result);
                       freeRegister(rhsReg); break;
 
-            case MOD: rhsReg = bo.rhs.accept(this);
-                      writer.println("div "+lhsReg+", "+rhsReg);
+            case MOD: writer.println("div "+lhsReg+", "+rhsReg);
                       writer.println("mfhi "+result);
                       freeRegister(rhsReg); break;
 
-            case GT:  rhsReg = bo.rhs.accept(this);
-                      writer.println("bgt "+lhsReg+", "+rhsReg+", true"+trueCount);
-                      writer.println("li "+result+", 0");
-                      writer.println("j end"+endCount);
-                      writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
-                      writer.println("end"+endCount+": "); endCount++;
-                      freeRegister(rhsReg); break;
+            case GT:  compare("bgt", lhsReg, rhsReg, result); break;
+            case LT:  compare("blt", lhsReg, rhsReg, result); break;
+            case GE : compare("bge", lhsReg, rhsReg, result); break;
+            case LE : compare("ble", lhsReg, rhsReg, result); break;
+            case NE : compare("bne", lhsReg, rhsReg, result); break;
+            case EQ : compare("beq", lhsReg, rhsReg, result); break;
 
-            case LT:  rhsReg = bo.rhs.accept(this);
-                      writer.println("blt "+lhsReg+", "+rhsReg+", true"+trueCount);
-                      writer.println("li "+result+", 0");
-                      writer.println("j end"+endCount);
-                      writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
-                      writer.println("end"+endCount+": "); endCount++;
-                      freeRegister(rhsReg); break;
-
-            case GE : rhsReg = bo.rhs.accept(this);
-                      writer.println("bge "+lhsReg+", "+rhsReg+", true"+trueCount);
-                      writer.println("li "+result+", 0");
-                      writer.println("j end"+endCount);
-                      writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
-                      writer.println("end"+endCount+": "); endCount++;
-                      freeRegister(rhsReg); break;
-
-            case LE : rhsReg = bo.rhs.accept(this);
-                      writer.println("ble "+lhsReg+", "+rhsReg+", true"+trueCount);
-                      writer.println("li "+result+", 0");
-                      writer.println("j end"+endCount);
-                      writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
-                      writer.println("end"+endCount+": "); endCount++;
-                      freeRegister(rhsReg); break;
-
-            case NE : rhsReg = bo.rhs.accept(this);
-                      writer.println("bne "+lhsReg+", "+rhsReg+", true"+trueCount);
-                      writer.println("li "+result+", 0");
-                      writer.println("j end"+endCount);
-                      writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
-                      writer.println("end"+endCount+": "); endCount++;
-                      freeRegister(rhsReg); break;
-
-            case EQ : rhsReg = bo.rhs.accept(this);
-                      writer.println("beq "+lhsReg+", "+rhsReg+", true"+trueCount);
-                      writer.println("li "+result+", 0");
-                      writer.println("j end"+endCount);
-                      writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
-                      writer.println("end"+endCount+": "); endCount++;
-                      freeRegister(rhsReg); break;
-
-            case OR : String trueStr = "true"+trueCount; trueCount++;
-                      Register oneReg = getRegister();
-                      writer.println("li "+oneReg+", 1");
-                      writer.println("beq "+lhsReg+", "+oneReg+", "+trueStr);
-                      rhsReg = bo.rhs.accept(this);
+            case OR : String trueStr = state.label;
+                      Register oneReg = state.oneReg;
                       writer.println("beq "+rhsReg+", "+oneReg+", "+trueStr);
                       freeRegister(oneReg);
                       writer.println("li "+result+", 0");
@@ -451,9 +714,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
                       writer.println("end"+endCount+": "); endCount++;
                       freeRegister(rhsReg); break;
 
-            case AND: String falseStr = "false"+trueCount;
-                      writer.println("beqz "+lhsReg+", "+falseStr);
-                      rhsReg = bo.rhs.accept(this);
+            case AND: String falseStr = state.label;
                       writer.println("beqz "+rhsReg+", "+falseStr);
                       writer.println("li "+result+", 1");
                       writer.println("j end"+endCount);
@@ -465,13 +726,18 @@ public class CodeGenerator implements ASTVisitor<Register> {
         return result;
     }
 
-    @Override
-    public Register visitOp(Op op) { return null; }
+    private void compare(String branch, Register lhsReg, Register rhsReg, Register result) {
+        writer.println(branch+" "+lhsReg+", "+rhsReg+", true"+trueCount);
+        writer.println("li "+result+", 0");
+        writer.println("j end"+endCount);
+        writer.println("true"+trueCount+": li "+result+", 1"); trueCount++;
+        writer.println("end"+endCount+": "); endCount++;
+        freeRegister(rhsReg);
+    }
 
-    @Override
-    public Register visitArrayAccessExpr(ArrayAccessExpr aa) {
-        Register arrayAddress = getRegister();
-        Register arrayIndex = aa.index.accept(this);
+    private Register postArrayAccess(ArrayAccessExpr aa) {
+        Register arrayAddress = getState();
+        Register arrayIndex = result(0);
         Register value = getRegister();
         // if our array isn't of type char, we need to multiply the index by 4 and use sw instead of sb
         VarDecl vd =((VarExpr) aa.array).vd;
@@ -480,11 +746,11 @@ public class CodeGenerator implements ASTVisitor<Register> {
             writer.println("li "+num+", 4");
             writer.println("mul "+arrayIndex+", "+arrayIndex+", "+num);
             freeRegister(num);
-            writer.println("la "+arrayAddress+", "+((VarExpr) aa.array).vd.varLoc);
+            writer.println("la "+arrayAddress+", "+locations.get(((VarExpr) aa.array).vd.id));
             writer.println("add "+arrayAddress+", "+arrayAddress+", "+arrayIndex);
             writer.println("lw "+value+", ("+arrayAddress+")");
         } else {
-            writer.println("la "+arrayAddress+", "+((VarExpr) aa.array).vd.varLoc);
+            writer.println("la "+arrayAddress+", "+locations.get(((VarExpr) aa.array).vd.id));
             writer.println("add "+arrayAddress+", "+arrayAddress+", "+arrayIndex);
             writer.println("lb "+value+", ("+arrayAddress+")");
         }
@@ -494,180 +760,4 @@ public class CodeGenerator implements ASTVisitor<Register> {
         return value;
     }
 
-    @Override
-    public Register visitFieldAccessExpr(FieldAccessExpr fa) {
-        Register value = getRegister();
-        for (StructTypeDecl s : structTypeDeclList) {
-            if (s.structType.structName.equals(((StructType) fa.structure.type).structName)) {
-                for (VarDecl vd : s.params) {
-                    if (fa.field.equals(vd.varName)) {
-                        writer.println("la "+value+", "+vd.varLoc);
-                        writer.println("lw "+value+", ("+value+")");
-                    }
-                }
-            }
-        }
-        return value;
-    }
-
-    @Override
-    public Register visitValueAtExpr(ValueAtExpr va) {
-        Register value = getRegister();
-        String valueAddress = ((VarExpr) va.expr).vd.varLoc;
-        writer.println("la "+value+", "+valueAddress);
-        writer.println("lw "+value+", ("+value+")");
-        writer.println("lw "+value+", ("+value+")");
-        return value;
-    }
-
-    @Override
-    public Register visitSizeOfExpr(SizeOfExpr so) {
-        Register size = getRegister();
-        if (so.type == BaseType.CHAR){
-            writer.println("li "+size+", 1");
-        } else {
-            writer.println("li "+size+", 4");
-        }
-        return size;
-    }
-
-    @Override
-    public Register visitTypecastExpr(TypecastExpr tc) {
-        return tc.expr.accept(this);
-    }
-
-
-    // STATEMENTS
-    @Override
-    public Register visitBlock(Block b) {
-        // variables declared by VarDeclarator
-        for (Stmt stmts : b.stmts){
-            stmts.accept(this);
-        }
-        return null;
-    }
-
-    @Override
-    public Register visitExprStmt(ExprStmt e) {
-        e.expr.accept(this);
-        return null;
-    }
-
-    @Override
-    public Register visitWhile(While w) {
-        String endStr = "end"+endCount; endCount++;
-        String whileStr = "while"+startCount; startCount++;
-        writer.println(whileStr+": ");
-        Register truthValue = w.expr.accept(this);
-        writer.println("beqz "+ truthValue +", "+endStr);
-        freeRegister(truthValue);
-        w.stmt.accept(this);
-        writer.println("j "+whileStr);
-        writer.println(endStr+": ");
-        return null;
-    }
-
-    @Override
-    public Register visitIf(If i) {
-        String elseStr = "else"+elseCount; elseCount++;
-        String endStr = "end"+endCount; endCount++;
-        Register truthValue = i.expr.accept(this);
-        writer.println("beqz "+ truthValue +", "+elseStr);
-        freeRegister(truthValue);
-        i.stmt1.accept(this);
-        writer.println("j "+endStr);
-        writer.println(elseStr+":");
-        if (i.stmt2 != null){
-            i.stmt2.accept(this);
-        }
-        writer.println(endStr+": ");
-        return null;
-    }
-
-    @Override
-    public Register visitAssign(Assign a) {
-        int isChar = 0;
-        Register expr1Address = getRegister();
-        if (a.expr1 instanceof VarExpr){
-            writer.println("la "+expr1Address+", "+((VarExpr) a.expr1).vd.varLoc);
-        }
-
-        if(a.expr1 instanceof ArrayAccessExpr){
-            String arrayAddress = ((VarExpr)((ArrayAccessExpr) a.expr1).array).vd.varLoc;
-            Register arrayIndex = ((ArrayAccessExpr) a.expr1).index.accept(this);
-            // if our array isn't of type char, we need to multiply the index by 4
-            VarDecl vd =((VarExpr)((ArrayAccessExpr) a.expr1).array).vd;
-            if (((ArrayType) vd.type).type != BaseType.CHAR){
-                Register num = getRegister();
-                writer.println("li "+num+", 4");
-                writer.println("mul "+arrayIndex+", "+arrayIndex+", "+num);
-                freeRegister(num);
-                writer.println("la "+expr1Address+", "+arrayAddress);
-                writer.println("add "+expr1Address+", "+expr1Address+", "+arrayIndex);
-                freeRegister(arrayIndex);
-            } else {
-                isChar = 1;
-                writer.println("la "+expr1Address+", "+arrayAddress);
-                writer.println("add "+expr1Address+", "+expr1Address+", "+arrayIndex);
-                freeRegister(arrayIndex);
-            }
-        }
-
-        if (a.expr1 instanceof ValueAtExpr){
-            String valueAddress = ((VarExpr) ((ValueAtExpr) a.expr1).expr).vd.varLoc;
-            writer.println("la "+expr1Address+", "+valueAddress);
-            writer.println("lw "+expr1Address+", ("+expr1Address+")");
-        }
-
-        if (a.expr1 instanceof FieldAccessExpr) {
-            for (StructTypeDecl s : structTypeDeclList) {
-                if (s.structType.structName.equals(((StructType) ((FieldAccessExpr) a.expr1).structure.type).structName)) {
-                    for (VarDecl vd : s.params) {
-                        if (((FieldAccessExpr)a.expr1).field.equals(vd.varName)) {
-                            writer.println("la " + expr1Address + ", " + vd.varLoc);
-                        }
-                    }
-                }
-            }
-        }
-
-        Register expr2 = a.expr2.accept(this);
-        if (isChar == 1){
-            writer.println("sb "+expr2+", ("+expr1Address+")");
-        } else {
-            writer.println("sw " + expr2 + ", (" + expr1Address + ")");
-        }
-        freeRegister(expr1Address);
-        freeRegister(expr2);
-        return null;
-    }
-
-    @Override
-    public Register visitReturn(Return r) {
-        if (r.expr == null){
-            writer.println("li $v0, 0");
-            writer.println("j eof"+eofCount);
-        } else {
-            Register ret = r.expr.accept(this);
-            writer.println("move $v0, "+ret);
-            writer.println("j eof"+eofCount);
-            freeRegister(ret);
-        }
-        return null;
-    }
-
-
-    // TYPES
-    @Override
-    public Register visitBaseType(BaseType bt) { return null; }
-
-    @Override
-    public Register visitPointerType(PointerType pt) { return null; }
-
-    @Override
-    public Register visitStructType(StructType st) { return null; }
-
-    @Override
-    public Register visitArrayType(ArrayType at) { return null; }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package gen;
+
+import java.util.Arrays;
+
+/**
+ * Where one run of the code generator put each variable and function, indexed by VarDecl.id and FunDecl.id, so that
+ * the tree is only read: several runs can share it, one after the other or at the same time.
+ */
+final class Locations {
+
+    private String[] locations;
+
+    Locations(int ids) {
+        locations = new String[ids];
+    }
+
+    // null for a declaration that has not been given a location
+    String get(int id) {
+        return id < locations.length ? locations[id] : null;
+    }
+
+    void set(int id, String location) {
+        // bodies parsed lazily may number declarations after the table was made
+        if (id >= locations.length)
+            locations = Arrays.copyOf(locations, Math.max(id + 1, locations.length * 2));
+        locations[id] = location;
+    }
+}
@@ -10,84 +10,68 @@ import java.util.EmptyStackException;
 import java.util.List;
 import java.util.Stack;
 
-public class VarDeclarator implements ASTVisitor<Register> {
+public class VarDeclarator extends ASTWalker<Register> {
 
 
     private PrintWriter writer; // use this writer to output the assembly instructions
     private int fpOffset;
-    public List<StructTypeDecl> structTypeDeclList = new ArrayList<>();
-
-    public int addVarDecls(FunDecl fd, int fpOffset, PrintWriter writer, List<StructTypeDecl> structTypeDeclList){
+    private Locations locations;
+    private StructLayouts layouts;
+
+    /*
+     * Declares the local variables of the function, and records where each is in the given locations. The params of
+     * the function are declared first, but for the first onStack, which are the arguments passed on the stack.
+     */
+    int addVarDecls(FunDecl fd, int onStack, int fpOffset, PrintWriter writer,
+                    StructLayouts layouts, Locations locations){
         this.writer = writer;
         this.fpOffset = fpOffset;
-        this.structTypeDeclList = structTypeDeclList;
-        visitFunDecl(fd);
+        this.layouts = layouts;
+        this.locations = locations;
+        for (VarDecl vd : fd.params.subList(onStack, fd.params.size()))
+            declare(vd);
+        walk(fd.getBlock());
         return this.fpOffset;
     }
 
-    // Implement Type
-    public Register visitBaseType(BaseType bt){ return null; }
-    public Register visitPointerType(PointerType pt){ return null; }
-    public Register visitStructType(StructType st){ return null; }
-    public Register visitArrayType(ArrayType at){ return null; }
-
-    // Extends Expr (except Op)
-    public Register visitIntLiteral(IntLiteral i){ return null; }
-    public Register visitStrLiteral(StrLiteral s){ return null; }
-    public Register visitChrLiteral(ChrLiteral c){ return null; }
-    public Register visitVarExpr(VarExpr v){ return null; }
-    public Register visitFunCallExpr(FunCallExpr f){ return null; }
-    public Register visitBinOp(BinOp bo){ return null; }
-    public Register visitOp(Op op){ return null; }
-    public Register visitArrayAccessExpr(ArrayAccessExpr aa){ return null; }
-    public Register visitFieldAccessExpr(FieldAccessExpr fa){ return null; }
-    public Register visitValueAtExpr(ValueAtExpr va){ return null; }
-    public Register visitSizeOfExpr(SizeOfExpr so){ return null; }
-    public Register visitTypecastExpr(TypecastExpr t){ return null; }
-
-    // Extends Stmt
-    public Register visitExprStmt(ExprStmt es){ return null; }
-
     @Override
-    public Register visitWhile(While w){
-        w.stmt.accept(this);
-        return null;
+    protected boolean pre(ASTNode node) {
+        switch (node.kind()) {
+            case VAR_DECL:
+                declare((VarDecl) node);
+                return false;
+            default:
+                return true;
+        }
     }
 
+    // Only the statements that can hold blocks are walked into
     @Override
-    public Register visitIf(If i){
-        i.stmt1.accept(this);
-        if (i.stmt2 != null) {
-            i.stmt2.accept(this);
+    protected ASTNode child(ASTNode node, int index) {
+        switch (node.kind()) {
+            case BLOCK:
+                return super.child(node, index);
+            case WHILE:
+                return index == 0 ? ((While) node).stmt : null;
+            case IF: {
+                If i = (If) node;
+                return index == 0 ? i.stmt1 : index == 1 ? i.stmt2 : null;
+            }
+            default:
+                return null;
         }
-        return null; }
-
-    public Register visitAssign(Assign a){ return null; }
-    public Register visitReturn(Return r){ return null; }
+    }
 
     @Override
-    public Register visitBlock(Block b){
-        for (VarDecl vd : b.params){
-            vd.accept(this);
-        }
-        for (Stmt stmts : b.stmts){
-            stmts.accept(this);
-        }
+    protected Register post(ASTNode node) {
         return null;
     }
 
-    @Override
-    public Register visitProgram(Program p){ return null; }
-
-    @Override
-    public Register visitStructTypeDecl(StructTypeDecl st){ return null; }
-
-    @Override
-    public Register visitVarDecl(VarDecl vd) {
+    private void declare(VarDecl vd) {
         // if variable is an int, char or pointer
         if (vd.type == BaseType.INT || vd.type == BaseType.CHAR|| vd.type instanceof PointerType ){
             writer.println("addi $sp, $sp, -4");
-            vd.varLoc = "-"+fpOffset+"($fp)";
+            locations.set(vd.id, "-"+fpOffset+"($fp)");
             fpOffset += 4;
 
             // if variable is an array type
@@ -99,27 +83,19 @@ public class VarDeclarator implements ASTVisitor<Register> {
                 elements += 4-(elements % 4);
             }
             writer.println("addi $sp, $sp, -"+elements);
-            vd.varLoc = "-"+fpOffset+"($fp)";
+            locations.set(vd.id, "-"+fpOffset+"($fp)");
             fpOffset += elements;
 
         } else if (vd.type instanceof StructType){
-            for (StructTypeDecl s : structTypeDeclList) {
-                if (s.structType.structName.equals(((StructType) vd.type).structName)) {
-                    for (VarDecl svd : s.params) {
-                        writer.println("addi $sp, $sp, -4");
-                        svd.varLoc = "-"+fpOffset+"($fp)";
-                        fpOffset += 4;
-                    }
+            StructLayout s = layouts.get(vd.type);
+            if (s != null) {
+                for (StructLayout.Field field : s.fields) {
+                    writer.println("addi $sp, $sp, -"+field.size);
+                    locations.set(field.decl.id, "-"+(fpOffset+field.offset)+"($fp)");
                 }
+                fpOffset += s.size;
             }
         }
-        return null;
-    }
-
-    @Override
-    public Register visitFunDecl(FunDecl p){
-        p.block.accept(this);
-        return null;
     }
 
 }
@@ -0,0 +1,229 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lexes a large file into a TokenStream on several threads.
+ *
+ * The text is cut into chunks just after a newline, and every chunk is lexed on its own as if a token started at the
+ * cut. That guess is wrong when the cut falls inside a multiline comment, so the chunks are then stitched together in
+ * order: the token at which the previous chunk stopped must also start a token of the next chunk, from where both
+ * lexers necessarily agree. When it does not, the chunk is lexed again from the right place. Either way the result is
+ * the same stream, with the same errors in the same order, as Tokeniser.tokenise() produces.
+ */
+public class ParallelTokeniser {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final Scanner scanner;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    // chunk boundaries, and the absolute position of each boundary once known
+    private int[] bounds;
+    private int[] baseLines;
+    private int[] baseColumns;
+
+    public ParallelTokeniser(Scanner scanner) {
+        this(scanner, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelTokeniser(Scanner scanner, ForkJoinPool pool, int chunkSize) {
+        this.scanner = scanner;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /*
+     * A run of tokens lexed from start, up to and including the first token starting at or after end (or EOF).
+     * Positions are relative to start, which is line 1 column 0 for the chunk's tokeniser.
+     */
+    private class Chunk {
+        final TokenStream tokens;
+        int[] starts; // start offset of each token
+        int newlines = 0;
+        int lastNewline = -1;
+        int baseLine;
+        int baseColumn;
+
+        Chunk(int capacity) {
+            tokens = new TokenStream(scanner, capacity);
+            starts = new int[capacity];
+        }
+
+        void add(TokenClass tokenClass, int tokenStart, int dataStart, int dataLength, long position) {
+            int i = tokens.size();
+            if (i == starts.length)
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            starts[i] = tokenStart;
+            tokens.add(tokenClass, dataStart, dataLength, position);
+        }
+
+        // index of the token starting at offset, or a negative number if no token starts there
+        int indexOf(int offset) {
+            return Arrays.binarySearch(starts, 0, tokens.size(), offset);
+        }
+
+        long absolutePosition(int i) {
+            long relative = tokens.position(i);
+            int line = Position.line(relative);
+            int column = Position.column(relative);
+            if (line == 1)
+                return Position.pack(baseLine, baseColumn + column);
+            return Position.pack(baseLine + line - 1, column);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class LexTask extends RecursiveAction {
+        final Chunk[] chunks;
+        final int k;
+
+        LexTask(Chunk[] chunks, int k) {
+            this.chunks = chunks;
+            this.k = k;
+        }
+
+        @Override
+        protected void compute() {
+            Chunk chunk = lex(bounds[k], bounds[k + 1]);
+            for (int i = bounds[k]; i < bounds[k + 1]; i++) {
+                char c = scanner.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    chunk.newlines++;
+                    chunk.lastNewline = i;
+                }
+            }
+            chunks[k] = chunk;
+        }
+    }
+
+    public TokenStream tokenise() {
+        int length = scanner.length();
+        bounds = split(length);
+        int count = bounds.length - 1;
+        if (count < 2)
+            return new Tokeniser(scanner).tokenise();
+
+        final Chunk[] chunks = new Chunk[count];
+        final List<LexTask> tasks = new ArrayList<>();
+        for (int k = 0; k < count; k++)
+            tasks.add(new LexTask(chunks, k));
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        // where each chunk really starts, from the number of lines in the chunks before it
+        baseLines = new int[count];
+        baseColumns = new int[count];
+        baseLines[0] = 1;
+        for (int k = 1; k < count; k++) {
+            Chunk prev = chunks[k - 1];
+            if (prev.newlines == 0) {
+                baseLines[k] = baseLines[k - 1];
+                baseColumns[k] = baseColumns[k - 1] + bounds[k] - bounds[k - 1];
+            } else {
+                baseLines[k] = baseLines[k - 1] + prev.newlines;
+                baseColumns[k] = bounds[k] - (prev.lastNewline + 1);
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            chunks[k].baseLine = baseLines[k];
+            chunks[k].baseColumn = baseColumns[k];
+        }
+
+        return stitch(chunks);
+    }
+
+    private TokenStream stitch(Chunk[] chunks) {
+        TokenStream result = new TokenStream(scanner, scanner.length() / 4 + 16);
+        int resume = 0; // start of the next token of the sequential lexer
+        for (int k = 0; k < chunks.length; k++) {
+            Chunk chunk = chunks[k];
+            int from = k == 0 ? 0 : chunk.indexOf(resume);
+            if (from < 0) {
+                // the cut was not a place the sequential lexer stops at (e.g. inside a comment), lex it again
+                chunk = lex(resume, bounds[k + 1]);
+                long base = positionOf(resume);
+                chunk.baseLine = Position.line(base);
+                chunk.baseColumn = Position.column(base);
+                from = 0;
+            }
+            int last = chunk.tokens.size() - 1;
+            for (int i = from; i <= last; i++) {
+                TokenClass tokenClass = chunk.tokens.tokenClass(i);
+                if (i == last && tokenClass != TokenClass.EOF)
+                    break; // belongs to the next chunk
+                long position = chunk.absolutePosition(i);
+                if (tokenClass == TokenClass.INVALID) {
+                    // recorded here rather than by the chunk tokenisers, so that errors are kept once and in order
+                    char c = scanner.charAt(chunk.starts[i]);
+                    result.addError(Tokeniser.errorMessage(c, Position.line(position), Position.column(position)));
+                }
+                result.add(tokenClass, chunk.tokens.start(i), chunk.tokens.length(i), position);
+            }
+            if (chunk.tokens.tokenClass(last) == TokenClass.EOF)
+                break;
+            resume = chunk.starts[last];
+        }
+        return result;
+    }
+
+    private Chunk lex(int start, int end) {
+        Chunk chunk = new Chunk(Math.max(end - start, 0) / 4 + 16);
+        Tokeniser tokeniser = new Tokeniser(new Scanner(scanner, start), false);
+        TokenClass tokenClass;
+        do {
+            tokenClass = tokeniser.scan();
+            chunk.add(tokenClass, tokeniser.tokenStart, tokeniser.dataStart, tokeniser.dataEnd - tokeniser.dataStart,
+                    Position.pack(tokeniser.line, tokeniser.column));
+        } while (tokenClass != TokenClass.EOF && tokeniser.tokenStart < end);
+        return chunk;
+    }
+
+    // cuts the text into chunks of roughly chunkSize characters, each starting just after a newline
+    private int[] split(int length) {
+        int count = Math.max(1, length / chunkSize);
+        int[] cuts = new int[count + 1];
+        int n = 1;
+        for (int k = 1; k < count; k++) {
+            int i = Math.max((int) ((long) length * k / count), cuts[n - 1]);
+            while (i < length && scanner.charAt(i) != '\n' && scanner.charAt(i) != '\r')
+                i++;
+            if (i + 1 < length && i + 1 > cuts[n - 1])
+                cuts[n++] = i + 1;
+        }
+        cuts[n++] = length;
+        return Arrays.copyOf(cuts, n);
+    }
+
+    // line and column the sequential scanner would be at when reaching offset
+    private long positionOf(int offset) {
+        int k = 0;
+        while (k + 1 < bounds.length - 1 && bounds[k + 1] <= offset)
+            k++;
+        int line = baseLines[k];
+        int column = baseColumns[k];
+        for (int i = bounds[k]; i < offset; i++) {
+            char c = scanner.charAt(i);
+            if (c == '\n' || c == '\r') {
+                line++;
+                column = 0;
+            } else {
+                column++;
+            }
+        }
+        return Position.pack(line, column);
+    }
+
+}
@@ -1,20 +1,114 @@
 package lexer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author cdubach
+ *
+ * The whole source file is loaded into memory up front (read into a heap buffer, or memory-mapped),
+ * so that the Tokeniser can work on offsets into the text instead of pulling one character at a time
+ * through a Reader.
  */
 public class Scanner {
 
-    private BufferedReader input;
-    private int peeked = -1;
+    // end of file marker returned by peek(), same value a Reader's -1 used to produce when cast to char
+    public static final char EOF = '\uFFFF';
 
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // pure ASCII input decodes to itself in any of these, so it can be read without a CharsetDecoder
+    private static final boolean ASCII_COMPATIBLE = CHARSET.equals(StandardCharsets.UTF_8)
+            || CHARSET.equals(StandardCharsets.ISO_8859_1) || CHARSET.equals(StandardCharsets.US_ASCII);
+
+    // exactly one of these holds the text: decoded characters, or raw ASCII bytes (mapped files only)
+    private char[] chars;
+    private ByteBuffer bytes;
+    private final int length;
+
+    private int offset = 0;
     private int line = 1;
     private int column = 0;
 
-    public Scanner(File source) throws FileNotFoundException {
-        input = new BufferedReader(new FileReader(source));
+    public Scanner(File source) throws IOException {
+        this(source, false);
+    }
+
+    /*
+     * If mapped is true the file is memory-mapped rather than copied onto the heap.
+     */
+    public Scanner(File source, boolean mapped) throws IOException {
+        try (FileInputStream in = new FileInputStream(source); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File " + source + " is too large");
+            ByteBuffer buf;
+            if (mapped) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && channel.read(buf) != -1);
+                buf.flip();
+            }
+            load(buf, mapped);
+        }
+        this.length = chars != null ? chars.length : bytes.limit();
+    }
+
+    /*
+     * Scans the given text, used for sources that do not come from a file.
+     */
+    public Scanner(String source) {
+        this.chars = source.toCharArray();
+        this.length = chars.length;
+    }
+
+    /*
+     * Scans the same text as other, starting at the given offset. Lines and columns are counted from 1:0 at that offset.
+     */
+    Scanner(Scanner other, int offset) {
+        this.chars = other.chars;
+        this.bytes = other.bytes;
+        this.length = other.length;
+        this.offset = offset;
+    }
+
+    private void load(ByteBuffer buf, boolean mapped) {
+        if (ASCII_COMPATIBLE && isAscii(buf)) {
+            if (mapped) {
+                bytes = buf;
+            } else {
+                // widen the bytes ourselves, much cheaper than going through the decoder
+                byte[] b = buf.array();
+                int n = buf.limit();
+                chars = new char[n];
+                for (int i = 0; i < n; i++)
+                    chars[i] = (char) b[i];
+            }
+        } else {
+            CharBuffer cb = CHARSET.decode(buf);
+            chars = new char[cb.remaining()];
+            cb.get(chars);
+        }
+    }
+
+    private static boolean isAscii(ByteBuffer buf) {
+        int n = buf.limit();
+        if (buf.hasArray()) {
+            byte[] b = buf.array();
+            for (int i = 0; i < n; i++)
+                if (b[i] < 0)
+                    return false;
+        } else {
+            for (int i = 0; i < n; i++)
+                if (buf.get(i) < 0)
+                    return false;
+        }
+        return true;
     }
 
 
@@ -27,29 +121,16 @@ public class Scanner {
     }
 
     public char peek() throws IOException {
-        if (peeked != -1)
-            return (char)peeked;
-
-        int r = input.read();
-        //if (r == -1)
-        //   throw new EOFException();
-
-        peeked = r;
-        return (char) r;
+        if (offset >= length)
+            return EOF;
+        return charAt(offset);
     }
 
 
     public char next() throws IOException {
-        char r;
-        if (peeked != -1) {
-            r = (char) peeked;
-            peeked = -1;
-        } else {
-            int i = input.read();
-            if (i == -1)
-                throw new EOFException();
-            r = (char) i;
-        }
+        if (offset >= length)
+            throw new EOFException();
+        char r = charAt(offset++);
 
         if (r == '\n' || r == '\r') {
             line++;
@@ -61,9 +142,69 @@ public class Scanner {
     }
 
     public void close() throws IOException {
-        input.close();
+        chars = null;
+        bytes = null;
     }
 
 
+    /*
+     * Bulk access to the underlying text.
+     */
+
+    // offset of the next character next() will return
+    public int getOffset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (chars != null)
+            return chars[index];
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    // the text between start (inclusive) and end (exclusive)
+    public String slice(int start, int end) {
+        if (chars != null)
+            return new String(chars, start, end - start);
+        char[] cs = new char[end - start];
+        for (int i = start; i < end; i++)
+            cs[i - start] = (char) (bytes.get(i) & 0xFF);
+        return new String(cs);
+    }
+
+    // offset of the first occurrence of c at or after from, or -1 if there is none
+    public int indexOf(char c, int from) {
+        for (int i = from; i < length; i++)
+            if (charAt(i) == c)
+                return i;
+        return -1;
+    }
+
+    /*
+     * Moves the scanner to the given offset (>= current offset) as if next() had been called for every character in
+     * between, keeping line and column up to date.
+     */
+    public void advanceTo(int target) {
+        if (target > length)
+            target = length;
+        int l = line;
+        int col = column;
+        for (int i = offset; i < target; i++) {
+            char c = charAt(i);
+            if (c == '\n' || c == '\r') {
+                l++;
+                col = 0;
+            } else {
+                col++;
+            }
+        }
+        line = l;
+        column = col;
+        offset = target;
+    }
 
 }
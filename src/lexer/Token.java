@@ -77,7 +77,7 @@ public class Token {
 
     public final TokenClass tokenClass;
     public final String data;
-    public final Position position;
+    public final long packedPosition; // line and column, see util.Position
 
     public Token(TokenClass type, int lineNum, int colNum) {
         this(type, "", lineNum, colNum);
@@ -87,14 +87,25 @@ public class Token {
         assert (tokenClass != null);
         this.tokenClass = tokenClass;
         this.data = data;
-        this.position = new Position(lineNum, colNum);
+        this.packedPosition = Position.pack(lineNum, colNum);
     }
 
+    public int getLine() {
+        return Position.line(packedPosition);
+    }
+
+    public int getColumn() {
+        return Position.column(packedPosition);
+    }
 
+    // what the position field used to hold, only allocated when needed, e.g. to report an error
+    public Position getPosition() {
+        return new Position(packedPosition);
+    }
 
     @Override
     public String toString() {
-        if (data.equals(""))
+        if (data.isEmpty())
             return tokenClass.toString();
         else
             return tokenClass.toString()+"("+data+")";
@@ -0,0 +1,165 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lexes a file on a thread of its own while the parser consumes the tokens, see Tokeniser(TokenPipe).
+ *
+ * The lexing thread fills batches of tokens and publishes them into a ring of BATCHES slots shared with the one
+ * consuming thread. Each side only ever writes its own counter, so no locks are needed: the producer owns the slots
+ * from head to head + BATCHES and the consumer those from head to tail. A full ring makes the producer wait for the
+ * parser to catch up, an empty one the consumer wait for the lexer.
+ *
+ * Lexing errors are not printed by the lexing thread but when the INVALID token is handed out, so that they come out
+ * at the same point relative to the parser's errors as with a plain Tokeniser.
+ *
+ * A consumer that stops before EOF must close() the pipe, or the lexing thread would wait for it forever.
+ */
+public class TokenPipe {
+
+    private static final int BATCHES = 64;          // power of two
+    private static final int BATCH_SIZE = 1024;
+
+    private static final int SPINS = 64;            // busy waiting before yielding, and then parking
+    private static final int YIELDS = 16;
+    private static final long PARK_NANOS = 50_000;
+
+    private final Scanner scanner;
+
+    private final Token[][] tokens = new Token[BATCHES][BATCH_SIZE];
+    private final int[][] starts = new int[BATCHES][BATCH_SIZE]; // start offset of each token, for error messages
+    private final int[] sizes = new int[BATCHES];
+
+    // number of batches published by the producer and released by the consumer, the slot of batch n is n % BATCHES
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // set by the producer before it publishes its last batch if lexing failed
+    private volatile Throwable failure;
+
+    private Thread producer;
+    private volatile boolean closed = false;
+
+    // consumer side
+    private long current = -1;   // batch being consumed, -1 before the first one
+    private int index = 0;       // next token in it
+    private boolean done = false;
+    private Token eof;
+
+    public TokenPipe(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /*
+     * Starts lexing, the tokens can then be consumed with next().
+     */
+    public TokenPipe start() {
+        producer = new Thread(this::produce, "tokeniser");
+        producer.setDaemon(true);
+        producer.start();
+        return this;
+    }
+
+    /*
+     * Stops lexing: the lexing thread ends as soon as it sees it, rather than waiting for the consumer to release a
+     * slot. No more tokens may be consumed afterwards.
+     */
+    public void close() {
+        closed = true;
+        if (producer != null)
+            LockSupport.unpark(producer);
+    }
+
+    // waits for the consumer to release the slot of batch n, returns false if the pipe was closed meanwhile
+    private boolean awaitSlot(long n) {
+        for (int k = 0; n - head.get() >= BATCHES; k++) {
+            if (closed)
+                return false;
+            backOff(k);
+        }
+        return !closed;
+    }
+
+    private void produce() {
+        Tokeniser tokeniser = new Tokeniser(scanner, false);
+        long n = 0;
+        try {
+            TokenClass tokenClass;
+            do {
+                if (!awaitSlot(n))
+                    return;
+                int slot = (int) (n & (BATCHES - 1));
+                Token[] batch = tokens[slot];
+                int[] batchStarts = starts[slot];
+                int size = 0;
+                do {
+                    tokenClass = tokeniser.scan();
+                    batch[size] = tokeniser.token(tokenClass);
+                    batchStarts[size] = tokeniser.tokenStart;
+                    size++;
+                } while (size < BATCH_SIZE && tokenClass != TokenClass.EOF);
+                sizes[slot] = size;
+                tail.lazySet(++n);
+            } while (tokenClass != TokenClass.EOF);
+        } catch (Throwable t) {
+            failure = t;
+            // an empty batch tells the consumer to look at failure
+            if (!awaitSlot(n))
+                return;
+            sizes[(int) (n & (BATCHES - 1))] = 0;
+            tail.lazySet(n + 1);
+        }
+    }
+
+    /*
+     * The next token, EOF again once the end has been reached. Must always be called from the same thread.
+     */
+    Token next() {
+        if (done)
+            return eof;
+        int slot = (int) (current & (BATCHES - 1));
+        if (current < 0 || index == sizes[slot]) {
+            if (current >= 0) {
+                // release the slot, clearing it so that the tokens can be collected as the parser goes
+                Arrays.fill(tokens[slot], 0, sizes[slot], null);
+                head.lazySet(current + 1);
+            }
+            current++;
+            for (int k = 0; tail.get() <= current; k++)
+                backOff(k);
+            slot = (int) (current & (BATCHES - 1));
+            index = 0;
+            if (sizes[slot] == 0)
+                throw new IllegalStateException("Lexing failed", failure);
+        }
+        Token t = tokens[slot][index++];
+        if (t.tokenClass == TokenClass.EOF) {
+            done = true;
+            eof = t;
+        }
+        return t;
+    }
+
+    // start offset in the source of the token last returned by next()
+    int lastStart() {
+        return starts[(int) (current & (BATCHES - 1))][index - 1];
+    }
+
+    char charAt(int offset) {
+        return scanner.charAt(offset);
+    }
+
+    private static void backOff(int attempt) {
+        if (attempt < SPINS)
+            return;
+        if (attempt < SPINS + YIELDS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+    }
+
+}
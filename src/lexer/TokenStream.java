@@ -0,0 +1,115 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tokens of a whole file, stored as parallel arrays rather than one object per token.
+ * The data of identifiers and literals is kept as a range of the scanner's text and only turned into a String on demand.
+ */
+public class TokenStream {
+
+    private static final TokenClass[] CLASSES = TokenClass.values();
+
+    private final Scanner source;
+
+    private int size = 0;
+    private int[] classes;     // TokenClass ordinals
+    private int[] starts;      // offset of the data in the source
+    private int[] lengths;     // length of the data, 0 for tokens without data
+    private long[] positions;  // packed line and column, see util.Position
+
+    // the lexing errors, in source order, and the index of the INVALID token each was found at
+    private final List<String> errorMessages = new ArrayList<>();
+    private int[] errorTokens = new int[16];
+
+    TokenStream(Scanner source, int capacity) {
+        this.source = source;
+        this.classes = new int[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.positions = new long[capacity];
+    }
+
+    void add(TokenClass tokenClass, int start, int length, long position) {
+        if (size == classes.length) {
+            int capacity = classes.length * 2;
+            classes = Arrays.copyOf(classes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        classes[size] = tokenClass.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        positions[size] = position;
+        size++;
+    }
+
+    // records an error found while lexing the token added next
+    void addError(String message) {
+        int n = errorMessages.size();
+        if (n == errorTokens.length)
+            errorTokens = Arrays.copyOf(errorTokens, n * 2);
+        errorTokens[n] = size;
+        errorMessages.add(message);
+    }
+
+    // number of lexing errors found while building the stream
+    public int getErrorCount() {
+        return errorMessages.size();
+    }
+
+    /*
+     * The lexing error found at the i^th token, or null if there is none. The errors are not printed while the stream
+     * is built but by whoever consumes it, as it reaches each token, so that they come out at the same point relative
+     * to the parser's output as when the tokens are lexed on demand.
+     */
+    public String error(int i) {
+        if (classes[i] != TokenClass.INVALID.ordinal())
+            return null;
+        int k = Arrays.binarySearch(errorTokens, 0, errorMessages.size(), i);
+        return k >= 0 ? errorMessages.get(k) : null;
+    }
+
+    // number of tokens, the last one always being EOF
+    public int size() {
+        return size;
+    }
+
+    public TokenClass tokenClass(int i) {
+        return CLASSES[classes[i]];
+    }
+
+    public String data(int i) {
+        if (lengths[i] == 0)
+            return "";
+        return source.slice(starts[i], starts[i] + lengths[i]);
+    }
+
+    // the data of the i^th token as a range of the source
+    int start(int i) {
+        return starts[i];
+    }
+
+    int length(int i) {
+        return lengths[i];
+    }
+
+    public long position(int i) {
+        return positions[i];
+    }
+
+    // materialises the i^th token
+    public Token token(int i) {
+        long pos = positions[i];
+        if (lengths[i] == 0)
+            return new Token(tokenClass(i), Position.line(pos), Position.column(pos));
+        return new Token(tokenClass(i), data(i), Position.line(pos), Position.column(pos));
+    }
+
+}
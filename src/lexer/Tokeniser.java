@@ -1,9 +1,11 @@
 package lexer;
 
 import lexer.Token.TokenClass;
+import util.Position;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author cdubach
@@ -12,9 +14,28 @@ public class Tokeniser {
 
     private Scanner scanner;
 
+    // set when this tokeniser is only a view over an already lexed file
+    private TokenStream stream;
+    private int streamIndex = 0;
+
+    // set when this tokeniser hands out the tokens lexed by another thread
+    private TokenPipe pipe;
+
     private int error = 0;
+    private boolean reportErrors = true;
+    private List<String> errorMessages; // where errors are reported instead of printed, when not null
+    private TokenStream lexing; // the stream tokenise() is building, which keeps the errors rather than printing them
+
+    // start offset, position and data (as a range of the scanner's text) of the token last recognised by scan()
+    int tokenStart;
+    int line;
+    int column;
+    int dataStart;
+    int dataEnd;
 
     public int getErrorCount() {
+        if (stream != null)
+            return stream.getErrorCount();
         return this.error;
     }
 
@@ -22,273 +43,392 @@ public class Tokeniser {
         this.scanner = scanner;
     }
 
+    /*
+     * Serves the tokens of a whole-file TokenStream through the nextToken() pull API.
+     */
+    public Tokeniser(TokenStream stream) {
+        this.stream = stream;
+    }
+
+    /*
+     * Serves the tokens of a started TokenPipe through the nextToken() pull API, reporting its lexing errors as the
+     * tokens are handed out.
+     */
+    public Tokeniser(TokenPipe pipe) {
+        this.pipe = pipe;
+    }
+
+    /*
+     * Lexes without printing errors, for tokenisers whose output may be thrown away. Errors are still counted.
+     */
+    public Tokeniser(Scanner scanner, boolean reportErrors) {
+        this.scanner = scanner;
+        this.reportErrors = reportErrors;
+    }
+
+    /*
+     * Lexes adding the error messages to the given list rather than printing them.
+     */
+    public Tokeniser(Scanner scanner, List<String> errorMessages) {
+        this.scanner = scanner;
+        this.errorMessages = errorMessages;
+    }
+
     private void error(char c, int line, int col) {
-        System.out.println("Lexing error: unrecognised character (" + c + ") at " + line + ":" + col);
+        if (lexing != null)
+            lexing.addError(errorMessage(c, line, col));
+        else if (errorMessages != null)
+            errorMessages.add(errorMessage(c, line, col));
+        else if (reportErrors)
+            System.out.println(errorMessage(c, line, col));
         error++;
     }
 
+    static String errorMessage(char c, int line, int col) {
+        return "Lexing error: unrecognised character (" + c + ") at " + line + ":" + col;
+    }
+
+
+    /*
+     * Returns the keyword or type spelled by the characters between start and end, or null if it is a plain identifier.
+     * Dispatches on length and first character so that at most one keyword is compared, without building a String.
+     */
+    private TokenClass keyword(int start, int end) {
+        switch (end - start) {
+            case 2:
+                if (matches(start, "if"))
+                    return TokenClass.IF;
+                break;
+            case 3:
+                if (matches(start, "int"))
+                    return TokenClass.INT;
+                break;
+            case 4:
+                switch (scanner.charAt(start)) {
+                    case 'v': return matches(start, "void") ? TokenClass.VOID : null;
+                    case 'c': return matches(start, "char") ? TokenClass.CHAR : null;
+                    case 'e': return matches(start, "else") ? TokenClass.ELSE : null;
+                }
+                break;
+            case 5:
+                if (matches(start, "while"))
+                    return TokenClass.WHILE;
+                break;
+            case 6:
+                switch (scanner.charAt(start)) {
+                    case 'r': return matches(start, "return") ? TokenClass.RETURN : null;
+                    case 's':
+                        // struct and sizeof share their first character
+                        if (scanner.charAt(start + 1) == 't')
+                            return matches(start, "struct") ? TokenClass.STRUCT : null;
+                        return matches(start, "sizeof") ? TokenClass.SIZEOF : null;
+                }
+                break;
+        }
+        return null;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isDigit(c) || Character.isLetter(c) || c == '_';
+    }
+
+    private boolean matches(int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (scanner.charAt(start + i) != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
 
     public Token nextToken() {
-        Token result;
+        if (stream != null) {
+            String error = stream.error(streamIndex);
+            if (error != null && reportErrors)
+                System.out.println(error);
+            Token t = stream.token(streamIndex);
+            // the stream ends with EOF, which is handed out again if asked for more
+            if (streamIndex < stream.size() - 1)
+                streamIndex++;
+            return t;
+        }
+
+        if (pipe != null) {
+            Token t = pipe.next();
+            if (t.tokenClass == TokenClass.INVALID)
+                error(pipe.charAt(pipe.lastStart()), t.getLine(), t.getColumn());
+            return t;
+        }
+
+        return token(scan());
+    }
+
+    /*
+     * Stops the lexing thread of a TokenPipe, once no more tokens are needed. Does nothing for the other tokenisers.
+     */
+    public void close() {
+        if (pipe != null)
+            pipe.close();
+    }
+
+    // materialises the token last recognised by scan()
+    Token token(TokenClass tokenClass) {
+        if (dataStart == dataEnd)
+            return new Token(tokenClass, line, column);
+        return new Token(tokenClass, scanner.slice(dataStart, dataEnd), line, column);
+    }
+
+    /*
+     * Lexes the whole file at once into a packed TokenStream, whose token data refers back to the scanner's text. The
+     * errors are kept in the stream, for its consumer to report (see TokenStream.error).
+     */
+    public TokenStream tokenise() {
+        // a rough guess at the number of tokens, the stream grows if needed
+        TokenStream result = new TokenStream(scanner, scanner.length() / 4 + 16);
+        lexing = result;
+        TokenClass tokenClass;
+        do {
+            tokenClass = scan();
+            result.add(tokenClass, dataStart, dataEnd - dataStart, Position.pack(line, column));
+        } while (tokenClass != TokenClass.EOF);
+        lexing = null;
+        return result;
+    }
+
+    /*
+     * Recognises the next token, whose start, position and data are then found in tokenStart, line, column, dataStart
+     * and dataEnd.
+     */
+    TokenClass scan() {
         try {
-            result = next();
+            return next();
         } catch (EOFException eof) {
             // end of file, nothing to worry about, just return EOF token
-            return new Token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
+            tokenStart = scanner.getOffset();
+            line = scanner.getLine();
+            column = scanner.getColumn();
+            setData(0, 0);
+            return TokenClass.EOF;
         } catch (IOException ioe) {
             ioe.printStackTrace();
             // something went horribly wrong, abort
             System.exit(-1);
             return null;
         }
-        return result;
+    }
+
+    private void setData(int start, int end) {
+        dataStart = start;
+        dataEnd = end;
+    }
+
+    /*
+     * Skips any run of white spaces, single line comments and multiline comments in one loop over the buffer, so that
+     * the amount of trivia between two tokens does not cost stack depth. A multiline comment that is never closed is
+     * left in place, for next() to report.
+     */
+    private void skipTrivia() {
+        int i = scanner.getOffset();
+        int length = scanner.length();
+        while (i < length) {
+            char c = scanner.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && i + 1 < length && scanner.charAt(i + 1) == '/') {
+                // single line comment, the end of line itself is left to the white space case
+                i += 2;
+                while (i < length && scanner.charAt(i) != '\n' && scanner.charAt(i) != '\r')
+                    i++;
+            } else if (c == '/' && i + 1 < length && scanner.charAt(i + 1) == '*') {
+                // multiline comment, the closing "*/" cannot reuse the '*' of the opening "/*"
+                int end = -1;
+                for (int j = i + 2; j + 1 < length; j++) {
+                    if (scanner.charAt(j) == '*' && scanner.charAt(j + 1) == '/') {
+                        end = j + 2;
+                        break;
+                    }
+                }
+                if (end == -1)
+                    break;
+                i = end;
+            } else {
+                break;
+            }
+        }
+        scanner.advanceTo(i);
     }
 
     /*
      * To be completed
      */
-    private Token next() throws IOException {
+    private TokenClass next() throws IOException {
 
-        int line = scanner.getLine();
-        int column = scanner.getColumn();
+        skipTrivia();
+
+        tokenStart = scanner.getOffset();
+        line = scanner.getLine();
+        column = scanner.getColumn();
+        setData(0, 0);
 
         // get the next character
         char c = scanner.next();
 
-        // skip white spaces
-        if (Character.isWhitespace(c))
-            return next();
-
-
         // IDENTIFIERS TYPES AND KEYWORDS
         if (Character.isLetter(c) || c == '_') {
-            StringBuilder sb = new StringBuilder(Character.toString(c));
-
-            while (Character.isDigit(scanner.peek()) || Character.isLetter(scanner.peek()) || scanner.peek() == '_') {
-                sb.append(scanner.next());
+            int start = scanner.getOffset() - 1;
+            int end = start + 1;
+            while (end < scanner.length() && isIdentifierPart(scanner.charAt(end))) {
+                end++;
             }
+            scanner.advanceTo(end);
 
-            // TYPES
-            if (sb.toString().equals("int"))
-                return new Token(TokenClass.INT, line, column);
-
-            if (sb.toString().equals("void"))
-                return new Token(TokenClass.VOID, line, column);
-
-            if (sb.toString().equals("char"))
-                return new Token(TokenClass.CHAR, line, column);
-
-            // KEYWORDS
-            if (sb.toString().equals("if"))
-                return new Token(TokenClass.IF, line, column);
-
-            if (sb.toString().equals("else"))
-                return new Token(TokenClass.ELSE, line, column);
-
-            if (sb.toString().equals("while"))
-                return new Token(TokenClass.WHILE, line, column);
-
-            if (sb.toString().equals("return"))
-                return new Token(TokenClass.RETURN, line, column);
+            // TYPES AND KEYWORDS
+            TokenClass keyword = keyword(start, end);
+            if (keyword != null)
+                return keyword;
 
-            if (sb.toString().equals("struct"))
-                return new Token(TokenClass.STRUCT, line, column);
-
-            if (sb.toString().equals("sizeof"))
-                return new Token(TokenClass.SIZEOF, line, column);
-
-            return new Token(TokenClass.IDENTIFIER, sb.toString(), line, column);
+            // only real identifiers need their text
+            setData(start, end);
+            return TokenClass.IDENTIFIER;
         }
 
         // #INCLUDE
         if (c == '#') {
-            StringBuilder sb = new StringBuilder(Character.toString(c));
+            int start = scanner.getOffset() - 1;
             while (Character.isDigit(scanner.peek()) || Character.isLetter(scanner.peek()) || scanner.peek() == '_') {
-                sb.append(scanner.next());
+                scanner.next();
             }
-            if (sb.toString().equals("#include"))
-                return new Token(TokenClass.INCLUDE, line, column);
+            if (scanner.getOffset() - start == 8 && matches(start, "#include"))
+                return TokenClass.INCLUDE;
         }
 
 
         // COMMENTS AND DIV
         if (c == '/') {
-            // single line comment
-            if (scanner.peek() == '/') {
-                // check for end of line
-                while (scanner.peek() != '\n' && scanner.peek() != '\r') {
-                    scanner.next();
-                }
-                return next();
-            }
-
-            // multiline comment
+            // skipTrivia() consumes every comment that is closed, so a comment starting here runs into the end of file
             if (scanner.peek() == '*') {
-                // jump over the '/'
-                scanner.next();
-                // check for end of file before end of comment
-                if (scanner.peek() == '\uFFFF') {
-                    error(c, line, column);
-                    return new Token(TokenClass.INVALID, line, column);
-                }
-
-                // jump over the '*'
-                char c1 = scanner.next();
-                while (c1 != '*' || scanner.peek() != '/'){
-                    // check for end of file before end of comment
-                    if (scanner.peek() == '\uFFFF') {
-                        error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
-                    }
-                    c1 = scanner.next();
-                }
-                scanner.next();
-                return next();
+                error(c, line, column);
+                scanner.advanceTo(scanner.length());
+                return TokenClass.INVALID;
             }
             // not a comment, therefore div operator
-            return new Token(TokenClass.DIV, line, column);
+            return TokenClass.DIV;
         }
 
         // LITERALS
         // recognises STRING_LITERAL
         if (c == '"') {
-            StringBuilder sb = new StringBuilder();
+            // the data is the literal's text as written, escape sequences included
+            int start = scanner.getOffset();
             while (scanner.peek() != '"') {
                 // check for end of line or file
-                if (scanner.peek() == '\n' || scanner.peek() == '\r' || scanner.peek() == '\uFFFF') {
+                if (scanner.peek() == '\n' || scanner.peek() == '\r' || scanner.peek() == Scanner.EOF) {
                     error(c, line, column);
-                    return new Token(TokenClass.INVALID, line, column);
+                    return TokenClass.INVALID;
                 }
                 char c1 = scanner.next();
                 // check for escape characters
                 if (c1 == '\\') {
                     switch (scanner.peek()) {
                         case 't':
-                            sb.append(c1);
-                            break;
                         case 'b':
-                            sb.append(c1);
-                            break;
                         case 'n':
-                            sb.append(c1);
-                            break;
                         case 'r':
-                            sb.append(c1);
-                            break;
                         case 'f':
-                            sb.append(c1);
-                            break;
                         case '\'':
-                            sb.append(c1);
+                        case '0':
                             break;
                         case '"':
-                            sb.append(c1);
-                            sb.append('"');
-                            scanner.next();
-                            break;
                         case '\\':
-                            sb.append(c1);
-                            sb.append("\\");
+                            // consumed here so it is neither taken as the closing quote nor as another escape
                             scanner.next();
                             break;
-                        case '0':
-                            sb.append(c1);
-                            break;
                         default:
                             error(c, line, column);
-                            return new Token(TokenClass.INVALID, line, column);
+                            return TokenClass.INVALID;
                     }
-                } else {
-                    sb.append(c1);
                 }
             }
+            setData(start, scanner.getOffset());
             scanner.next();
-            return new Token(TokenClass.STRING_LITERAL, sb.toString(), line, column);
+            return TokenClass.STRING_LITERAL;
         }
 
         // recognises INT_LITERAL
         if (Character.isDigit(c)) {
-            StringBuilder sb = new StringBuilder(Character.toString(c));
+            int start = scanner.getOffset() - 1;
             while (Character.isDigit(scanner.peek())) {
-                sb.append(scanner.next());
+                scanner.next();
             }
-            return new Token(TokenClass.INT_LITERAL, sb.toString(), line, column);
+            setData(start, scanner.getOffset());
+            return TokenClass.INT_LITERAL;
         }
 
         // recognises CHAR_LITERAL
         if (c == '\'') {
-            StringBuilder sb = new StringBuilder();
+            int start = scanner.getOffset();
             // check for end of line or end of file or empty char
-            if (scanner.peek() == '\n' || scanner.peek() == '\r' || scanner.peek() == '\uFFFF' || scanner.peek() == '\'') {
+            if (scanner.peek() == '\n' || scanner.peek() == '\r' || scanner.peek() == Scanner.EOF || scanner.peek() == '\'') {
                 error(c, line, column);
-                return new Token(TokenClass.INVALID, line, column);
+                return TokenClass.INVALID;
             }
             char c1 = scanner.next();
-            sb.append(c1);
             if (c1 == '\\') {
                 switch (scanner.peek()) {
                     case 't':
-                        break;
                     case 'b':
-                        break;
                     case 'n':
-                        break;
                     case 'r':
-                        break;
                     case 'f':
-                        break;
                     case '\'':
-                        break;
                     case '"':
-                        break;
                     case '\\':
-                        break;
                     case '0':
                         break;
                     default:
                         error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
+                        return TokenClass.INVALID;
                 }
-                sb.append(scanner.next());
+                scanner.next();
             }
             if (scanner.peek() == '\'') {
+                setData(start, scanner.getOffset());
                 scanner.next();
-                return new Token(TokenClass.CHAR_LITERAL, sb.toString(), line, column);
+                return TokenClass.CHAR_LITERAL;
             }
         }
 
 
         // DELIMITERS
         if (c == '{')
-            return new Token(TokenClass.LBRA, line, column);
+            return TokenClass.LBRA;
 
         if (c == '}')
-            return new Token(TokenClass.RBRA, line, column);
+            return TokenClass.RBRA;
 
         if (c == '(')
-            return new Token(TokenClass.LPAR, line, column);
+            return TokenClass.LPAR;
 
         if (c == ')')
-            return new Token(TokenClass.RPAR, line, column);
+            return TokenClass.RPAR;
 
         if (c == '[')
-            return new Token(TokenClass.LSBR, line, column);
+            return TokenClass.LSBR;
 
         if (c == ']')
-            return new Token(TokenClass.RSBR, line, column);
+            return TokenClass.RSBR;
 
         if (c == ';')
-            return new Token(TokenClass.SC, line, column);
+            return TokenClass.SC;
 
         if (c == ',')
-            return new Token(TokenClass.COMMA, line, column);
+            return TokenClass.COMMA;
 
         // LOGICAL OPERATORS
         // recognises the and operator
         if (c == '&') {
             if (scanner.peek() == '&') {
                 scanner.next();
-                return new Token(TokenClass.AND, line, column);
+                return TokenClass.AND;
             }
         }
 
@@ -296,7 +436,7 @@ public class Tokeniser {
         if (c == '|') {
             if (scanner.peek() == '|') {
                 scanner.next();
-                return new Token(TokenClass.OR, line, column);
+                return TokenClass.OR;
             }
         }
 
@@ -306,9 +446,9 @@ public class Tokeniser {
         if (c == '=') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.EQ, line, column);
+                return TokenClass.EQ;
             } else {
-                return new Token(TokenClass.ASSIGN, line, column);
+                return TokenClass.ASSIGN;
             }
         }
 
@@ -316,7 +456,7 @@ public class Tokeniser {
         if (c == '!') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.NE, line, column);
+                return TokenClass.NE;
             }
         }
 
@@ -324,9 +464,9 @@ public class Tokeniser {
         if (c == '<') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.LE, line, column);
+                return TokenClass.LE;
             } else {
-                return new Token(TokenClass.LT, line, column);
+                return TokenClass.LT;
             }
         }
 
@@ -334,37 +474,37 @@ public class Tokeniser {
         if (c == '>') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.GE, line, column);
+                return TokenClass.GE;
             } else {
-                return new Token(TokenClass.GT, line, column);
+                return TokenClass.GT;
             }
         }
 
 
         // OPERATORS
         if (c == '+')
-            return new Token(TokenClass.PLUS, line, column);
+            return TokenClass.PLUS;
 
         if (c == '-')
-            return new Token(TokenClass.MINUS, line, column);
+            return TokenClass.MINUS;
 
         if (c == '*')
-            return new Token(TokenClass.ASTERIX, line, column);
+            return TokenClass.ASTERIX;
 
         // div operator in comments
 
         if (c == '%')
-            return new Token(TokenClass.REM, line, column);
+            return TokenClass.REM;
 
 
         // struct member access
         if (c == '.')
-            return new Token(TokenClass.DOT, line, column);
+            return TokenClass.DOT;
 
 
         // if we reach this point, it means we did not recognise a valid token
         error(c, line, column);
-        return new Token(TokenClass.INVALID, line, column);
+        return TokenClass.INVALID;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+package parser;
+
+import ast.ASTCopier;
+import ast.ASTReader;
+import ast.ASTWriter;
+import ast.Program;
+import lexer.Scanner;
+import lexer.Tokeniser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The headers named by #include, each lexed and parsed once and then reused by every file including it, in this
+ * compilation and in the following ones given the same cache (see Parser.setHeaderCache).
+ *
+ * A header is keyed by its canonical path. It is read again only when its modification time or size changed, and
+ * parsed again only when its content hash changed too. Given a directory, the cache also keeps each parsed header
+ * there in the encoding of ASTWriter, so that a later run finds it already parsed if its content hash is unchanged.
+ *
+ * Only headers written in Mini-C can be used, see Parser.setBuiltInHeaders for those standing for what the compiler
+ * provides. For a header that cannot be read, or that does not lex or parse without
+ * errors, load() gives the reasons, which the parser reports as an error of the program including it. The errors of a
+ * header are kept along with its content hash, so that it is not parsed again while it has not changed.
+ */
+public class HeaderCache {
+
+    /*
+     * One parsed header. Its declarations are never handed out as they are, but copied, as the later passes modify the
+     * trees they are given.
+     */
+    static final class Header {
+        final File file;
+        final Program declarations; // the header's own, not those of the headers it includes
+        final List<File> includes;  // looked up again each time, as they may have changed since
+
+        long modified;
+        long size;
+        final byte[] hash;
+
+        Header(File file, Program declarations, List<File> includes, long modified, long size, byte[] hash) {
+            this.file = file;
+            this.declarations = declarations;
+            this.includes = includes;
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        // a fresh copy of the declarations, numbered by the ids of the program they are added to
+        Program copy(AtomicInteger ids) {
+            return (Program) declarations.accept(new ASTCopier(ids));
+        }
+    }
+
+    // a header known not to lex or parse, with the errors it had
+    private static final class Unusable {
+        final byte[] hash;
+        final List<String> errors;
+
+        Unusable(byte[] hash, List<String> errors) {
+            this.hash = hash;
+            this.errors = errors;
+        }
+    }
+
+    private final Map<String, Header> headers = new HashMap<>();
+    private final Map<String, Unusable> unusable = new HashMap<>();
+
+    private final File directory; // where parsed headers are kept between runs, null for none
+
+    private int parsed = 0;
+
+    public HeaderCache(File directory) {
+        this.directory = directory;
+    }
+
+    // number of headers lexed and parsed so far, the others came from the cache
+    public synchronized int getParseCount() {
+        return parsed;
+    }
+
+    /*
+     * The header at the given path, or null if it cannot be used, in which case why is added to errors: the header's
+     * own lexing and parsing errors, or what kept it from being read.
+     */
+    synchronized Header load(File file, List<String> errors) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            errors.add(e.toString());
+            return null;
+        }
+        if (!file.isFile()) {
+            errors.add("No such file");
+            return null;
+        }
+        long modified = file.lastModified();
+        long size = file.length();
+
+        Header header = headers.get(key);
+        if (header != null && header.modified == modified && header.size == size)
+            return header;
+
+        byte[] hash;
+        try {
+            hash = hash(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            errors.add(e.toString());
+            return null;
+        }
+        if (header != null && Arrays.equals(header.hash, hash)) {
+            // touched but not changed
+            header.modified = modified;
+            header.size = size;
+            return header;
+        }
+        Unusable known = unusable.get(key);
+        if (known != null && Arrays.equals(known.hash, hash)) {
+            errors.addAll(known.errors);
+            return null;
+        }
+
+        header = read(key, file, modified, size, hash);
+        if (header == null) {
+            List<String> headerErrors = new ArrayList<>();
+            header = parse(file, modified, size, hash, headerErrors);
+            if (header == null) {
+                headers.remove(key);
+                unusable.put(key, new Unusable(hash, Collections.unmodifiableList(headerErrors)));
+                errors.addAll(headerErrors);
+                return null;
+            }
+            write(key, header);
+        }
+        headers.put(key, header);
+        unusable.remove(key);
+        return header;
+    }
+
+    private Header parse(File file, long modified, long size, byte[] hash, List<String> errors) {
+        Scanner scanner;
+        try {
+            scanner = new Scanner(file);
+        } catch (IOException e) {
+            errors.add(e.toString());
+            return null;
+        }
+        parsed++;
+        Tokeniser tokeniser = new Tokeniser(scanner, errors);
+        Parser parser = new Parser(tokeniser);
+        parser.setHeaderCache(this, file.getAbsoluteFile().getParentFile());
+        Program declarations = parser.parseHeader();
+        if (tokeniser.getErrorCount() > 0 || parser.getErrorCount() > 0) {
+            errors.addAll(parser.getHeaderErrors());
+            return null;
+        }
+        return new Header(file, declarations, Collections.unmodifiableList(new ArrayList<>(parser.getIncludes())),
+                modified, size, hash);
+    }
+
+    /*
+     * A cache file holds the content hash of the header, the paths of the headers it includes and then its
+     * declarations.
+     */
+    private File cacheFile(String key) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash(key.getBytes(StandardCharsets.UTF_8)))
+            name.append(String.format("%02x", b));
+        return new File(directory, name.append(".ast").toString());
+    }
+
+    // the header kept in the cache directory, null if there is none for this content
+    private Header read(String key, File file, long modified, long size, byte[] hash) {
+        if (directory == null)
+            return null;
+        File cached = cacheFile(key);
+        if (!cached.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(cached))) {
+            byte[] cachedHash = new byte[hash.length];
+            in.readFully(cachedHash);
+            if (!Arrays.equals(cachedHash, hash))
+                return null;
+            int count = in.readInt();
+            if (count < 0)
+                return null;
+            List<File> includes = new ArrayList<>(Math.min(count, 16));
+            for (int i = 0; i < count; i++)
+                includes.add(new File(in.readUTF()));
+            Program declarations = new ASTReader(in).read();
+            return new Header(file, declarations, Collections.unmodifiableList(includes), modified, size, hash);
+        } catch (IOException e) {
+            return null; // parsed again, and written over
+        }
+    }
+
+    // best effort: a header that cannot be written is parsed again by the next run
+    private void write(String key, Header header) {
+        if (directory == null)
+            return;
+        File cached = cacheFile(key);
+        try {
+            directory.mkdirs();
+            // written next to the cache file and moved over it, so that a run reading it never sees half of it
+            File temp = File.createTempFile("header", ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+                out.write(header.hash);
+                out.writeInt(header.includes.size());
+                for (File include : header.includes)
+                    out.writeUTF(include.getPath());
+                new ASTWriter(out).write(header.declarations);
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // left to the next run
+        }
+    }
+
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
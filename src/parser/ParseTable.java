@@ -0,0 +1,290 @@
+package parser;
+
+import lexer.Token.TokenClass;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tables for the table-driven parser (see Parser.setTableDriven), built from an LL(k) form of grammar/ebnf.txt.
+ *
+ * ebnf.txt itself cannot be used as is: its exp rule is left recursive and ambiguous. The rules below are the grammar
+ * the hand-written parser actually implements, written out in the same notation, with:
+ *   lowercase      a nonterminal
+ *   UPPERCASE      a token class, matched like Parser.expect
+ *   $UPPERCASE     the same, the token is kept on the value stack (null if it was missing)
+ *   @NAME          a semantic action, see Action
+ *   ?NAME          first item only: the alternative is taken when the k > 1 lookahead check NAME holds, see Guard
+ *   &UPPERCASE     first item only: the alternative is taken on that token, without consuming it
+ *   %lowercase     a nonterminal that is also a point of error recovery (see Parser.setErrorRecovery): on a syntax
+ *                  error within it, the tokens up to a synchronisation token are skipped and it is parsed as null
+ * Alternatives are tried in order, and the last one is taken when none of the others applies, just as the final else
+ * of the hand-written parser. An alternative that is not guarded is selected by its FIRST set.
+ * test/parser/GrammarTest checks that every sentence of these rules is one of ebnf.txt.
+ */
+final class ParseTable {
+
+    enum Action {
+        PROGRAM, INCLUDE, LIST, ADD, NULL,
+        STRUCT_DECL, VAR_DECL, ARRAY_DECL, ARRAY_SIZE, FUN_DECL, PARAM,
+        STRUCT_TYPE, INT_TYPE, CHAR_TYPE, VOID_TYPE, POINTER,
+        BLOCK, WHILE, IF, RETURN, EXPR_STMT, ASSIGN,
+        BINARY, SIZE_OF, VALUE_AT, TYPECAST, NEGATE, ARRAY_ACCESS, FIELD_ACCESS,
+        FUN_CALL, VAR, INT_LITERAL, STR_LITERAL, CHR_LITERAL
+    }
+
+    enum Guard {
+        STRUCT_DECL, // "struct" IDENT "{"
+        NORMAL_DECL, // type IDENT ";"
+        ARRAY_DECL,  // type IDENT "["
+        FUN_DECL,    // type IDENT "("
+        TYPECAST,    // "(" type
+        FUN_CALL     // IDENT "("
+    }
+
+    private static final String[] GRAMMAR = {
+        "program        ::= includes structdecls vardecls fundecls EOF @PROGRAM",
+
+        "includes       ::= INCLUDE $STRING_LITERAL @INCLUDE includes | ",
+
+        "structdecls    ::= @LIST structdeclitems",
+        "structdeclitems::= ?STRUCT_DECL %structdecl @ADD structdeclitems | ",
+        "structdecl     ::= structtype LBRA @LIST firstfield @ADD vardeclitems RBRA SC @STRUCT_DECL",
+        "firstfield     ::= ?NORMAL_DECL vardeclnormal | vardeclarray",
+
+        "vardecls       ::= @LIST vardeclitems",
+        "vardeclitems   ::= ?NORMAL_DECL %vardeclnormal @ADD vardeclitems | ?ARRAY_DECL %vardeclarray @ADD vardeclitems | ",
+        "vardeclnormal  ::= type $IDENTIFIER SC @VAR_DECL",
+        "vardeclarray   ::= type $IDENTIFIER LSBR $INT_LITERAL @ARRAY_SIZE RSBR SC @ARRAY_DECL",
+
+        "fundecls       ::= @LIST fundeclitems",
+        "fundeclitems   ::= ?FUN_DECL %fundecl @ADD fundeclitems | ",
+        "fundecl        ::= type $IDENTIFIER LPAR params RPAR block @FUN_DECL",
+        "params         ::= &RPAR @LIST | @LIST paramitems",
+        "paramitems     ::= type $IDENTIFIER @PARAM @ADD paramtail",
+        "paramtail      ::= COMMA paramitems | ",
+
+        "type           ::= structtype pointer | INT @INT_TYPE pointer | CHAR @CHAR_TYPE pointer | VOID @VOID_TYPE pointer",
+        "pointer        ::= ASTERIX @POINTER | ",
+        "structtype     ::= STRUCT $IDENTIFIER @STRUCT_TYPE",
+
+        "block          ::= LBRA vardecls stmts RBRA @BLOCK",
+        "stmts          ::= @LIST stmtitems",
+        "stmtitems      ::= &RBRA | %stmt @ADD stmtitems",
+        "stmt           ::= block"
+                      + " | WHILE LPAR exp RPAR stmt @WHILE"
+                      + " | IF LPAR exp RPAR stmt else @IF"
+                      + " | RETURN return SC @RETURN"
+                      + " | exp stmtrest",
+        "else           ::= ELSE stmt | @NULL",
+        "return         ::= &SC @NULL | exp",
+        "stmtrest       ::= SC @EXPR_STMT | ASSIGN exp SC @ASSIGN",
+
+        // binary operators, one rule per precedence level, all right associative
+        "exp            ::= or",
+        "or             ::= and orrest",
+        "orrest         ::= $OR or @BINARY | ",
+        "and            ::= eq andrest",
+        "andrest        ::= $AND and @BINARY | ",
+        "eq             ::= rel eqrest",
+        "eqrest         ::= $EQ eq @BINARY | $NE eq @BINARY | ",
+        "rel            ::= add relrest",
+        "relrest        ::= $LT rel @BINARY | $GT rel @BINARY | $LE rel @BINARY | $GE rel @BINARY | ",
+        "add            ::= mul addrest",
+        "addrest        ::= $PLUS add @BINARY | $MINUS add @BINARY | ",
+        "mul            ::= unary mulrest",
+        "mulrest        ::= $ASTERIX mul @BINARY | $DIV mul @BINARY | $REM mul @BINARY | ",
+
+        "unary          ::= SIZEOF LPAR type RPAR @SIZE_OF"
+                      + " | ASTERIX unary @VALUE_AT"
+                      + " | ?TYPECAST LPAR type RPAR unary @TYPECAST"
+                      + " | MINUS unary @NEGATE"
+                      + " | primary postfix",
+        "postfix        ::= LSBR exp RSBR @ARRAY_ACCESS | DOT $IDENTIFIER @FIELD_ACCESS | ",
+        "primary        ::= ?FUN_CALL $IDENTIFIER LPAR @LIST args RPAR @FUN_CALL"
+                      + " | LPAR exp RPAR"
+                      + " | $IDENTIFIER @VAR"
+                      + " | $INT_LITERAL @INT_LITERAL"
+                      + " | $STRING_LITERAL @STR_LITERAL"
+                      + " | $CHAR_LITERAL @CHR_LITERAL",
+        "args           ::= &RPAR | exp @ADD argitems",
+        "argitems       ::= COMMA exp @ADD argitems | ",
+    };
+
+    /*
+     * Symbols are ints: a token class ordinal for a terminal, KEEP + ordinal for a kept terminal, NONTERMINAL + index
+     * for a nonterminal, plus RECOVER for a point of error recovery, and ACTION + ordinal for an action.
+     */
+    static final int KEEP = 64;
+    static final int NONTERMINAL = 128;
+    static final int RECOVER = 512;
+    static final int ACTION = 1024;
+
+    static final int START = NONTERMINAL; // program, the first rule
+
+    private static final TokenClass[] CLASSES = TokenClass.values();
+    private static final Action[] ACTIONS = Action.values();
+
+    // right hand side of each production, to be pushed in reverse
+    static final int[][] PRODUCTIONS;
+
+    // production to use for each nonterminal and current token class when no guard applies
+    static final int[][] PREDICT;
+
+    // (guard ordinal, production) pairs of each nonterminal, tried in order before PREDICT
+    static final int[][] GUARDED;
+
+    static {
+        assert CLASSES.length <= KEEP;
+        assert GRAMMAR.length <= RECOVER - NONTERMINAL;
+
+        Map<String, Integer> nonterminals = new HashMap<>();
+        for (String rule : GRAMMAR)
+            nonterminals.put(rule.substring(0, rule.indexOf("::=")).trim(), NONTERMINAL + nonterminals.size());
+        int count = nonterminals.size();
+
+        List<int[]> productions = new ArrayList<>();
+        List<List<Integer>> alternatives = new ArrayList<>(); // production indices of each nonterminal
+        List<Integer> lookahead = new ArrayList<>();         // &TOKEN of each production, or -1
+        List<Integer> guards = new ArrayList<>();            // ?GUARD of each production, or -1
+        for (String rule : GRAMMAR) {
+            List<Integer> alts = new ArrayList<>();
+            for (String alt : rule.substring(rule.indexOf("::=") + 3).split("\\|", -1)) {
+                List<Integer> rhs = new ArrayList<>();
+                int token = -1;
+                int guard = -1;
+                for (String item : alt.trim().split("\\s+")) {
+                    if (item.isEmpty())
+                        continue;
+                    char c = item.charAt(0);
+                    if (c == '&' && rhs.isEmpty())
+                        token = TokenClass.valueOf(item.substring(1)).ordinal();
+                    else if (c == '?' && rhs.isEmpty())
+                        guard = Guard.valueOf(item.substring(1)).ordinal();
+                    else if (c == '@')
+                        rhs.add(ACTION + Action.valueOf(item.substring(1)).ordinal());
+                    else if (c == '$')
+                        rhs.add(KEEP + TokenClass.valueOf(item.substring(1)).ordinal());
+                    else if (Character.isUpperCase(c))
+                        rhs.add(TokenClass.valueOf(item).ordinal());
+                    else if (c == '%' && nonterminals.containsKey(item.substring(1)))
+                        rhs.add(nonterminals.get(item.substring(1)) + RECOVER);
+                    else if (nonterminals.containsKey(item))
+                        rhs.add(nonterminals.get(item));
+                    else
+                        throw new IllegalStateException("Undefined nonterminal " + item + " in " + rule);
+                }
+                alts.add(productions.size());
+                productions.add(rhs.stream().mapToInt(Integer::intValue).toArray());
+                lookahead.add(token);
+                guards.add(guard);
+            }
+            alternatives.add(alts);
+        }
+        PRODUCTIONS = productions.toArray(new int[0][]);
+
+        // FIRST set and nullability of each nonterminal, iterated to a fixed point
+        long[] first = new long[count];
+        boolean[] nullable = new boolean[count];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int n = 0; n < count; n++) {
+                for (int p : alternatives.get(n)) {
+                    long set = lookahead.get(p) >= 0 ? 1L << lookahead.get(p) : first(PRODUCTIONS[p], first, nullable);
+                    boolean empty = nullable(PRODUCTIONS[p], nullable);
+                    if ((first[n] | set) != first[n] || (empty && !nullable[n])) {
+                        first[n] |= set;
+                        nullable[n] |= empty;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        PREDICT = new int[count][CLASSES.length];
+        GUARDED = new int[count][];
+        for (int n = 0; n < count; n++) {
+            List<Integer> alts = alternatives.get(n);
+            int last = alts.get(alts.size() - 1);
+            Arrays.fill(PREDICT[n], last);
+            List<Integer> guarded = new ArrayList<>();
+            for (int p : alts) {
+                if (guards.get(p) >= 0) {
+                    guarded.add(guards.get(p));
+                    guarded.add(p);
+                }
+            }
+            GUARDED[n] = guarded.stream().mapToInt(Integer::intValue).toArray();
+            // in reverse, so that an earlier alternative wins where FIRST sets overlap
+            for (int i = alts.size() - 2; i >= 0; i--) {
+                int p = alts.get(i);
+                if (guards.get(p) >= 0)
+                    continue;
+                long set = lookahead.get(p) >= 0 ? 1L << lookahead.get(p) : first(PRODUCTIONS[p], first, nullable);
+                for (TokenClass c : CLASSES)
+                    if ((set & (1L << c.ordinal())) != 0)
+                        PREDICT[n][c.ordinal()] = p;
+            }
+        }
+    }
+
+    private ParseTable() {}
+
+    private static long first(int[] rhs, long[] first, boolean[] nullable) {
+        long set = 0;
+        for (int s : rhs) {
+            if (s >= ACTION)
+                continue;
+            if (s >= NONTERMINAL) {
+                set |= first[nonterminal(s)];
+                if (!nullable[nonterminal(s)])
+                    return set;
+            } else {
+                return set | 1L << (s & (KEEP - 1));
+            }
+        }
+        return set;
+    }
+
+    private static boolean nullable(int[] rhs, boolean[] nullable) {
+        for (int s : rhs) {
+            if (s >= ACTION)
+                continue;
+            if (s < NONTERMINAL || !nullable[nonterminal(s)])
+                return false;
+        }
+        return true;
+    }
+
+    static boolean isTerminal(int symbol) {
+        return symbol < NONTERMINAL;
+    }
+
+    static boolean isNonterminal(int symbol) {
+        return symbol >= NONTERMINAL && symbol < ACTION;
+    }
+
+    static int nonterminal(int symbol) {
+        return (symbol & (RECOVER - 1)) - NONTERMINAL;
+    }
+
+    static boolean isRecoveryPoint(int symbol) {
+        return isNonterminal(symbol) && (symbol & RECOVER) != 0;
+    }
+
+    static TokenClass terminal(int symbol) {
+        return CLASSES[symbol & (KEEP - 1)];
+    }
+
+    static boolean isKept(int symbol) {
+        return symbol >= KEEP;
+    }
+
+    static Action action(int symbol) {
+        return ACTIONS[symbol - ACTION];
+    }
+}
@@ -3,13 +3,23 @@ package parser;
 import ast.*;
 
 import lexer.Token;
+import lexer.TokenStream;
 import lexer.Tokeniser;
 import lexer.Token.TokenClass;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 
 /**
@@ -20,47 +30,438 @@ public class Parser {
     private Token token;
 
     // use for backtracking (useful for distinguishing decls from procs when parsing a program for instance)
-    private Queue<Token> buffer = new LinkedList<>();
+    // circular window over the tokens following the current one, the grammar never needs to look more than 4 ahead
+    private static final int WINDOW = 8; // must be a power of two
+    private final Token[] buffer = new Token[WINDOW];
+    private int bufferStart = 0; // slot of the token right after the current one
+    private int bufferSize = 0;
 
     private final Tokeniser tokeniser;
 
+    // when parsing a whole-file token stream, lookahead is a plain index into it
+    private final TokenStream stream;
+    private int streamIndex = 0; // index of the token following the current one
+    // the lexing errors of the tokens before reached have been reported, those from reachEnd on are left to another
+    // parser, see reach()
+    private int reached = 0;
+    private int reachEnd = Integer.MAX_VALUE;
+
+    // parse binary expressions by operator precedence rather than through one method per precedence level
+    private boolean precedenceClimbing = true;
+
+    // when parsing a token stream, skip function bodies and only parse them once they are asked for
+    private boolean lazyBodies = false;
+    private final List<DeferredBody> lazyBodiesLeft = new ArrayList<>(); // until parseLazyBodies()
+
+    // when set, function bodies are skipped as above and then parsed on this pool before parse() returns
+    private ForkJoinPool bodyPool;
+    private final List<DeferredBody> deferredBodies = new ArrayList<>();
+
+    // parse with ParseTable and an explicit stack rather than with the recursive methods
+    private boolean tableDriven = false;
+
+    // when not null, messages are collected here rather than printed, so that they can be put in source order
+    private List<Message> messages;
+
+    // skip to a synchronisation token after a syntax error and go on with the next statement or declaration
+    private boolean errorRecovery = false;
+
+    // give up once this many errors have been reported, 0 for no limit
+    private int maxErrors = 0;
+
+    // where included headers are looked up, in the order of the #include lines, when headerCache is set
+    private HeaderCache headerCache;
+    private File includeDirectory;
+    private final List<File> includes = new ArrayList<>();
+    private Set<String> builtInHeaders = Collections.emptySet();
+
+    // where function bodies are moved to once parsed, when not null
+    private ASTArena arena;
+
+    // numbers the declarations (see Program.ids), a deferred body numbers its own from a range reserved for it
+    private AtomicInteger ids = new AtomicInteger();
+
 
     public Parser(Tokeniser tokeniser) {
         this.tokeniser = tokeniser;
+        this.stream = null;
     }
 
+    public Parser(TokenStream stream) {
+        this.tokeniser = null;
+        this.stream = stream;
+    }
+
+    /*
+     * Selects how binary expressions are parsed: by the binding power table (the default), or by the original chain of
+     * one method per precedence level. Both build the same trees.
+     */
+    public void setPrecedenceClimbing(boolean precedenceClimbing) {
+        this.precedenceClimbing = precedenceClimbing;
+    }
+
+    /*
+     * When parsing a TokenStream, function bodies are skipped by matching braces and only parsed the first time
+     * FunDecl.getBlock() is called. Errors in a deferred body are reported at that point, and added to this parser's
+     * error count, so getErrorCount() after parse() only covers the bodies asked for so far: call parseLazyBodies()
+     * for the count over the whole program. Has no effect when parsing from a Tokeniser, whose tokens cannot be read
+     * again.
+     */
+    public void setLazyBodies(boolean lazyBodies) {
+        this.lazyBodies = lazyBodies;
+    }
+
+    /*
+     * When parsing a TokenStream, function bodies are skipped as with setLazyBodies, then all parsed on the given pool
+     * once the rest of the program has been. Error messages are printed in source order after that, so they are the
+     * same from one run to the next. Null turns it off.
+     */
+    public void setParallelBodies(ForkJoinPool pool) {
+        this.bodyPool = pool;
+    }
+
+    /*
+     * Selects the table-driven parser (see ParseTable), which needs no Java recursion however deeply the program is
+     * nested. It builds the same trees and reports the same errors as the recursive parser. Function bodies are always
+     * parsed eagerly in this mode.
+     */
+    public void setTableDriven(boolean tableDriven) {
+        this.tableDriven = tableDriven;
+    }
+
+    /*
+     * When on, a syntax error in a statement or declaration no longer derails the rest of the parse: the tokens are
+     * skipped up to the end of the statement (SC), of the enclosing block (RBRA) or the start of a declaration (a type
+     * keyword), and parsing goes on from there. The item in error is left out of the tree. An error outside of any
+     * statement or declaration still ends the parse.
+     */
+    public void setErrorRecovery(boolean errorRecovery) {
+        this.errorRecovery = errorRecovery;
+    }
+
+    /*
+     * Stops parsing once the given number of errors has been reported, 0 (the default) for no limit. With parallel
+     * bodies the first maxErrors errors in source order are kept, and bodies are no longer parsed once that many errors
+     * have been found (see parseDeferredBodies). With lazy bodies each body has a limit of its own.
+     */
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /*
+     * Resolves #include "file" relative to the given directory, and adds the declarations of each header found to the
+     * program, ahead of its own, as if it had been written there. A header included more than once is added once.
+     * Headers are parsed through the given cache. A header that cannot be found, read or parsed is a syntax error of
+     * the program, reported with the header's own errors once the program has been parsed. Without a cache (the
+     * default), includes are ignored.
+     */
+    public void setHeaderCache(HeaderCache headerCache, File includeDirectory) {
+        this.headerCache = headerCache;
+        this.includeDirectory = includeDirectory;
+    }
+
+    /*
+     * Names of the headers that declare what the compiler provides itself: including a file of one of these names,
+     * from the program or from a header, adds nothing, the file is not even looked for. Any other header that is not
+     * Mini-C is an error. None by default.
+     */
+    public void setBuiltInHeaders(Set<String> builtInHeaders) {
+        this.builtInHeaders = builtInHeaders;
+    }
+
+    /*
+     * Moves the body of each function into the given arena as soon as it has been parsed, so that the program is not
+     * held as objects all at once. Bodies left to be parsed lazily stay where they are. Null (the default) turns it off.
+     */
+    public void setArena(ASTArena arena) {
+        this.arena = arena;
+    }
+
+    /*
+     * Parses the program, then closes the tokeniser it was pulled from (see Tokeniser.close), as parsing may stop before
+     * EOF.
+     */
     public Program parse() {
+        try {
+            return parseTokens();
+        } finally {
+            if (tokeniser != null)
+                tokeniser.close();
+        }
+    }
+
+    private Program parseTokens() {
         // get the first token
         nextToken();
 
-        return parseProgram();
+        Program program;
+        if (tableDriven) {
+            program = parseWithTable();
+        } else if (bodyPool == null || stream == null) {
+            program = parseProgram();
+        } else {
+            messages = new ArrayList<>();
+            program = parseProgram();
+            parseDeferredBodies();
+            if (arena != null)
+                for (FunDecl fd : program.funDecls)
+                    arena.add(fd);
+        }
+        if (tooManyErrors())
+            System.out.println("Parsing: too many errors, stopped after " + error);
+        addHeaders(program);
+        return program;
+    }
+
+    /*
+     * Parses an included header: errors are counted and kept for getHeaderErrors() rather than printed, parsing stops
+     * at the first one, and the headers it includes itself are left in getIncludes() rather than added.
+     */
+    Program parseHeader() {
+        messages = new ArrayList<>();
+        errorRecovery = true;
+        maxErrors = 1;
+        nextToken();
+        Program program = parseProgram();
+        printFailures(messages);
+        return program;
+    }
+
+    // the errors parseHeader() found
+    List<String> getHeaderErrors() {
+        List<String> errors = new ArrayList<>();
+        for (Message m : messages)
+            errors.add(m.text);
+        return errors;
+    }
+
+    // the files named by the #include lines
+    List<File> getIncludes() {
+        return includes;
+    }
+
+    private void include(String name) {
+        if (headerCache == null)
+            return;
+        File file = new File(name);
+        if (!file.isAbsolute())
+            file = new File(includeDirectory, name);
+        includes.add(file);
+    }
+
+    private void addHeaders(Program program) {
+        if (includes.isEmpty())
+            return;
+        Set<HeaderCache.Header> added = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<File> unusable = new HashSet<>();
+        Program declarations = new Program(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), ids);
+        for (File file : includes)
+            addHeader(file, added, unusable, declarations);
+        program.structTypeDecls.addAll(0, declarations.structTypeDecls);
+        program.varDecls.addAll(0, declarations.varDecls);
+        program.funDecls.addAll(0, declarations.funDecls);
+    }
+
+    // the headers a header includes come first, an include cycle is cut where it closes
+    private void addHeader(File file, Set<HeaderCache.Header> added, Set<File> unusable, Program declarations) {
+        if (builtInHeaders.contains(file.getName()))
+            return;
+        List<String> headerErrors = new ArrayList<>();
+        HeaderCache.Header header = headerCache.load(file, headerErrors);
+        if (header == null) {
+            // reported once however many times it is included
+            if (unusable.add(file)) {
+                report("Parsing error: cannot include " + file.getPath());
+                for (String e : headerErrors)
+                    report("    " + e);
+                error++;
+            }
+            return;
+        }
+        if (!added.add(header))
+            return;
+        for (File include : header.includes)
+            addHeader(include, added, unusable, declarations);
+        Program copy = header.copy(ids);
+        declarations.structTypeDecls.addAll(copy.structTypeDecls);
+        declarations.varDecls.addAll(copy.varDecls);
+        declarations.funDecls.addAll(copy.funDecls);
     }
 
     public int getErrorCount() {
         return error;
     }
 
+    /*
+     * Parses the lazy bodies (see setLazyBodies) that have not been asked for yet, reporting their errors, and returns
+     * the error count of the whole program.
+     */
+    public int parseLazyBodies() {
+        for (DeferredBody body : lazyBodiesLeft)
+            body.get();
+        lazyBodiesLeft.clear();
+        return error;
+    }
+
     private int error = 0;
     private Token lastErrorToken;
 
-    private void error(TokenClass... expected) {
+    private void error(TokenClass expected) {
 
-        if (lastErrorToken == token) {
-            // skip this error, same token causing trouble
-            return;
+        // a second error on the same token causing trouble is not reported, but still needs recovering from
+        if (lastErrorToken != token) {
+            report("Parsing error: expected (" + expected + ") found (" + token + ") at " + token.getPosition());
+
+            error++;
+            lastErrorToken = token;
+            if (tooManyErrors())
+                throw ABORT;
         }
+        if (errorRecovery)
+            throw SYNTAX_ERROR;
+    }
 
-        StringBuilder sb = new StringBuilder();
-        String sep = "";
-        for (TokenClass e : expected) {
-            sb.append(sep);
-            sb.append(e);
-            sep = "|";
+    private boolean tooManyErrors() {
+        return maxErrors > 0 && error >= maxErrors;
+    }
+
+    /*
+     * Unwinds to the innermost statement or declaration being parsed, see parseItem. Preallocated and without a stack
+     * trace, as it is thrown for every syntax error.
+     */
+    @SuppressWarnings("serial")
+    private static class SyntaxError extends RuntimeException {
+        SyntaxError() {
+            super(null, null, false, false);
         }
-        System.out.println("Parsing error: expected (" + sb + ") found (" + token + ") at " + token.position);
+    }
 
-        error++;
-        lastErrorToken = token;
+    private static final SyntaxError SYNTAX_ERROR = new SyntaxError();
+
+    // unwinds out of the whole parse once maxErrors is reached
+    @SuppressWarnings("serial")
+    private static class Abort extends RuntimeException {
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Abort ABORT = new Abort();
+
+    // what parseItem is given, made once rather than at every item, as a method reference bound to this parser is a
+    // new object each time it is evaluated
+    private final Supplier<StructTypeDecl> structDeclItem = this::parseStructDecl;
+    private final Supplier<VarDecl> varDeclNormalItem = this::parseVarDeclNormal;
+    private final Supplier<VarDecl> varDeclArrayItem = this::parseVarDeclArray;
+    private final Supplier<FunDecl> funDeclItem = this::parseFunDecl;
+    private final Supplier<Stmt> stmtItem = this::parseStmt;
+
+    /*
+     * Parses one statement or declaration of a list. On a syntax error, skips to a synchronisation token and returns
+     * null, for the caller to leave it out. The error is passed on to the enclosing item if no token could be skipped.
+     */
+    private <T> T parseItem(Supplier<T> item) {
+        if (!errorRecovery)
+            return item.get();
+        Token start = token;
+        try {
+            return item.get();
+        } catch (SyntaxError e) {
+            if (!synchronise(start))
+                throw e;
+            return null;
+        }
+    }
+
+    /*
+     * Panic mode: skips tokens up to and including a SC, up to but excluding a RBRA closing the enclosing block, or up to
+     * a type keyword starting a declaration, whichever comes first. Nested blocks are skipped whole. Returns false when
+     * nothing can be skipped because the item starting at start is stuck on a RBRA or EOF, which only an enclosing item
+     * can get past.
+     */
+    private boolean synchronise(Token start) {
+        int depth = 0;
+        TokenClass previous = null;
+        while (true) {
+            TokenClass tokenClass = token.tokenClass;
+            if (tokenClass == TokenClass.EOF || (depth == 0 && tokenClass == TokenClass.RBRA))
+                break;
+            if (depth == 0 && token != start && previous != TokenClass.LPAR && accept(TokenSets.FIRST_TYPE))
+                break;
+            nextToken();
+            if (tokenClass == TokenClass.LBRA) {
+                depth++;
+            } else if (tokenClass == TokenClass.RBRA) {
+                if (--depth == 0)
+                    return true;
+            } else if (tokenClass == TokenClass.SC && depth == 0) {
+                return true;
+            }
+            previous = tokenClass;
+        }
+        return token != start;
+    }
+
+    private static class Message {
+        final int index; // of the token at fault in the stream
+        final String text;
+        final boolean lexical; // a lexing error, not counted by maxErrors
+        final NullPointerException failure; // its stack trace is printed once the messages have been
+
+        Message(int index, String text, boolean lexical) {
+            this(index, text, lexical, null);
+        }
+
+        Message(int index, String text, boolean lexical, NullPointerException failure) {
+            this.index = index;
+            this.text = text;
+            this.lexical = lexical;
+            this.failure = failure;
+        }
+    }
+
+    private void report(String text) {
+        if (messages != null)
+            messages.add(new Message(streamIndex - 1, text, false));
+        else
+            System.out.println(text);
+    }
+
+    // a token that was expected but missing, see parseProgram
+    private void reportFailure(NullPointerException e) {
+        if (messages != null) {
+            messages.add(new Message(streamIndex - 1, "Null pointer exception", false, e));
+        } else {
+            System.out.println("Null pointer exception");
+            e.printStackTrace();
+        }
+    }
+
+    // prints the stack traces of the failures among the collected messages
+    private static void printFailures(List<Message> messages) {
+        for (Message m : messages)
+            if (m.failure != null)
+                m.failure.printStackTrace();
+    }
+
+    /*
+     * Reports the lexing errors of the stream up to its i^th token the first time the parser looks that far, which is
+     * when a Tokeniser would have lexed and reported them: in source order, they go with the current token.
+     */
+    private void reach(int i) {
+        reach(i, streamIndex - 1);
+    }
+
+    private void reach(int i, int current) {
+        for (; reached <= i && reached < reachEnd; reached++) {
+            String error = stream.error(reached);
+            if (error == null)
+                continue;
+            if (messages != null)
+                messages.add(new Message(current, error, true));
+            else
+                System.out.println(error);
+        }
     }
 
     /*
@@ -68,30 +469,51 @@ public class Parser {
      * i should be >= 1
      */
     private Token lookAhead(int i) {
-        // ensures the buffer has the element we want to look ahead
-        while (buffer.size() < i)
-            buffer.add(tokeniser.nextToken());
-        assert buffer.size() >= i;
+        if (stream != null) {
+            reach(streamPosition(i));
+            return stream.token(streamPosition(i));
+        }
 
-        int cnt = 1;
-        for (Token t : buffer) {
-            if (cnt == i)
-                return t;
-            cnt++;
+        assert i >= 1 && i <= WINDOW;
+        // ensures the buffer has the element we want to look ahead
+        while (bufferSize < i) {
+            buffer[(bufferStart + bufferSize) & (WINDOW - 1)] = tokeniser.nextToken();
+            bufferSize++;
         }
+        return buffer[(bufferStart + i - 1) & (WINDOW - 1)];
+    }
 
-        assert false; // should never reach this
-        return null;
+
+    /*
+     * Class of the i^th element from the stream of token, without materialising it when parsing a token stream.
+     */
+    private TokenClass lookAheadClass(int i) {
+        if (stream != null) {
+            reach(streamPosition(i));
+            return stream.tokenClass(streamPosition(i));
+        }
+        return lookAhead(i).tokenClass;
     }
 
+    // the stream ends with EOF, looking past it keeps returning EOF
+    private int streamPosition(int i) {
+        return Math.min(streamIndex + i - 1, stream.size() - 1);
+    }
 
     /*
      * Consumes the next token from the tokeniser or the buffer if not empty.
      */
     private void nextToken() {
-        if (!buffer.isEmpty())
-            token = buffer.remove();
-        else
+        if (stream != null) {
+            reach(streamPosition(1));
+            token = stream.token(streamPosition(1));
+            streamIndex++;
+        } else if (bufferSize > 0) {
+            token = buffer[bufferStart];
+            buffer[bufferStart] = null;
+            bufferStart = (bufferStart + 1) & (WINDOW - 1);
+            bufferSize--;
+        } else
             token = tokeniser.nextToken();
     }
 
@@ -99,13 +521,11 @@ public class Parser {
      * If the current token is equals to the expected one, then skip it, otherwise report an error.
      * Returns the expected token or null if an error occurred.
      */
-    private Token expect(TokenClass... expected) {
-        for (TokenClass e : expected) {
-            if (e == token.tokenClass) {
-                Token cur = token;
-                nextToken();
-                return cur;
-            }
+    private Token expect(TokenClass expected) {
+        if (expected == token.tokenClass) {
+            Token cur = token;
+            nextToken();
+            return cur;
         }
 
         error(expected);
@@ -113,13 +533,17 @@ public class Parser {
     }
 
     /*
-     * Returns true if the current token is equals to any of the expected ones.
+     * Returns true if the current token is equals to the expected one.
+     */
+    private boolean accept(TokenClass expected) {
+        return expected == token.tokenClass;
+    }
+
+    /*
+     * Returns true if the current token is in the given set (see TokenSets).
      */
-    private boolean accept(TokenClass... expected) {
-        boolean result = false;
-        for (TokenClass e : expected)
-            result |= (e == token.tokenClass);
-        return result;
+    private boolean accept(long expected) {
+        return TokenSets.contains(expected, token.tokenClass);
     }
 
 
@@ -130,31 +554,31 @@ public class Parser {
             List<VarDecl> vds = parseVarDecls();
             List<FunDecl> fds = parseFunDecls();
             expect(TokenClass.EOF);
-            return new Program(stds, vds, fds);
+            return new Program(stds, vds, fds, ids);
         } catch (NullPointerException e){
-            System.out.println("Null pointer exception");
-            e.printStackTrace();
+            reportFailure(e);
+        } catch (SyntaxError | Abort e) {
+            // outside of any statement or declaration there is nothing to recover to
         }
-        return new Program(new ArrayList<>(),new ArrayList<>(),new ArrayList<>());
+        return new Program(new ArrayList<>(),new ArrayList<>(),new ArrayList<>(),ids);
     }
 
-    // includes are ignored, so does not need to return an AST node
+    // the declarations of included headers are added once the program has been parsed, see setHeaderCache
     private void parseIncludes() {
-        if (accept(TokenClass.INCLUDE)) {
+        while (accept(TokenClass.INCLUDE)) {
             nextToken();
-            expect(TokenClass.STRING_LITERAL);
-            parseIncludes();
+            Token name = expect(TokenClass.STRING_LITERAL);
+            if (name != null)
+                include(name.data);
         }
     }
 
+    // the lists of declarations, parameters and statements are parsed in loops, as a program can have any number of
+    // each and the stack would not hold one frame per item
     private List<StructTypeDecl> parseStructDecls() {
         List<StructTypeDecl> structTypeDecls = new ArrayList<>();
-        if (accept(TokenClass.STRUCT)) {
-            if (lookAhead(2).tokenClass == TokenClass.LBRA) {
-                structTypeDecls.add(parseStructDecl());
-                structTypeDecls.addAll(parseStructDecls());
-            }
-        }
+        while (accept(TokenClass.STRUCT) && lookAheadClass(2) == TokenClass.LBRA)
+            addItem(structTypeDecls, parseItem(structDeclItem));
         return structTypeDecls;
     }
 
@@ -175,22 +599,28 @@ public class Parser {
 
     private List<VarDecl> parseVarDecls() {
         List<VarDecl> varDecls = new ArrayList<>();
-        if (classAfterTypeIdent() == TokenClass.SC) {
-            varDecls.add(parseVarDeclNormal());
-            varDecls.addAll(parseVarDecls());
-        }
-        else if (classAfterTypeIdent() == TokenClass.LSBR) {
-            varDecls.add(parseVarDeclArray());
-            varDecls.addAll(parseVarDecls());
+        while (true) {
+            TokenClass next = classAfterTypeIdent();
+            if (next == TokenClass.SC)
+                addItem(varDecls, parseItem(varDeclNormalItem));
+            else if (next == TokenClass.LSBR)
+                addItem(varDecls, parseItem(varDeclArrayItem));
+            else
+                return varDecls;
         }
-        return varDecls;
+    }
+
+    // adds an item returned by parseItem, unless it was skipped
+    private static <T> void addItem(List<T> list, T item) {
+        if (item != null)
+            list.add(item);
     }
 
     private VarDecl parseVarDeclNormal(){
         Type t = parseType();
         Token varName = expect(TokenClass.IDENTIFIER);
         expect(TokenClass.SC);
-        return new VarDecl(t,varName.data);
+        return new VarDecl(t,varName.data,ids.getAndIncrement());
     }
 
     private VarDecl parseVarDeclArray(){
@@ -201,15 +631,13 @@ public class Parser {
         int elements = Integer.parseInt(n.data);
         expect(TokenClass.RSBR);
         expect(TokenClass.SC);
-        return new VarDecl(new ArrayType(t,elements),varName.data);
+        return new VarDecl(TypeFactory.array(t,elements),varName.data,ids.getAndIncrement());
     }
 
     private List<FunDecl> parseFunDecls() {
         List<FunDecl> funDecls = new ArrayList<>();
-        if(classAfterTypeIdent() == TokenClass.LPAR) {
-            funDecls.add(parseFunDecl());
-            funDecls.addAll(parseFunDecls());
-        }
+        while (classAfterTypeIdent() == TokenClass.LPAR)
+            addItem(funDecls, parseItem(funDeclItem));
         return funDecls;
     }
 
@@ -222,8 +650,173 @@ public class Parser {
             params = parseParams();
         }
         expect(TokenClass.RPAR);
+        if ((lazyBodies || bodyPool != null) && stream != null && accept(TokenClass.LBRA)) {
+            int open = streamIndex - 1;
+            int close = matchingBrace(open);
+            if (close >= 0) {
+                // the lexing errors of the body are reported by its own parser, those after it are found once the
+                // body has been left
+                DeferredBody body = new DeferredBody(open, close, reached);
+                reached = Math.max(reached, close + 1);
+                streamIndex = close + 1;
+                reach(close + 1, close + 1);
+                nextToken();
+                if (bodyPool != null)
+                    deferredBodies.add(body);
+                else
+                    lazyBodiesLeft.add(body);
+                return new FunDecl(t,funName.data, params, body, ids.getAndIncrement());
+            }
+            // unbalanced, parse it now so that the errors come out in order
+        }
         Block block = parseBlock();
-        return new FunDecl(t,funName.data, params, block);
+        FunDecl fd = new FunDecl(t,funName.data, params, block, ids.getAndIncrement());
+        if (arena != null)
+            arena.add(fd);
+        return fd;
+    }
+
+    // index in the stream of the RBRA closing the LBRA at open, or -1 if there is none
+    private int matchingBrace(int open) {
+        int depth = 0;
+        for (int i = open; i < stream.size(); i++) {
+            TokenClass tokenClass = stream.tokenClass(i);
+            if (tokenClass == TokenClass.LBRA) {
+                depth++;
+            } else if (tokenClass == TokenClass.RBRA) {
+                depth--;
+                if (depth == 0)
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * A function body skipped by parseFunDecl, from the LBRA at open to the RBRA at close. Its declarations are numbered
+     * from a range of ids reserved when it is skipped, one for every three tokens as a declaration takes at least
+     * that many, so that they get the same ids however the bodies are scheduled and whichever is parsed first.
+     */
+    private class DeferredBody implements Supplier<Block> {
+        final int open;
+        final int close;
+        final int reached; // of the parser that skipped it
+        final int firstId;
+        Block block;
+        int errors;
+        List<Message> messages;
+        boolean parsed = false;
+
+        DeferredBody(int open, int close, int reached) {
+            this.open = open;
+            this.close = close;
+            this.reached = reached;
+            this.firstId = ids.getAndAdd((close - open) / 3 + 1);
+        }
+
+        // messages are collected into the given list, or printed if it is null
+        void parse(List<Message> messages) {
+            Parser body = new Parser(stream);
+            body.precedenceClimbing = precedenceClimbing;
+            body.errorRecovery = errorRecovery;
+            body.maxErrors = maxErrors;
+            body.messages = messages;
+            body.streamIndex = open;
+            body.reached = reached;
+            body.reachEnd = close + 1;
+            body.ids = new AtomicInteger(firstId);
+            body.nextToken();
+            try {
+                block = body.parseBlock();
+            } catch (NullPointerException e) {
+                // same as in parseProgram
+                body.reportFailure(e);
+                block = new Block();
+            } catch (SyntaxError | Abort e) {
+                block = new Block();
+            }
+            errors = body.error;
+            this.messages = messages;
+            parsed = true;
+        }
+
+        // left empty, as it comes after the errors a sequential parse would have stopped at
+        void skip() {
+            block = new Block();
+            messages = Collections.emptyList();
+            parsed = true;
+        }
+
+        public Block get() {
+            if (!parsed) {
+                parse(null);
+                error += errors;
+            }
+            return block;
+        }
+    }
+
+    /*
+     * Parses the deferred bodies on the pool, then prints the messages of the program and of its bodies in source
+     * order. The errors found so far, wherever they are, make up one budget: once maxErrors have been found, the bodies
+     * that have not started are not parsed on the pool. Those of them that still come before the maxErrors-th error in
+     * source order are parsed afterwards, in order, the others are left empty.
+     */
+    private void parseDeferredBodies() {
+        AtomicInteger budget = new AtomicInteger(error);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (DeferredBody body : deferredBodies) {
+            tasks.add(bodyPool.submit(() -> {
+                if (maxErrors > 0 && budget.get() >= maxErrors)
+                    return;
+                body.parse(new ArrayList<>());
+                budget.addAndGet(body.errors);
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+
+        Comparator<Message> bySource = Comparator.comparingInt(m -> m.index); // stable, keeps the order on one token
+        List<Message> own = messages;
+        own.sort(bySource);
+        messages = new ArrayList<>();
+        int next = 0;
+        int before = 0; // errors ahead of the body, of the program and of the bodies before it
+        for (DeferredBody body : deferredBodies) {
+            for (; next < own.size() && own.get(next).index < body.open; next++)
+                if (!own.get(next).lexical)
+                    before++;
+            if (!body.parsed) {
+                if (maxErrors > 0 && before >= maxErrors) {
+                    body.skip();
+                    continue;
+                }
+                body.parse(new ArrayList<>());
+            }
+            for (Message m : body.messages)
+                if (!m.lexical)
+                    before++;
+            messages.addAll(body.messages);
+            error += body.errors;
+        }
+        deferredBodies.clear();
+        messages.addAll(own);
+        messages.sort(bySource);
+        if (tooManyErrors()) {
+            // the errors a sequential parse would have stopped at
+            int kept = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                if (!messages.get(i).lexical && ++kept == maxErrors) {
+                    messages.subList(i + 1, messages.size()).clear();
+                    break;
+                }
+            }
+            error = maxErrors;
+        }
+        for (Message m : messages)
+            System.out.println(m.text);
+        printFailures(messages);
+        messages = null;
     }
 
 
@@ -244,7 +837,7 @@ public class Parser {
         }
         if (accept(TokenClass.ASTERIX)) {
             nextToken();
-            return new PointerType(t);
+            return TypeFactory.pointer(t);
         }
         return t;
     }
@@ -252,19 +845,19 @@ public class Parser {
     private StructType parseStruct() {
         nextToken();
         Token n = expect(TokenClass.IDENTIFIER);
-        return new StructType(n.data);
+        return TypeFactory.struct(n.data);
     }
 
     private List<VarDecl> parseParams(){
         List<VarDecl> params = new ArrayList<>();
-        Type t = parseType();
-        Token paramName = expect(TokenClass.IDENTIFIER);
-        params.add(new VarDecl(t,paramName.data));
-        if (accept(TokenClass.COMMA)){
+        while (true) {
+            Type t = parseType();
+            Token paramName = expect(TokenClass.IDENTIFIER);
+            params.add(new VarDecl(t,paramName.data,ids.getAndIncrement()));
+            if (!accept(TokenClass.COMMA))
+                return params;
             nextToken();
-            params.addAll(parseParams());
         }
-        return params;
     }
 
 
@@ -278,10 +871,8 @@ public class Parser {
 
     private List<Stmt> parseStmtList(){
         List<Stmt> stmts = new ArrayList<>();
-        if(!accept(TokenClass.RBRA)){
-            stmts.add(parseStmt());
-            stmts.addAll(parseStmtList());
-        }
+        while (!accept(TokenClass.RBRA))
+            addItem(stmts, parseItem(stmtItem));
         return stmts;
     }
 
@@ -338,10 +929,62 @@ public class Parser {
     }
 
     private Expr parseExp(){
+        if (precedenceClimbing)
+            return parseBinary(1);
+        return parseOr();
+    }
+
+    /*
+     * Binding power of each binary operator, indexed by TokenClass ordinal (0 for tokens that are not one), and the
+     * operator it builds.
+     */
+    private static final int[] BINDING_POWER = new int[TokenClass.values().length];
+    private static final Op[] BINARY_OP = new Op[TokenClass.values().length];
+
+    private static void binary(TokenClass tokenClass, int power, Op op) {
+        BINDING_POWER[tokenClass.ordinal()] = power;
+        BINARY_OP[tokenClass.ordinal()] = op;
+    }
+
+    static {
+        binary(TokenClass.OR, 1, Op.OR);
+        binary(TokenClass.AND, 2, Op.AND);
+        binary(TokenClass.EQ, 3, Op.EQ);
+        binary(TokenClass.NE, 3, Op.NE);
+        binary(TokenClass.LT, 4, Op.LT);
+        binary(TokenClass.GT, 4, Op.GT);
+        binary(TokenClass.LE, 4, Op.LE);
+        binary(TokenClass.GE, 4, Op.GE);
+        binary(TokenClass.PLUS, 5, Op.ADD);
+        binary(TokenClass.MINUS, 5, Op.SUB);
+        binary(TokenClass.ASTERIX, 6, Op.MUL);
+        binary(TokenClass.DIV, 6, Op.DIV);
+        binary(TokenClass.REM, 6, Op.MOD);
+    }
+
+    /*
+     * Parses a binary expression whose operators bind at least as tightly as minPower.
+     * The right operand is parsed at the operator's own power, so operators of one level associate to the right,
+     * exactly like the recursive parseOr ... parseMulDivRem chain.
+     */
+    private Expr parseBinary(int minPower){
+        Expr lhs = parsePUTS();
+        int power = BINDING_POWER[token.tokenClass.ordinal()];
+        while (power != 0 && power >= minPower) {
+            Op op = BINARY_OP[token.tokenClass.ordinal()];
+            nextToken();
+            Expr rhs = parseBinary(power);
+            lhs = new BinOp(lhs,op,rhs);
+            power = BINDING_POWER[token.tokenClass.ordinal()];
+        }
+        return lhs;
+    }
+
+    private Expr parseOr(){
         Expr lhs = parseAnd();
         if (accept(TokenClass.OR)) {
             nextToken();
-            Expr rhs = parseExp();
+            Expr rhs = parseOr();
             return new BinOp(lhs,Op.OR,rhs);
         }
         return lhs;
@@ -359,7 +1002,7 @@ public class Parser {
 
     private Expr parseEqNeq(){
         Expr lhs = parseLtGtLeGe();
-        if (accept(TokenClass.EQ, TokenClass.NE)) {
+        if (accept(TokenSets.EQ_OPS)) {
             Op op;
             if (accept(TokenClass.EQ))
                 op = Op.EQ;
@@ -374,7 +1017,7 @@ public class Parser {
 
     private Expr parseLtGtLeGe(){
         Expr lhs = parseAddSub();
-        if (accept(TokenClass.LT, TokenClass.GT, TokenClass.LE, TokenClass.GE)) {
+        if (accept(TokenSets.REL_OPS)) {
             Op op;
             if (accept(TokenClass.LT))
                 op = Op.LT;
@@ -393,7 +1036,7 @@ public class Parser {
 
     private Expr parseAddSub(){
         Expr lhs = parseMulDivRem();
-        if (accept(TokenClass.PLUS, TokenClass.MINUS)) {
+        if (accept(TokenSets.ADD_OPS)) {
             Op op;
             if (accept(TokenClass.PLUS))
                 op = Op.ADD;
@@ -408,7 +1051,7 @@ public class Parser {
 
     private Expr parseMulDivRem(){
         Expr lhs = parsePUTS();
-        if (accept(TokenClass.ASTERIX, TokenClass.DIV, TokenClass.REM)) {
+        if (accept(TokenSets.MUL_OPS)) {
             Op op;
             if (accept(TokenClass.ASTERIX))
                 op = Op.MUL;
@@ -439,7 +1082,7 @@ public class Parser {
             return new ValueAtExpr(e);
         }
         // TypecastExpr
-        else if (accept(TokenClass.LPAR) && (lookAhead(1).tokenClass == TokenClass.INT || lookAhead(1).tokenClass == TokenClass.CHAR || lookAhead(1).tokenClass == TokenClass.VOID || lookAhead(1).tokenClass == TokenClass.STRUCT)){
+        else if (accept(TokenClass.LPAR) && TokenSets.contains(TokenSets.FIRST_TYPE, lookAheadClass(1))){
             nextToken();
             Type t = parseType();
             expect(TokenClass.RPAR);
@@ -477,7 +1120,7 @@ public class Parser {
 
     private Expr parseRest(){
         // FunCallExpr
-        if (accept(TokenClass.IDENTIFIER) && lookAhead(1).tokenClass == TokenClass.LPAR){
+        if (accept(TokenClass.IDENTIFIER) && lookAheadClass(1) == TokenClass.LPAR){
             Token n = expect(TokenClass.IDENTIFIER);
             String name = n.data;
             expect(TokenClass.LPAR);
@@ -517,23 +1160,28 @@ public class Parser {
         // ChrLiteral
         else {
             Token n = expect(TokenClass.CHAR_LITERAL);
-            char c = n.data.charAt(0);
-            if (n.data.charAt(0) == '\\') {
-                switch (n.data.charAt(1)) {
-                    case 't': c = '\t'; break;
-                    case 'b': c = '\b'; break;
-                    case 'n': c = '\n'; break;
-                    case 'r': c = '\r'; break;
-                    case 'f': c = '\f'; break;
-                    case '\'': c = '\''; break;
-                    case '"': c = '\"'; break;
-                    case '\\': c = '\\'; break;
-                    case '0': c = '\0'; break;
-                    default: break;
-                }
+            return new ChrLiteral(charValue(n.data));
+        }
+    }
+
+    // value of a character literal, from the text between its quotes
+    private static char charValue(String data) {
+        char c = data.charAt(0);
+        if (data.charAt(0) == '\\') {
+            switch (data.charAt(1)) {
+                case 't': c = '\t'; break;
+                case 'b': c = '\b'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 'f': c = '\f'; break;
+                case '\'': c = '\''; break;
+                case '"': c = '\"'; break;
+                case '\\': c = '\\'; break;
+                case '0': c = '\0'; break;
+                default: break;
             }
-            return new ChrLiteral(c);
         }
+        return c;
     }
 
 
@@ -541,19 +1189,313 @@ public class Parser {
 
 
     private TokenClass classAfterTypeIdent() {
-        if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID)) {
-            if (lookAhead(1).tokenClass == TokenClass.ASTERIX) {
-                return (lookAhead(3).tokenClass);
-            } else return (lookAhead(2).tokenClass);
+        if (accept(TokenSets.BASE_TYPES)) {
+            if (lookAheadClass(1) == TokenClass.ASTERIX) {
+                return (lookAheadClass(3));
+            } else return (lookAheadClass(2));
         }
         if (accept(TokenClass.STRUCT)){
-            if (lookAhead(2).tokenClass == TokenClass.ASTERIX) {
-                return (lookAhead(4).tokenClass);
-            } else return (lookAhead(3).tokenClass);
+            if (lookAheadClass(2) == TokenClass.ASTERIX) {
+                return (lookAheadClass(4));
+            } else return (lookAheadClass(3));
         }
         return token.tokenClass;
 
     }
 
+    /*
+     * The table-driven parser. Symbols still to be parsed are on an explicit stack, and the trees under construction on
+     * a value stack, so the depth of nesting is only limited by the heap.
+     */
+    private Program parseWithTable() {
+        int[] symbols = new int[64];
+        int top = 0;
+        List<Object> values = new ArrayList<>();
+        symbols[top++] = ParseTable.START;
+
+        // the recovery points being parsed, innermost last: where each was on the symbol and value stacks, and the
+        // token it started at (see parseItem)
+        int[] recoveryTops = new int[16];
+        int[] recoveryValues = new int[16];
+        Token[] recoveryStarts = new Token[16];
+        int recoveries = 0;
+
+        try {
+            while (top > 0) {
+                int symbol = symbols[--top];
+                // the items whose symbols were all above this one are done
+                while (recoveries > 0 && recoveryTops[recoveries - 1] > top)
+                    recoveries--;
+                try {
+                    if (ParseTable.isTerminal(symbol)) {
+                        Token t = expect(ParseTable.terminal(symbol));
+                        if (ParseTable.isKept(symbol))
+                            values.add(t);
+                    } else if (ParseTable.isNonterminal(symbol)) {
+                        if (ParseTable.isRecoveryPoint(symbol)) {
+                            if (recoveries == recoveryTops.length) {
+                                recoveryTops = Arrays.copyOf(recoveryTops, recoveries * 2);
+                                recoveryValues = Arrays.copyOf(recoveryValues, recoveries * 2);
+                                recoveryStarts = Arrays.copyOf(recoveryStarts, recoveries * 2);
+                            }
+                            recoveryTops[recoveries] = top;
+                            recoveryValues[recoveries] = values.size();
+                            recoveryStarts[recoveries] = token;
+                            recoveries++;
+                        }
+                        int[] rhs = ParseTable.PRODUCTIONS[predict(ParseTable.nonterminal(symbol))];
+                        if (top + rhs.length > symbols.length)
+                            symbols = Arrays.copyOf(symbols, Math.max(symbols.length * 2, top + rhs.length));
+                        for (int i = rhs.length - 1; i >= 0; i--)
+                            symbols[top++] = rhs[i];
+                    } else if (ParseTable.action(symbol) == ParseTable.Action.INCLUDE) {
+                        Token name = pop(values);
+                        if (name != null)
+                            include(name.data);
+                    } else {
+                        act(ParseTable.action(symbol), values);
+                        if (arena != null && ParseTable.action(symbol) == ParseTable.Action.FUN_DECL)
+                            arena.add((FunDecl) values.get(values.size() - 1));
+                    }
+                } catch (SyntaxError e) {
+                    // abandon the innermost item the symbol is part of, or the one enclosing it if nothing can be skipped
+                    do {
+                        if (recoveries == 0)
+                            throw e;
+                        recoveries--;
+                        top = recoveryTops[recoveries];
+                        values.subList(recoveryValues[recoveries], values.size()).clear();
+                    } while (!synchronise(recoveryStarts[recoveries]));
+                    recoveryStarts[recoveries] = null;
+                    values.add(null);
+                }
+            }
+            return (Program) values.get(0);
+        } catch (NullPointerException e){
+            reportFailure(e);
+        } catch (SyntaxError | Abort e) {
+            // outside of any statement or declaration there is nothing to recover to
+        }
+        return new Program(new ArrayList<>(),new ArrayList<>(),new ArrayList<>(),ids);
+    }
+
+    private static final ParseTable.Guard[] GUARDS = ParseTable.Guard.values();
+
+    // the production to expand the given nonterminal with
+    private int predict(int nonterminal) {
+        int[] guarded = ParseTable.GUARDED[nonterminal];
+        for (int i = 0; i < guarded.length; i += 2)
+            if (holds(GUARDS[guarded[i]]))
+                return guarded[i + 1];
+        return ParseTable.PREDICT[nonterminal][token.tokenClass.ordinal()];
+    }
+
+    // the decisions that need more than one token of lookahead, same checks as the recursive parser
+    private boolean holds(ParseTable.Guard guard) {
+        switch (guard) {
+            case STRUCT_DECL: return accept(TokenClass.STRUCT) && lookAheadClass(2) == TokenClass.LBRA;
+            case NORMAL_DECL: return classAfterTypeIdent() == TokenClass.SC;
+            case ARRAY_DECL:  return classAfterTypeIdent() == TokenClass.LSBR;
+            case FUN_DECL:    return classAfterTypeIdent() == TokenClass.LPAR;
+            case TYPECAST:    return accept(TokenClass.LPAR) && TokenSets.contains(TokenSets.FIRST_TYPE, lookAheadClass(1));
+            case FUN_CALL:    return accept(TokenClass.IDENTIFIER) && lookAheadClass(1) == TokenClass.LPAR;
+            default:          throw new IllegalStateException(guard.toString());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T pop(List<Object> values) {
+        return (T) values.remove(values.size() - 1);
+    }
+
+    /*
+     * Semantic actions. Each builds a node from the values on top of the stack in the same order as the recursive
+     * parser, so that a missing (null) token fails at the same point.
+     */
+    @SuppressWarnings("unchecked")
+    private void act(ParseTable.Action action, List<Object> values) {
+        switch (action) {
+            case PROGRAM: {
+                List<FunDecl> fds = pop(values);
+                List<VarDecl> vds = pop(values);
+                List<StructTypeDecl> stds = pop(values);
+                values.add(new Program(stds, vds, fds, ids));
+                break;
+            }
+            case LIST:
+                values.add(new ArrayList<>());
+                break;
+            case ADD: {
+                Object item = pop(values);
+                if (item != null) // null for an item skipped by error recovery
+                    ((List<Object>) values.get(values.size() - 1)).add(item);
+                break;
+            }
+            case NULL:
+                values.add(null);
+                break;
+            case STRUCT_DECL: {
+                List<VarDecl> varDecls = pop(values);
+                StructType structType = pop(values);
+                values.add(new StructTypeDecl(structType,varDecls));
+                break;
+            }
+            case VAR_DECL: {
+                Token varName = pop(values);
+                Type t = pop(values);
+                values.add(new VarDecl(t,varName.data,ids.getAndIncrement()));
+                break;
+            }
+            case ARRAY_SIZE: {
+                Token n = pop(values);
+                values.add(Integer.parseInt(n.data));
+                break;
+            }
+            case ARRAY_DECL: {
+                int elements = pop(values);
+                Token varName = pop(values);
+                Type t = pop(values);
+                values.add(new VarDecl(TypeFactory.array(t,elements),varName.data,ids.getAndIncrement()));
+                break;
+            }
+            case FUN_DECL: {
+                Block block = pop(values);
+                List<VarDecl> params = pop(values);
+                Token funName = pop(values);
+                Type t = pop(values);
+                values.add(new FunDecl(t,funName.data, params, block, ids.getAndIncrement()));
+                break;
+            }
+            case PARAM: {
+                Token paramName = pop(values);
+                Type t = pop(values);
+                values.add(new VarDecl(t,paramName.data,ids.getAndIncrement()));
+                break;
+            }
+            case STRUCT_TYPE: {
+                Token n = pop(values);
+                values.add(TypeFactory.struct(n.data));
+                break;
+            }
+            case INT_TYPE:
+                values.add(BaseType.INT);
+                break;
+            case CHAR_TYPE:
+                values.add(BaseType.CHAR);
+                break;
+            case VOID_TYPE:
+                values.add(BaseType.VOID);
+                break;
+            case POINTER: {
+                Type t = pop(values);
+                values.add(TypeFactory.pointer(t));
+                break;
+            }
+            case BLOCK: {
+                List<Stmt> stmts = pop(values);
+                List<VarDecl> params = pop(values);
+                values.add(new Block(params,stmts));
+                break;
+            }
+            case WHILE: {
+                Stmt stmt = pop(values);
+                Expr e = pop(values);
+                values.add(new While(e,stmt));
+                break;
+            }
+            case IF: {
+                Stmt stmt2 = pop(values);
+                Stmt stmt1 = pop(values);
+                Expr e = pop(values);
+                values.add(new If(e,stmt1,stmt2));
+                break;
+            }
+            case RETURN: {
+                Expr e = pop(values);
+                values.add(new Return(e));
+                break;
+            }
+            case EXPR_STMT: {
+                Expr e = pop(values);
+                values.add(new ExprStmt(e));
+                break;
+            }
+            case ASSIGN: {
+                Expr e2 = pop(values);
+                Expr e = pop(values);
+                values.add(new Assign(e,e2));
+                break;
+            }
+            case BINARY: {
+                Expr rhs = pop(values);
+                Token op = pop(values);
+                Expr lhs = pop(values);
+                values.add(new BinOp(lhs,BINARY_OP[op.tokenClass.ordinal()],rhs));
+                break;
+            }
+            case SIZE_OF: {
+                Type t = pop(values);
+                values.add(new SizeOfExpr(t));
+                break;
+            }
+            case VALUE_AT: {
+                Expr e = pop(values);
+                values.add(new ValueAtExpr(e));
+                break;
+            }
+            case TYPECAST: {
+                Expr e = pop(values);
+                Type t = pop(values);
+                values.add(new TypecastExpr(t,e));
+                break;
+            }
+            case NEGATE: {
+                Expr e = pop(values);
+                values.add(new BinOp(new IntLiteral(0),Op.SUB,e));
+                break;
+            }
+            case ARRAY_ACCESS: {
+                Expr index = pop(values);
+                Expr e = pop(values);
+                values.add(new ArrayAccessExpr(e,index));
+                break;
+            }
+            case FIELD_ACCESS: {
+                Token n = pop(values);
+                Expr e = pop(values);
+                values.add(new FieldAccessExpr(e,n.data));
+                break;
+            }
+            case FUN_CALL: {
+                List<Expr> params = pop(values);
+                Token n = pop(values);
+                values.add(new FunCallExpr(n.data,params));
+                break;
+            }
+            case VAR: {
+                Token n = pop(values);
+                values.add(new VarExpr(n.data));
+                break;
+            }
+            case INT_LITERAL: {
+                Token n = pop(values);
+                values.add(new IntLiteral(Integer.parseInt(n.data)));
+                break;
+            }
+            case STR_LITERAL: {
+                Token n = pop(values);
+                values.add(new StrLiteral(n.data));
+                break;
+            }
+            case CHR_LITERAL: {
+                Token n = pop(values);
+                values.add(new ChrLiteral(charValue(n.data)));
+                break;
+            }
+            default:
+                throw new IllegalStateException(action.toString());
+        }
+    }
+
 }
 
@@ -0,0 +1,38 @@
+package parser;
+
+import lexer.Token.TokenClass;
+
+/**
+ * Sets of token classes used by the parser's predicates, taken from grammar/ebnf.txt.
+ * Each set is a 64-bit mask indexed by TokenClass ordinal, so a membership test is a shift and an and,
+ * with nothing allocated per call. test/parser/GrammarTest checks them against ebnf.txt.
+ */
+final class TokenSets {
+
+    static {
+        assert TokenClass.values().length <= Long.SIZE;
+    }
+
+    // type ::= ("int" | "char" | "void" | structtype) ["*"]
+    static final long BASE_TYPES = of(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID);
+    static final long FIRST_TYPE = BASE_TYPES | of(TokenClass.STRUCT);
+
+    // binary operators, one set per precedence level
+    static final long EQ_OPS  = of(TokenClass.EQ, TokenClass.NE);
+    static final long REL_OPS = of(TokenClass.LT, TokenClass.GT, TokenClass.LE, TokenClass.GE);
+    static final long ADD_OPS = of(TokenClass.PLUS, TokenClass.MINUS);
+    static final long MUL_OPS = of(TokenClass.ASTERIX, TokenClass.DIV, TokenClass.REM);
+
+    private TokenSets() {}
+
+    static long of(TokenClass... classes) {
+        long set = 0;
+        for (TokenClass c : classes)
+            set |= 1L << c.ordinal();
+        return set;
+    }
+
+    static boolean contains(long set, TokenClass c) {
+        return (set & (1L << c.ordinal())) != 0;
+    }
+}
@@ -4,9 +4,9 @@ package sem;
 /**
  * 
  * @author dhil
- * A base class providing basic error accumulation.
+ * A base class providing basic error accumulation, for visitors that walk the tree with an ast.ASTWalker.
  */
-public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
+public abstract class BaseSemanticVisitor<T> extends ast.ASTWalker<T> implements SemanticVisitor<T> {
 	private int errors;
 	
 	
@@ -0,0 +1,80 @@
+package sem;
+
+import ast.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Name analysis and type checking interleaved declaration by declaration: as a name has to be declared before it is
+ * used, each declaration can be typed (by this TypeCheckVisitor) as soon as its names have been resolved (by a
+ * NameAnalysisVisitor), rather than once the whole program has been. It is still two passes over each declaration,
+ * every node being visited by both, but the body of a function is checked by both while it is at hand, so a body kept
+ * in an ASTArena is rebuilt once rather than twice.
+ *
+ * The type checker of a declaration only reads what the name analysis of that declaration or of those before it wrote,
+ * and the name analysis does not read what the type checker writes, so each pass sees the tree it would on its own.
+ * The diagnostics are those of the two passes run one after the other: those of the type checker, and whether it gave
+ * up on a null pointer, are held back until the name analysis is done.
+ */
+public class InterleavedSemanticVisitor extends TypeCheckVisitor {
+
+    private final NameAnalysisVisitor names;
+
+    private final List<String> typeErrors = new ArrayList<>();
+    private NullPointerException typesFailed; // the type checker stops at the first null pointer, as on its own
+
+    InterleavedSemanticVisitor(Scope scope) {
+        names = new NameAnalysisVisitor(scope);
+    }
+
+    @Override
+    public int getErrorCount() {
+        return names.getErrorCount() + super.getErrorCount();
+    }
+
+    @Override
+    protected void error(String message) {
+        typeErrors.add(message);
+    }
+
+    @Override
+    public Type visitProgram(Program p) {
+        NameAnalysisVisitor.addBuiltInFun(p);
+        layouts = p.layouts();
+        try {
+            for (StructTypeDecl std : p.structTypeDecls) {
+                std.accept(names);
+                check(std);
+            }
+            for (VarDecl vd : p.varDecls) {
+                vd.accept(names);
+                check(vd);
+            }
+            for (FunDecl fd : p.funDecls) {
+                fd.accept(names);
+                check(fd);
+                fd.releaseBlock();
+            }
+        } finally {
+            for (String message : typeErrors)
+                super.error(message);
+            typeErrors.clear();
+            if (typesFailed != null) {
+                System.out.println("Null pointer exception");
+                typesFailed.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private void check(ASTNode decl) {
+        if (typesFailed != null)
+            return;
+        try {
+            visit(decl);
+        } catch (NullPointerException e) {
+            typesFailed = e;
+        }
+    }
+}
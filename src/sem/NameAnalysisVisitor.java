@@ -4,40 +4,56 @@ import ast.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
     Scope scope;
+
+    // the params of the function whose body is entered next, declared in the body's scope
+    private List<VarDecl> params;
+
 	NameAnalysisVisitor(Scope scope){
 	    this.scope =scope;
     }
 
-    private List<FunDecl> builtInFun = new ArrayList<FunDecl>() {{
-        // void print_s(char* s);
-        add(new FunDecl(BaseType.VOID,"print_s",new ArrayList<VarDecl>(){{
-            add(new VarDecl(new PointerType(BaseType.CHAR), "s"));
-        }}, new Block()));
-        // void print_i(int i);
-        add(new FunDecl(BaseType.VOID,"print_i",new ArrayList<VarDecl>(){{
-            add(new VarDecl(BaseType.INT, "i"));
-        }}, new Block()));
-        // void print_c(char c);
-        add(new FunDecl(BaseType.VOID,"print_c",new ArrayList<VarDecl>(){{
-            add(new VarDecl(BaseType.CHAR, "c"));
-        }}, new Block()));
-        // char read_c();
-        add(new FunDecl(BaseType.CHAR,"read_c",new ArrayList<VarDecl>(), new Block()));
-        // int read_i();
-        add(new FunDecl(BaseType.INT,"read_i",new ArrayList<VarDecl>(), new Block()));
-        // void* mcmalloc(int size);
-        add(new FunDecl(new PointerType(BaseType.VOID),"mcmalloc",new ArrayList<VarDecl>(){{
-            add(new VarDecl(BaseType.INT, "size"));
-        }}, new Block()));
-    }};
+    // the built-in functions, numbered by the ids of the program they are added to
+    static List<FunDecl> builtInFun(AtomicInteger ids) {
+        return new ArrayList<FunDecl>() {{
+            // void print_s(char* s);
+            add(new FunDecl(BaseType.VOID,"print_s",new ArrayList<VarDecl>(){{
+                add(new VarDecl(TypeFactory.pointer(BaseType.CHAR), "s", ids.getAndIncrement()));
+            }}, new Block(), ids.getAndIncrement()));
+            // void print_i(int i);
+            add(new FunDecl(BaseType.VOID,"print_i",new ArrayList<VarDecl>(){{
+                add(new VarDecl(BaseType.INT, "i", ids.getAndIncrement()));
+            }}, new Block(), ids.getAndIncrement()));
+            // void print_c(char c);
+            add(new FunDecl(BaseType.VOID,"print_c",new ArrayList<VarDecl>(){{
+                add(new VarDecl(BaseType.CHAR, "c", ids.getAndIncrement()));
+            }}, new Block(), ids.getAndIncrement()));
+            // char read_c();
+            add(new FunDecl(BaseType.CHAR,"read_c",new ArrayList<VarDecl>(), new Block(), ids.getAndIncrement()));
+            // int read_i();
+            add(new FunDecl(BaseType.INT,"read_i",new ArrayList<VarDecl>(), new Block(), ids.getAndIncrement()));
+            // void* mcmalloc(int size);
+            add(new FunDecl(TypeFactory.pointer(BaseType.VOID),"mcmalloc",new ArrayList<VarDecl>(){{
+                add(new VarDecl(BaseType.INT, "size", ids.getAndIncrement()));
+            }}, new Block(), ids.getAndIncrement()));
+        }};
+    }
+
+    // adds the built-in functions ahead of the program's own, unless an earlier analysis of the program already did
+    static void addBuiltInFun(Program p) {
+        if (p.builtInFunsAdded())
+            return;
+        p.funDecls.addAll(0, builtInFun(p.ids));
+        p.setBuiltInFunsAdded();
+    }
 
     @Override
     public Void visitProgram(Program p) {
-        p.funDecls.addAll(0, builtInFun);
+        addBuiltInFun(p);
         for (StructTypeDecl std : p.structTypeDecls) {
             std.accept(this);
         }
@@ -46,55 +62,61 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
         }
         for (FunDecl fd : p.funDecls) {
             fd.accept(this);
+            fd.releaseBlock();
         }
         return null;
     }
 
-    @Override
-    public Void visitStructTypeDecl(StructTypeDecl sts) {
+    // The rules, shared by the visit methods and the hooks of a walk
+
+    // returns whether the struct's fields are to be declared, in a scope of their own
+    private boolean enter(StructTypeDecl sts) {
         Symbol s = scope.lookupCurrent(sts.structType.structName);
         if(s != null){
             error("Struct "+sts.structType.structName+" has already been declared");
-        } else {
-            Scope oldScope = scope;
-            scope = new Scope(oldScope);
-            for (VarDecl vd : sts.params){
-                vd.accept(this);
-            }
-            scope = oldScope;
-            scope.put(new StructTypeSymbol(sts));
+            return false;
         }
-        return null;
+        scope.enter();
+        return true;
     }
 
-    @Override
-    public Void visitVarDecl(VarDecl vd) {
-        Symbol s = scope.lookupCurrent(vd.varName);
-        if(s != null){
-            error("Variable "+vd.varName+" has already been declared");
-        } else {
-            scope.put(new VarSymbol(vd));
-        }
-        return null;
+    private void exit(StructTypeDecl sts) {
+        scope.exit();
+        scope.put(new StructTypeSymbol(sts));
     }
 
-    @Override
-    public Void visitFunDecl(FunDecl p) {
+    // returns whether the function's body is to be analysed
+    private boolean enter(FunDecl p) {
         Symbol s = scope.lookupCurrent(p.name);
         if(s != null){
             error("Function "+p.name+" has already been declared");
-        } else {
-            scope.put(new FunSymbol(p));
-            p.block.params.addAll(0,p.params);
-            p.block.accept(this);
+            return false;
         }
-        return null;
+        scope.put(new FunSymbol(p));
+        params = p.params;
+        return true;
     }
 
+    private void enterBlock() {
+        scope.enter();
+        if (params != null) {
+            // a param and a local of the same name clash, as if the params were declared first in the body
+            for (VarDecl vd : params)
+                declare(vd);
+            params = null;
+        }
+    }
 
+    private void declare(VarDecl vd) {
+        Symbol s = scope.lookupCurrent(vd.varName);
+        if(s != null){
+            error("Variable "+vd.varName+" has already been declared");
+        } else {
+            scope.put(new VarSymbol(vd));
+        }
+    }
 
-    @Override
-    public Void visitVarExpr(VarExpr v) {
+    private void lookUp(VarExpr v) {
         Symbol s = scope.lookup(v.name);
         if (s == null){
             error("Cannot use a variable before it's been declared");
@@ -103,152 +125,222 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
         } else {
             v.vd = ((VarSymbol) s).vd;
         }
-        return null;
     }
 
-    @Override
-    public Void visitFunCallExpr(FunCallExpr f) {
+    // returns whether the arguments of the call are to be analysed
+    private boolean lookUp(FunCallExpr f) {
         Symbol s = scope.lookup(f.name);
         if (s == null){
             error("Cannot use a function before it's been declared");
+            return false;
         } else if (!s.isFun()){
             error("Expected function, found variable");
-        } else {
-            f.fd = ((FunSymbol) s).fd;
-            for (Expr param : f.params){
-                param.accept(this);
-            }
+            return false;
         }
-        return null;
+        f.fd = ((FunSymbol) s).fd;
+        return true;
     }
 
+    // Visiting a node analyses it in turn, with the rules above, in the order of the hooks below
+
     @Override
-    public Void visitBinOp(BinOp bo) {
-        bo.lhs.accept(this);
-        bo.rhs.accept(this);
+    public Void visitStructTypeDecl(StructTypeDecl sts) {
+        if (enter(sts)) {
+            for (VarDecl vd : sts.params)
+                visit(vd);
+            exit(sts);
+        }
         return null;
     }
 
     @Override
-    public Void visitOp(Op op) {
+    public Void visitVarDecl(VarDecl vd) {
+        declare(vd);
         return null;
     }
 
     @Override
-    public Void visitArrayAccessExpr(ArrayAccessExpr aa) {
-        aa.index.accept(this);
-        aa.array.accept(this);
+    public Void visitFunDecl(FunDecl p) {
+        if (enter(p))
+            visit(p.getBlock());
         return null;
     }
 
     @Override
-    public Void visitFieldAccessExpr(FieldAccessExpr fa) {
-        fa.structure.accept(this);
+    public Void visitBlock(Block b) {
+        enterBlock();
+        for (VarDecl vd : b.params)
+            visit(vd);
+        for (Stmt stmt : b.stmts)
+            visit(stmt);
+        scope.exit();
         return null;
     }
 
     @Override
-    public Void visitValueAtExpr(ValueAtExpr va) {
-        va.expr.accept(this);
+    public Void visitVarExpr(VarExpr v) {
+        lookUp(v);
         return null;
     }
 
     @Override
-    public Void visitSizeOfExpr(SizeOfExpr so) {
+    public Void visitFunCallExpr(FunCallExpr f) {
+        if (lookUp(f)) {
+            for (Expr arg : f.params)
+                visit(arg);
+        }
         return null;
     }
 
     @Override
-    public Void visitTypecastExpr(TypecastExpr t) {
-        t.expr.accept(this);
+    public Void visitBinOp(BinOp bo) {
+        visit(bo.lhs);
+        visit(bo.rhs);
         return null;
     }
 
+    @Override
+    public Void visitArrayAccessExpr(ArrayAccessExpr aa) {
+        visit(aa.index);
+        visit(aa.array);
+        return null;
+    }
 
-	@Override
-	public Void visitBlock(Block b) {
-        Scope oldScope = scope;
-        scope = new Scope(oldScope);
-        for (VarDecl vd : b.params){
-            vd.accept(this);
-        }
-        for(Stmt stmt : b.stmts){
-            stmt.accept(this);
-        }
-        scope = oldScope;
-		return null;
-	}
+    @Override
+    public Void visitFieldAccessExpr(FieldAccessExpr fa) {
+        visit(fa.structure);
+        return null;
+    }
 
     @Override
-    public Void visitExprStmt(ExprStmt e) {
-        e.expr.accept(this);
+    public Void visitValueAtExpr(ValueAtExpr va) {
+        visit(va.expr);
         return null;
     }
 
     @Override
-    public Void visitWhile(While w) {
-        w.expr.accept(this);
-        w.stmt.accept(this);
+    public Void visitSizeOfExpr(SizeOfExpr so) {
         return null;
     }
 
     @Override
-    public Void visitIf(If i) {
-        i.expr.accept(this);
-        i.stmt1.accept(this);
-        if (i.stmt2 != null){
-            i.stmt2.accept(this);
-        }
+    public Void visitTypecastExpr(TypecastExpr t) {
+        visit(t.expr);
         return null;
     }
 
     @Override
-    public Void visitAssign(Assign a) {
-        a.expr1.accept(this);
-        a.expr2.accept(this);
+    public Void visitIntLiteral(IntLiteral i) {
         return null;
     }
 
     @Override
-    public Void visitReturn(Return r) {
-        if (r.expr != null){
-            r.expr.accept(this);
-        }
+    public Void visitStrLiteral(StrLiteral s) {
         return null;
     }
 
     @Override
-    public Void visitBaseType(BaseType bt) {
+    public Void visitChrLiteral(ChrLiteral c) {
         return null;
     }
 
     @Override
-    public Void visitPointerType(PointerType pt) {
+    public Void visitExprStmt(ExprStmt es) {
+        visit(es.expr);
         return null;
     }
 
     @Override
-    public Void visitStructType(StructType st) {
+    public Void visitWhile(While w) {
+        visit(w.expr);
+        visit(w.stmt);
         return null;
     }
 
     @Override
-    public Void visitArrayType(ArrayType at) {
+    public Void visitIf(If i) {
+        visit(i.expr);
+        visit(i.stmt1);
+        if (i.stmt2 != null)
+            visit(i.stmt2);
         return null;
     }
 
     @Override
-    public Void visitIntLiteral(IntLiteral i) {
+    public Void visitAssign(Assign a) {
+        visit(a.expr1);
+        visit(a.expr2);
         return null;
     }
 
     @Override
-    public Void visitStrLiteral(StrLiteral s) {
+    public Void visitReturn(Return r) {
+        if (r.expr != null)
+            visit(r.expr);
         return null;
     }
 
+    // The hooks, for trees too deep to visit
+
+    @Override
+    protected boolean pre(ASTNode node) {
+        switch (node.kind()) {
+            case STRUCT_TYPE_DECL:
+                return enter((StructTypeDecl) node);
+            case VAR_DECL:
+                declare((VarDecl) node);
+                return false;
+            case FUN_DECL:
+                return enter((FunDecl) node);
+            case VAR_EXPR:
+                lookUp((VarExpr) node);
+                return false;
+            case FUN_CALL_EXPR:
+                return lookUp((FunCallExpr) node);
+            case BLOCK:
+                enterBlock();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    // the names in types are not looked up here, and the index of an array access comes before the array
     @Override
-    public Void visitChrLiteral(ChrLiteral c) {
+    protected ASTNode child(ASTNode node, int index) {
+        switch (node.kind()) {
+            case STRUCT_TYPE_DECL:
+                return element(((StructTypeDecl) node).params, index);
+            case FUN_DECL:
+                return index == 0 ? ((FunDecl) node).getBlock() : null;
+            case BIN_OP: {
+                BinOp bo = (BinOp) node;
+                return index == 0 ? bo.lhs : index == 1 ? bo.rhs : null;
+            }
+            case ARRAY_ACCESS_EXPR: {
+                ArrayAccessExpr aa = (ArrayAccessExpr) node;
+                return index == 0 ? aa.index : index == 1 ? aa.array : null;
+            }
+            case TYPECAST_EXPR:
+                return index == 0 ? ((TypecastExpr) node).expr : null;
+            case SIZE_OF_EXPR:
+                return null;
+            default:
+                return super.child(node, index);
+        }
+    }
+
+    @Override
+    protected Void post(ASTNode node) {
+        switch (node.kind()) {
+            case STRUCT_TYPE_DECL:
+                exit((StructTypeDecl) node);
+                break;
+            case BLOCK:
+                scope.exit();
+                break;
+            default:
+        }
         return null;
     }
 }
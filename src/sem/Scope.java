@@ -1,37 +1,83 @@
 package sem;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * The symbols in scope, in a single table for all the scopes that are open: each name maps to a stack of bindings, the
+ * innermost first, so looking a name up takes one lookup however deeply scopes are nested. A scope is opened with
+ * enter() and closed with exit(), which undoes the bindings made since, as kept in a log.
+ */
 public class Scope {
-	private Scope outer;
-	private Map<String, Symbol> symbolTable;
-	
-	public Scope(Scope outer) { 
-		this.outer = outer;
-		this.symbolTable = new HashMap<>();
+
+	// a symbol bound in a scope, and the binding of the same name it shadows
+	private static final class Binding {
+		Symbol symbol;
+		final int depth;
+		final Binding shadowed;
+
+		Binding(Symbol symbol, int depth, Binding shadowed) {
+			this.symbol = symbol;
+			this.depth = depth;
+			this.shadowed = shadowed;
+		}
 	}
-	
+
+	private final Map<String, Binding> symbolTable = new HashMap<>();
+
+	// the bindings in the order they were made, and where those of each open scope start
+	private final List<Binding> undoLog = new ArrayList<>();
+	private int[] marks = new int[16];
+	private int depth = 0;
+
 	public Scope() {
-		this.outer = null;
-		this.symbolTable = new HashMap<>();
 	}
-	
-	public Symbol lookup(String name) {
-		Symbol curSymbol = lookupCurrent(name);
-		if (curSymbol != null)
-			return curSymbol;
-		if (outer != null) {
-			return outer.lookup(name);
+
+	/*
+	 * Opens a scope nested in the current one.
+	 */
+	public void enter() {
+		if (depth == marks.length)
+			marks = Arrays.copyOf(marks, depth * 2);
+		marks[depth++] = undoLog.size();
+	}
+
+	/*
+	 * Closes the current scope, bringing back the bindings its own ones shadowed.
+	 */
+	public void exit() {
+		int mark = marks[--depth];
+		for (int i = undoLog.size() - 1; i >= mark; i--) {
+			Binding b = undoLog.remove(i);
+			String name = b.symbol.name;
+			if (b.shadowed == null)
+				symbolTable.remove(name);
+			else
+				symbolTable.put(name, b.shadowed);
 		}
-		return null;
 	}
-	
+
+	public Symbol lookup(String name) {
+		Binding b = symbolTable.get(name);
+		return b == null ? null : b.symbol;
+	}
+
 	public Symbol lookupCurrent(String name) {
-		return symbolTable.get(name);
+		Binding b = symbolTable.get(name);
+		return b != null && b.depth == depth ? b.symbol : null;
 	}
-	
+
 	public void put(Symbol sym) {
-		symbolTable.put(sym.name, sym);
+		Binding b = symbolTable.get(sym.name);
+		if (b != null && b.depth == depth) {
+			b.symbol = sym;
+			return;
+		}
+		b = new Binding(sym, depth, b);
+		symbolTable.put(sym.name, b);
+		undoLog.add(b);
 	}
 }
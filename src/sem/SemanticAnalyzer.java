@@ -1,15 +1,36 @@
 package sem;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class SemanticAnalyzer {
 	
+	// name analysis and type checking interleaved, declaration by declaration, rather than one after the other
+	private boolean interleaved = false;
+
+	public void setInterleaved(boolean interleaved) {
+		this.interleaved = interleaved;
+	}
+
+	// type checks the bodies of functions on this pool once the names of the whole program have been resolved, rather
+	// than interleaving the two, see TypeCheckVisitor.setParallelBodies
+	private ForkJoinPool bodyPool;
+
+	public void setParallelBodies(ForkJoinPool pool) {
+		this.bodyPool = pool;
+	}
+
 	public int analyze(ast.Program prog) {
 		// List of visitors
-		ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>() {{
-			add(new NameAnalysisVisitor(new Scope()));
-			add(new TypeCheckVisitor());
-		}};
+		ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>();
+		if (interleaved && bodyPool == null) {
+			visitors.add(new InterleavedSemanticVisitor(new Scope()));
+		} else {
+			visitors.add(new NameAnalysisVisitor(new Scope()));
+			TypeCheckVisitor typeChecker = new TypeCheckVisitor();
+			typeChecker.setParallelBodies(bodyPool);
+			visitors.add(typeChecker);
+		}
 		// Error accumulator
 		int errors = 0;
 		
@@ -4,83 +4,118 @@ import ast.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
-    public List<StructTypeDecl> structTypeDeclList = new ArrayList<>();
+    StructLayouts layouts;
+    private int structsDeclared = 0; // a struct can only be used once it has been declared
     public Type curFunType = BaseType.VOID;
+    private ForkJoinPool bodyPool;
 
-	@Override
-	public Type visitBaseType(BaseType bt) {
-		return bt;
-	}
+    public TypeCheckVisitor() {
+    }
 
-    @Override
-    public Type visitPointerType(PointerType pt) {
-	    return pt;
+    // a type checker for the function bodies of a program whose structs and globals have been checked
+    private TypeCheckVisitor(StructLayouts layouts, int structsDeclared) {
+        this.layouts = layouts;
+        this.structsDeclared = structsDeclared;
     }
 
-    @Override
-    public Type visitStructType(StructType sy) {
-        return sy;
+    /*
+     * Checks the bodies of functions on the given pool once the structs and globals have been checked, each body by a
+     * TypeCheckVisitor of its own. Error messages are printed in source order after that, as a sequential check would
+     * print them, and the check gives up at the first null pointer as it would. Null turns it off.
+     */
+    public void setParallelBodies(ForkJoinPool pool) {
+        this.bodyPool = pool;
     }
 
-    @Override
-    public Type visitArrayType(ArrayType at) {
-        return at;
+    // The rules, shared by the visit methods and the hooks of a walk
+
+    // the arguments of a call are only checked against the params of the function if there are as many
+    private static boolean argCountMatches(FunCallExpr f) {
+        return f.fd.params.size() == f.params.size();
     }
 
-    @Override
-    public Type visitIntLiteral(IntLiteral i) {
-	    i.type = BaseType.INT;
-        return i.type;
+    private void checkArgCount(FunCallExpr f) {
+        // Check for size
+        if (!argCountMatches(f)){
+            error("Function called with a different amount of arguments than it was declared");
+        }
     }
 
-    @Override
-    public Type visitStrLiteral(StrLiteral s) {
-	    s.type = new ArrayType(BaseType.CHAR,s.value.length()+1);
-        return s.type;
+    /*
+     * Whether a value of one of the two types can be used where one of the other is expected: the same type, which is
+     * the same object as types are made by TypeFactory, any two pointer types, two arrays of as many compatible
+     * elements, and an array and a pointer to a compatible element type. The first type must not be null.
+     */
+    static boolean isCompatible(Type t, Type u) {
+        if (t == u)
+            return true;
+        switch (t.kind()) {
+            case POINTER_TYPE:
+                return u instanceof PointerType
+                        || (u instanceof ArrayType && isCompatible(((ArrayType) u).type, ((PointerType) t).type));
+            case ARRAY_TYPE:
+                if (u instanceof ArrayType)
+                    return ((ArrayType) u).elements == ((ArrayType) t).elements
+                            && isCompatible(((ArrayType) u).type, ((ArrayType) t).type);
+                return u instanceof PointerType && isCompatible(((PointerType) u).type, ((ArrayType) t).type);
+            default:
+                return false;
+        }
     }
 
-    @Override
-    public Type visitChrLiteral(ChrLiteral c) {
-	    c.type = BaseType.CHAR;
-        return c.type;
+    private void checkArg(VarDecl param, Type argT) {
+        // Check for types being compatible
+        Type paramT = param.type;
+        if (!isCompatible(argT, paramT)) {
+            error("Function arguments don't match in types with their declared types " + paramT + " expected, " + argT + " found.");
+        }
     }
 
-    @Override
-    public Type visitVarExpr(VarExpr v) {
-	    v.type = v.vd.type;
-	    return v.type;
+    private Type funCall(FunCallExpr f) {
+        if (!argCountMatches(f))
+            return f.type;
+        f.type = f.fd.type;
+        return f.type;
     }
 
-    @Override
-    public Type visitFunCallExpr(FunCallExpr f) {
-	    List<VarDecl> params = f.fd.params;
-	    List<Expr> args = f.params;
-	    // Check for size
-	    if (params.size() != args.size()){
-	        error("Function called with a different amount of arguments than it was declared");
-	        return f.type;
-        }
-        // Check for types being the same
-        for (int i =0; i<params.size(); i++){
-            VarDecl param = params.get(i);
-            Expr arg = args.get(i);
-            Type paramT = param.type;
-            Type argT = arg.accept(this);
-            if (!argT.equals(paramT)) {
-                error("Function arguments don't match in types with their declared types " + paramT + " expected, " + argT + " found.");
+    private void checkVarDecl(VarDecl vd) {
+        if (vd.type instanceof StructType) {
+            if (isDeclared(layouts.get(vd.type))) {
+                return;
             }
+            error("Struct "+((StructType) vd.type).structName+" hasn't been declared");
+        }
+        if (vd.type == BaseType.VOID){
+            error("Cannot declare a variable with type VOID");
         }
-        f.type = f.fd.type;
-        return f.type;
     }
 
-    @Override
-    public Type visitBinOp(BinOp bo) {
-        Type lhsT = bo.lhs.accept(this);
-        Type rhsT = bo.rhs.accept(this);
+    private Type intLiteral(IntLiteral i) {
+        i.type = BaseType.INT;
+        return i.type;
+    }
+
+    private Type strLiteral(StrLiteral s) {
+        s.type = TypeFactory.array(BaseType.CHAR,s.value.length()+1);
+        return s.type;
+    }
+
+    private Type chrLiteral(ChrLiteral c) {
+        c.type = BaseType.CHAR;
+        return c.type;
+    }
+
+    private Type varExpr(VarExpr v) {
+        v.type = v.vd.type;
+        return v.type;
+    }
+
+    private Type binOp(BinOp bo, Type lhsT, Type rhsT) {
         if (bo.op == Op.ADD || bo.op == Op.SUB || bo.op == Op.MUL ||
             bo.op == Op.DIV || bo.op == Op.MOD || bo.op == Op.OR ||
             bo.op == Op.AND || bo.op == Op.GT || bo.op == Op.LT ||
@@ -106,20 +141,15 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
         }
     }
 
-    @Override
-    public Type visitOp(Op op) {
-        return null;
-    }
-
-    @Override
-    public Type visitArrayAccessExpr(ArrayAccessExpr aa) {
-	    // Check if index is of type int
-        Type indexT = aa.index.accept(this);
+    private void checkIndex(ArrayAccessExpr aa, Type indexT) {
+        // Check if index is of type int
         if (!(indexT == BaseType.INT)){
             error("Cannot access an array at "+aa.index+" position");
         }
+    }
+
+    private Type arrayAccess(ArrayAccessExpr aa, Type arrayT) {
         // Check if array we are trying to access has been declared as an array
-        Type arrayT = aa.array.accept(this);
         if (arrayT instanceof ArrayType) {
             ArrayType array = ((ArrayType) aa.array.type);
             if (array.type == BaseType.INT || array.type == BaseType.CHAR || array.type == BaseType.VOID) {
@@ -137,140 +167,334 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
         return BaseType.VOID;
     }
 
-    @Override
-    public Type visitFieldAccessExpr(FieldAccessExpr fa) {
-	    Type faT = fa.structure.accept(this);
+    private Type fieldAccess(FieldAccessExpr fa, Type faT) {
         if (faT instanceof StructType){
-                for (StructTypeDecl s : structTypeDeclList) {
-                    if(s.structType.structName.equals(((StructType) faT).structName)){
-                        for (VarDecl vd : s.params){
-                            if(fa.field.equals(vd.varName)){
-                                return vd.type;
-                            }
-                        }
-                        error("Struct "+s.structType.structName+" has no "+fa.field+" field");
-                        return null;
-                    }
+            StructLayout s = layouts.get(faT);
+            if (isDeclared(s)) {
+                StructLayout.Field field = s.field(fa.field);
+                if (field != null) {
+                    return field.decl.type;
                 }
-                error("Struct "+((StructType) faT).structName+" hasn't been declared");
+                error("Struct "+s.decl.structType.structName+" has no "+fa.field+" field");
                 return null;
             }
+            error("Struct "+((StructType) faT).structName+" hasn't been declared");
+            return null;
+        }
         error("Cannot do a field access on a "+faT);
         return null;
     }
 
-    @Override
-    public Type visitValueAtExpr(ValueAtExpr va) {
-	    Type vaT = va.expr.accept(this);
+    private Type valueAt(ValueAtExpr va, Type vaT) {
         if (vaT instanceof PointerType){
-        PointerType pointer = ((PointerType) vaT);
-        if (pointer.type == BaseType.INT || pointer.type == BaseType.CHAR || pointer.type == BaseType.VOID){
-            va.type = pointer.type;
-            return va.type;
+            PointerType pointer = ((PointerType) vaT);
+            if (pointer.type == BaseType.INT || pointer.type == BaseType.CHAR || pointer.type == BaseType.VOID){
+                va.type = pointer.type;
+                return va.type;
+            }
         }
-    }
         return BaseType.VOID;
     }
 
-    @Override
-    public Type visitSizeOfExpr(SizeOfExpr so) {
-        return BaseType.INT;
-    }
-
-    @Override
-    public Type visitTypecastExpr(TypecastExpr t) {
-	    Type tT = t.expr.accept(this);
+    private Type typecast(TypecastExpr t, Type tT) {
         if (tT == BaseType.CHAR && t.type == BaseType.INT){
             t.expr.type = BaseType.INT;
             return t.expr.type;
         }
         if (tT instanceof ArrayType && t.type instanceof PointerType){
-            t.expr.type = new PointerType(((PointerType) t.type).type);
+            t.expr.type = TypeFactory.pointer(((PointerType) t.type).type);
             return t.expr.type;
         }
         if (tT instanceof PointerType && t.type instanceof PointerType){
-            t.expr.type = new PointerType(((PointerType) t.type).type);
+            t.expr.type = TypeFactory.pointer(((PointerType) t.type).type);
             return t.expr.type;
         }
         return BaseType.VOID;
     }
 
-    @Override
-    public Type visitExprStmt(ExprStmt e) {
-        e.expr.accept(this);
-        return null;
-    }
-
-    @Override
-    public Type visitWhile(While w) {
-        Type wT = w.expr.accept(this);
+    private void checkWhile(Type wT) {
         if(! (wT == BaseType.INT)){
             error("While expression must be an int");
         }
-        return null;
     }
 
-    @Override
-    public Type visitIf(If i) {
-        Type iT = i.expr.accept(this);
+    private void checkIf(Type iT) {
         if(!(iT == BaseType.INT)){
             error("If expression must be an int");
         }
-        return null;
     }
 
-    @Override
-    public Type visitAssign(Assign a) {
-	    Type aT1 = a.expr1.accept(this);
-        Type aT2 = a.expr2.accept(this);
-        if (!aT1.equals(aT2)){
+    private void checkAssign(Assign a, Type aT1, Type aT2) {
+        if (!isCompatible(aT1, aT2)){
             error("Cannot assign "+aT2+" to expression of type "+aT1);
         }
         if (aT1 instanceof ArrayType || aT1 == BaseType.VOID){
             error("Assign expressions cannot be of type void or ArrayType");
         }
-        if (a.expr1 instanceof VarExpr || a.expr1 instanceof FieldAccessExpr ||
-            a.expr1 instanceof ArrayAccessExpr || a.expr1 instanceof ValueAtExpr){
-            return null;
-        } else {
+        if (!(a.expr1 instanceof VarExpr || a.expr1 instanceof FieldAccessExpr ||
+              a.expr1 instanceof ArrayAccessExpr || a.expr1 instanceof ValueAtExpr)){
             error("Left hand side expression of an assignment statement must be one of the following: VarExpr, FieldAccessExpr, ArrayAccessExpr or ValueAtExpr");
-            return null;
         }
     }
 
-    @Override
-    public Type visitReturn(Return r) {
+    // the type of the returned expression, if any
+    private void checkReturn(Return r, Type rT) {
         if (r.expr == null){
-            if (curFunType == BaseType.VOID){
-                return null;
-            } else {
+            if (curFunType != BaseType.VOID){
                 error("Cannot return null for a function with type "+curFunType);
+            }
+        } else if (!isCompatible(rT, curFunType)){
+            error("Return type "+rT+" and function type  "+curFunType+" don't match");
+        }
+    }
+
+    // Visiting a node checks it in turn, with the rules above, in the order of the hooks below
+
+    @Override
+    public Type visitStructTypeDecl(StructTypeDecl st) {
+        structsDeclared++;
+        for (VarDecl vd : st.params)
+            visit(vd);
+        return null;
+    }
+
+    @Override
+    public Type visitVarDecl(VarDecl vd) {
+        checkVarDecl(vd);
+        return null;
+    }
+
+    @Override
+    public Type visitFunDecl(FunDecl p) {
+        curFunType = p.type;
+        for (VarDecl vd : p.params)
+            visit(vd);
+        visit(p.getBlock());
+        return null;
+    }
+
+    @Override
+    public Type visitBlock(Block b) {
+        for (VarDecl vd : b.params)
+            visit(vd);
+        for (Stmt stmt : b.stmts)
+            visit(stmt);
+        return null;
+    }
+
+    @Override
+    public Type visitIntLiteral(IntLiteral i) {
+        return intLiteral(i);
+    }
+
+    @Override
+    public Type visitStrLiteral(StrLiteral s) {
+        return strLiteral(s);
+    }
+
+    @Override
+    public Type visitChrLiteral(ChrLiteral c) {
+        return chrLiteral(c);
+    }
+
+    @Override
+    public Type visitVarExpr(VarExpr v) {
+        return varExpr(v);
+    }
+
+    @Override
+    public Type visitFunCallExpr(FunCallExpr f) {
+        checkArgCount(f);
+        if (argCountMatches(f)) {
+            for (int i = 0; i < f.params.size(); i++)
+                checkArg(f.fd.params.get(i), visit(f.params.get(i)));
+        }
+        return funCall(f);
+    }
+
+    @Override
+    public Type visitBinOp(BinOp bo) {
+        Type lhsT = visit(bo.lhs);
+        return binOp(bo, lhsT, visit(bo.rhs));
+    }
+
+    @Override
+    public Type visitArrayAccessExpr(ArrayAccessExpr aa) {
+        checkIndex(aa, visit(aa.index));
+        return arrayAccess(aa, visit(aa.array));
+    }
+
+    @Override
+    public Type visitFieldAccessExpr(FieldAccessExpr fa) {
+        return fieldAccess(fa, visit(fa.structure));
+    }
+
+    @Override
+    public Type visitValueAtExpr(ValueAtExpr va) {
+        return valueAt(va, visit(va.expr));
+    }
+
+    @Override
+    public Type visitSizeOfExpr(SizeOfExpr so) {
+        return BaseType.INT;
+    }
+
+    @Override
+    public Type visitTypecastExpr(TypecastExpr t) {
+        return typecast(t, visit(t.expr));
+    }
+
+    @Override
+    public Type visitExprStmt(ExprStmt es) {
+        visit(es.expr);
+        return null;
+    }
+
+    @Override
+    public Type visitWhile(While w) {
+        checkWhile(visit(w.expr));
+        return null;
+    }
+
+    @Override
+    public Type visitIf(If i) {
+        checkIf(visit(i.expr));
+        return null;
+    }
+
+    @Override
+    public Type visitAssign(Assign a) {
+        Type aT1 = visit(a.expr1);
+        checkAssign(a, aT1, visit(a.expr2));
+        return null;
+    }
+
+    @Override
+    public Type visitReturn(Return r) {
+        checkReturn(r, r.expr == null ? null : visit(r.expr));
+        return null;
+    }
+
+    // The hooks, for trees too deep to visit
+
+    @Override
+    protected boolean pre(ASTNode node) {
+        switch (node.kind()) {
+            case FUN_CALL_EXPR:
+                checkArgCount((FunCallExpr) node);
+                return true;
+            case STRUCT_TYPE_DECL:
+                structsDeclared++;
+                return true;
+            case FUN_DECL:
+                curFunType = ((FunDecl) node).type;
+                return true;
+            case VAR_DECL:
+                checkVarDecl((VarDecl) node);
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // the bodies of while and if statements are not checked, and the index of an array access comes before the array
+    @Override
+    protected ASTNode child(ASTNode node, int index) {
+        switch (node.kind()) {
+            case FUN_CALL_EXPR: {
+                FunCallExpr f = (FunCallExpr) node;
+                if (!argCountMatches(f))
+                    return null;
+                // each argument is checked once it has been walked
+                if (index > 0)
+                    checkArg(f.fd.params.get(index - 1), result(index - 1));
+                return element(f.params, index);
+            }
+            case BIN_OP: {
+                BinOp bo = (BinOp) node;
+                return index == 0 ? bo.lhs : index == 1 ? bo.rhs : null;
+            }
+            case ARRAY_ACCESS_EXPR: {
+                ArrayAccessExpr aa = (ArrayAccessExpr) node;
+                if (index == 0)
+                    return aa.index;
+                if (index == 1) {
+                    checkIndex(aa, result(0));
+                    return aa.array;
+                }
                 return null;
             }
-        } else {
-            Type rT = r.expr.accept(this);
-            if (rT.equals(curFunType)){
+            case SIZE_OF_EXPR:
                 return null;
-            } else {
-                error("Return type "+rT+" and function type  "+curFunType+" don't match");
+            case TYPECAST_EXPR:
+                return index == 0 ? ((TypecastExpr) node).expr : null;
+            case WHILE:
+                return index == 0 ? ((While) node).expr : null;
+            case IF:
+                return index == 0 ? ((If) node).expr : null;
+            case STRUCT_TYPE_DECL:
+                return element(((StructTypeDecl) node).params, index);
+            default:
+                return super.child(node, index);
+        }
+    }
+
+    @Override
+    protected Type post(ASTNode node) {
+        switch (node.kind()) {
+            case BASE_TYPE:
+            case POINTER_TYPE:
+            case STRUCT_TYPE:
+            case ARRAY_TYPE:
+                return (Type) node;
+            case INT_LITERAL:
+                return intLiteral((IntLiteral) node);
+            case STR_LITERAL:
+                return strLiteral((StrLiteral) node);
+            case CHR_LITERAL:
+                return chrLiteral((ChrLiteral) node);
+            case VAR_EXPR:
+                return varExpr((VarExpr) node);
+            case FUN_CALL_EXPR:
+                return funCall((FunCallExpr) node);
+            case BIN_OP:
+                return binOp((BinOp) node, result(0), result(1));
+            case ARRAY_ACCESS_EXPR:
+                return arrayAccess((ArrayAccessExpr) node, result(1));
+            case FIELD_ACCESS_EXPR:
+                return fieldAccess((FieldAccessExpr) node, result(0));
+            case VALUE_AT_EXPR:
+                return valueAt((ValueAtExpr) node, result(0));
+            case SIZE_OF_EXPR:
+                return BaseType.INT;
+            case TYPECAST_EXPR:
+                return typecast((TypecastExpr) node, result(0));
+            case WHILE:
+                checkWhile(result(0));
+                return null;
+            case IF:
+                checkIf(result(0));
+                return null;
+            case ASSIGN:
+                checkAssign((Assign) node, result(0), result(1));
+                return null;
+            case RETURN: {
+                Return r = (Return) node;
+                checkReturn(r, r.expr == null ? null : result(0));
                 return null;
             }
+            default:
+                return null;
         }
     }
 
-	@Override
-	public Type visitBlock(Block b) {
-		for (VarDecl vd : b.params){
-		    vd.accept(this);
-        }
-        for (Stmt stmts : b.stmts){
-            stmts.accept(this);
-        }
-		return null;
-	}
+    private boolean isDeclared(StructLayout layout) {
+        return layout != null && layout.index < structsDeclared;
+    }
 
 	@Override
 	public Type visitProgram(Program p) {
+	    layouts = p.layouts();
 	    try{
             for (StructTypeDecl std : p.structTypeDecls) {
                 std.accept(this);
@@ -278,8 +502,16 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
             for (VarDecl vd : p.varDecls) {
                 vd.accept(this);
             }
-            for (FunDecl fd : p.funDecls) {
-                fd.accept(this);
+            if (bodyPool != null) {
+                checkBodies(p.funDecls);
+            } else {
+                for (FunDecl fd : p.funDecls) {
+                    try {
+                        fd.accept(this);
+                    } finally {
+                        fd.releaseBlock();
+                    }
+                }
             }
         } catch (NullPointerException e){
 	        System.out.println("Null pointer exception");
@@ -289,40 +521,65 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
 	}
 
-    @Override
-    public Type visitStructTypeDecl(StructTypeDecl st) {
-	    structTypeDeclList.add(st);
-	    for (VarDecl vd : st.params){
-	        vd.accept(this);
+    // a few runs of consecutive functions per thread of the pool, so that the threads are kept busy to the end
+    private static final int RUNS_PER_THREAD = 4;
+
+    private void checkBodies(List<FunDecl> funDecls) {
+        Object bodies = new Object(); // bodies kept in an ASTArena are rebuilt and packed again one at a time
+        int runs = Math.min(funDecls.size(), bodyPool.getParallelism() * RUNS_PER_THREAD);
+        List<BodyChecker> checkers = new ArrayList<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            List<FunDecl> run = funDecls.subList(i * funDecls.size() / runs, (i + 1) * funDecls.size() / runs);
+            BodyChecker checker = new BodyChecker(layouts, structsDeclared);
+            checkers.add(checker);
+            tasks.add(bodyPool.submit(() -> checker.check(run, bodies)));
+        }
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+
+        for (BodyChecker checker : checkers) {
+            for (String message : checker.messages)
+                error(message);
+            if (checker.failed != null)
+                throw checker.failed;
         }
-        return null;
     }
 
-    @Override
-    public Type visitFunDecl(FunDecl p) {
-	    curFunType = p.type;
-        p.type.accept(this);
-        for (VarDecl vd : p.params){
-            vd.accept(this);
+    /*
+     * Checks the bodies of a run of functions, with the struct layouts of the program, which are only read, and the
+     * state of the walk confined to the thread it runs on. Its error messages are kept rather than printed.
+     */
+    private static final class BodyChecker extends TypeCheckVisitor {
+
+        final List<String> messages = new ArrayList<>();
+        NullPointerException failed;
+
+        BodyChecker(StructLayouts layouts, int structsDeclared) {
+            super(layouts, structsDeclared);
         }
-        p.block.accept(this);
-        return null;
-    }
 
-	@Override
-	public Type visitVarDecl(VarDecl vd) {
-	    if (vd.type instanceof StructType) {
-            for (StructTypeDecl s : structTypeDeclList) {
-                if(s.structType.structName.equals(((StructType) vd.type).structName)){
-                    return null;
+        @Override
+        protected void error(String message) {
+            messages.add(message);
+        }
+
+        void check(List<FunDecl> funDecls, Object bodies) {
+            for (FunDecl fd : funDecls) {
+                synchronized (bodies) {
+                    fd.getBlock();
+                }
+                try {
+                    fd.accept(this);
+                } catch (NullPointerException e) {
+                    failed = e;
+                    return;
+                } finally {
+                    synchronized (bodies) {
+                        fd.releaseBlock();
+                    }
                 }
             }
-            error("Struct "+((StructType) vd.type).structName+" hasn't been declared");
         }
-		if (vd.type == BaseType.VOID){
-		    error("Cannot declare a variable with type VOID");
-        }
-		return null;
-	}
-
+    }
 }
@@ -14,6 +14,26 @@ public class Position {
         this.column = column;
     }
 
+    public Position(long packed) {
+        this(line(packed), column(packed));
+    }
+
+    /*
+     * A position packed into a single long (line in the high half, column in the low half), so that tokens can carry
+     * their position without allocating a Position each.
+     */
+    public static long pack(int line, int column) {
+        return ((long) line << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    public static int line(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    public static int column(long packed) {
+        return (int) packed;
+    }
+
     @Override
     public String toString() {
         return line+":"+column;
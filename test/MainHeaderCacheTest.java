@@ -0,0 +1,105 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs Main as the command line does, in a JVM of its own, to check how it includes headers:
+ *   - with -Dminic.headerCache, a header parsed by one run is kept in the cache directory and read back by the next;
+ *   - minic-stdlib.h, standing for the functions the compiler declares itself, adds nothing;
+ *   - the same C file under another name is a header that does not parse, an error of the program including it.
+ */
+public class MainHeaderCacheTest {
+
+    private static final int PASS = 0;
+    private static final int PARSER_FAIL = 245;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("main").toFile();
+        File cacheDirectory = new File(directory, "cache");
+        try {
+            write(new File(directory, "point.h"),
+                    "struct point { int x; int y; };\nint sum(int a, int b) { return a + b; }\n");
+            File program = write(new File(directory, "main.c"),
+                    "#include \"minic-stdlib.h\"\n#include \"point.h\"\n"
+                            + "void main() { struct point p; p.x = 1; print_i(sum(p.x, 2)); }\n");
+
+            run(program, cacheDirectory, PASS, "first run");
+            File[] cached = cacheDirectory.listFiles();
+            if (cached == null || cached.length != 1) {
+                fail("the first run leaves " + (cached == null ? 0 : cached.length) + " files in the cache directory");
+            } else {
+                // a header parsed again would be written over its cache file
+                long written = cached[0].lastModified() - 60_000;
+                cached[0].setLastModified(written);
+                run(program, cacheDirectory, PASS, "second run");
+                if (cached[0].lastModified() != written)
+                    fail("the second run parses the header again rather than reading it from the cache directory");
+            }
+
+            File copy = new File(directory, "stdlib.h");
+            Files.copy(Paths.get("tests", "minic-stdlib.h"), copy.toPath());
+            File including = write(new File(directory, "including.c"), "#include \"stdlib.h\"\nvoid main() { }\n");
+            run(including, null, PARSER_FAIL, "a C header under another name");
+        } finally {
+            delete(directory);
+        }
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static File write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // runs Main -sem on the program, with the classes this test runs with
+    private static void run(File program, File cacheDirectory, int expected, String what)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (cacheDirectory != null)
+            command.add("-Dminic.headerCache=" + cacheDirectory.getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Main");
+        command.add("-sem");
+        command.add(program.getPath());
+        command.add(new File(program.getParentFile(), "out.asm").getPath());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] output = readAll(process);
+        int status = process.waitFor();
+        if (status != expected)
+            fail(what + ": exit status " + status + ", expected " + expected + ", printed\n"
+                    + new String(output, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readAll(Process process) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = process.getInputStream().read(buffer)) > 0; )
+            bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File f : files)
+                delete(f);
+        file.delete();
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
@@ -0,0 +1,360 @@
+package ast;
+
+import bench.Bench;
+import lexer.Scanner;
+import lexer.Tokeniser;
+import parser.Parser;
+
+import java.util.Random;
+
+/**
+ * Measures what visiting a node costs, in nodes a second, the three ways a pass can go over a tree: recursing through
+ * accept, walking it with the hooks of ASTWalker, and through the visit methods of an ASTWalker, which recurse through
+ * accept until MAX_RECURSION visits are nested and walk the rest of the tree with the hooks. Each pass only counts
+ * the nodes, so what is timed is the traversal. It is run over a program of many functions of ordinary depth, and over
+ * one else-if chain 20000 long, too deep to recurse through on the default stack, which only the walker and the visit methods can go over.
+ *
+ * Results on one CPU (JDK 17):
+ *
+ *   accept, functions                 150.2M nodes/s best, 0.0 B/node
+ *   visit methods, functions          108.8M nodes/s best, 0.0 B/node
+ *   walker hooks, functions            50.1M nodes/s best, 0.0 B/node
+ *   visit methods, else-if chain       59.8M nodes/s best, 9.8 B/node
+ *   walker hooks, else-if chain        54.8M nodes/s best, 9.8 B/node
+ *
+ * Walking with the hooks costs three times what recursing through accept does: every node goes through the switch
+ * on its kind in child(), once per child and once more, and through pre and post, and its results through the stack
+ * of results. Going through the visit methods costs 40% more than accept, for counting how deep the visits are nested,
+ * and about what the walker does once a tree is too deep to recurse through: a pass overriding them costs little more
+ * than one recursing through accept, and still goes over any tree. The bytes on the chain are the walker's stacks growing to its depth, as each
+ * run counts with a new walker.
+ */
+public class ASTWalkerBench {
+
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "<", "==", "&&", "||" };
+
+    public static void main(String[] args) throws Exception {
+        Program functions = parse(functions(new Random(42), 400, 20));
+        long nodes = new Walking().count(functions);
+        Bench.run("accept, functions", nodes, "node", () -> new Accepting().count(functions));
+        Bench.run("visit methods, functions", nodes, "node", () -> new Visiting().count(functions));
+        Bench.run("walker hooks, functions", nodes, "node", () -> new Walking().count(functions));
+
+        Program chain = parse(elseIfChain(20000));
+        long chainNodes = new Walking().count(chain);
+        Bench.run("visit methods, else-if chain", chainNodes, "node", () -> new Visiting().count(chain));
+        Bench.run("walker hooks, else-if chain", chainNodes, "node", () -> new Walking().count(chain));
+    }
+
+    private static Program parse(String text) {
+        Parser parser = new Parser(new Tokeniser(new Scanner(text)).tokenise());
+        parser.setTableDriven(true); // which does not recurse either
+        Program program = parser.parse();
+        if (parser.getErrorCount() > 0)
+            throw new IllegalStateException("the program does not parse");
+        return program;
+    }
+
+    // functions made of declarations, assignments, conditions, loops and calls over random expressions
+    private static String functions(Random random, int functions, int statements) {
+        StringBuilder sb = new StringBuilder("struct s { int f; };\n");
+        for (int i = 0; i < functions; i++) {
+            sb.append("int f").append(i).append("(int a, int b, struct s* p) {\n    int x;\n    char c[8];\n");
+            for (int j = 0; j < statements; j++) {
+                switch (random.nextInt(4)) {
+                    case 0: expression(sb.append("    x = "), random, 3).append(";\n"); break;
+                    case 1: expression(sb.append("    if ("), random, 2).append(") x = 1; else x = 2;\n"); break;
+                    case 2: expression(sb.append("    while ("), random, 2).append(") { x = x - 1; }\n"); break;
+                    default: expression(sb.append("    x = f0("), random, 2).append(", b, p);\n"); break;
+                }
+            }
+            expression(sb.append("    return "), random, 3).append(";\n}\n");
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder expression(StringBuilder sb, Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            switch (random.nextInt(6)) {
+                case 0: return sb.append('a');
+                case 1: return sb.append("(*p).f");
+                case 2: return sb.append("c[").append(random.nextInt(8)).append(']');
+                case 3: return sb.append(random.nextInt(100));
+                case 4: return sb.append("sizeof(int)");
+                default: return sb.append('x');
+            }
+        }
+        expression(sb, random, depth - 1);
+        sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+        return expression(sb, random, depth - 1);
+    }
+
+    private static String elseIfChain(int length) {
+        StringBuilder sb = new StringBuilder("int f(int a) {\n    int x;\n    ");
+        for (int i = 0; i < length; i++)
+            sb.append("if (a == ").append(i).append(") x = ").append(i).append("; else ");
+        return sb.append("x = 0;\n    return x;\n}\n").toString();
+    }
+
+    // counts the nodes walking with the hooks only
+    private static final class Walking extends ASTWalker<Void> {
+        private long nodes = 0;
+
+        long count(Program program) {
+            walk(program);
+            return nodes;
+        }
+
+        @Override
+        protected boolean pre(ASTNode node) {
+            nodes++;
+            return true;
+        }
+
+        @Override
+        protected Void post(ASTNode node) {
+            return null;
+        }
+    }
+
+    /*
+     * Counts the nodes going over the children of each in its visit method, the way the passes that have to be fast
+     * do. How a child is gone over is left to the subclass. The hooks count the nodes walked, if any are.
+     */
+    private abstract static class Counting extends ASTWalker<Void> {
+        long nodes = 0;
+
+        long count(Program program) {
+            program.accept(this);
+            return nodes;
+        }
+
+        abstract void go(ASTNode child);
+
+        @Override
+        protected boolean pre(ASTNode node) {
+            nodes++;
+            return true;
+        }
+
+        @Override
+        protected Void post(ASTNode node) {
+            return null;
+        }
+
+        @Override
+        public Void visitBaseType(BaseType bt) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitPointerType(PointerType pt) {
+            nodes++;
+            go(pt.type);
+            return null;
+        }
+
+        @Override
+        public Void visitStructType(StructType st) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitArrayType(ArrayType at) {
+            nodes++;
+            go(at.type);
+            return null;
+        }
+
+        @Override
+        public Void visitIntLiteral(IntLiteral i) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitStrLiteral(StrLiteral s) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitChrLiteral(ChrLiteral c) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitVarExpr(VarExpr v) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitFunCallExpr(FunCallExpr f) {
+            nodes++;
+            for (Expr e : f.params)
+                go(e);
+            return null;
+        }
+
+        @Override
+        public Void visitBinOp(BinOp bo) {
+            nodes++;
+            go(bo.lhs);
+            go(bo.op);
+            go(bo.rhs);
+            return null;
+        }
+
+        @Override
+        public Void visitOp(Op op) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitArrayAccessExpr(ArrayAccessExpr aa) {
+            nodes++;
+            go(aa.array);
+            go(aa.index);
+            return null;
+        }
+
+        @Override
+        public Void visitFieldAccessExpr(FieldAccessExpr fa) {
+            nodes++;
+            go(fa.structure);
+            return null;
+        }
+
+        @Override
+        public Void visitValueAtExpr(ValueAtExpr va) {
+            nodes++;
+            go(va.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitSizeOfExpr(SizeOfExpr so) {
+            nodes++;
+            go(so.type);
+            return null;
+        }
+
+        @Override
+        public Void visitTypecastExpr(TypecastExpr t) {
+            nodes++;
+            go(t.type);
+            go(t.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitExprStmt(ExprStmt es) {
+            nodes++;
+            go(es.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(While w) {
+            nodes++;
+            go(w.expr);
+            go(w.stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIf(If i) {
+            nodes++;
+            go(i.expr);
+            go(i.stmt1);
+            if (i.stmt2 != null)
+                go(i.stmt2);
+            return null;
+        }
+
+        @Override
+        public Void visitAssign(Assign a) {
+            nodes++;
+            go(a.expr1);
+            go(a.expr2);
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(Return r) {
+            nodes++;
+            if (r.expr != null)
+                go(r.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(Block b) {
+            nodes++;
+            for (VarDecl vd : b.params)
+                go(vd);
+            for (Stmt s : b.stmts)
+                go(s);
+            return null;
+        }
+
+        @Override
+        public Void visitProgram(Program p) {
+            nodes++;
+            for (StructTypeDecl std : p.structTypeDecls)
+                go(std);
+            for (VarDecl vd : p.varDecls)
+                go(vd);
+            for (FunDecl fd : p.funDecls)
+                go(fd);
+            return null;
+        }
+
+        @Override
+        public Void visitStructTypeDecl(StructTypeDecl st) {
+            nodes++;
+            go(st.structType);
+            for (VarDecl vd : st.params)
+                go(vd);
+            return null;
+        }
+
+        @Override
+        public Void visitVarDecl(VarDecl vd) {
+            nodes++;
+            go(vd.type);
+            return null;
+        }
+
+        @Override
+        public Void visitFunDecl(FunDecl fd) {
+            nodes++;
+            go(fd.type);
+            for (VarDecl vd : fd.params)
+                go(vd);
+            go(fd.getBlock());
+            return null;
+        }
+    }
+
+    // recursing through accept all the way down
+    private static final class Accepting extends Counting {
+        @Override
+        void go(ASTNode child) {
+            child.accept(this);
+        }
+    }
+
+    // through visit(), which walks what is nested too deep
+    private static final class Visiting extends Counting {
+        @Override
+        void go(ASTNode child) {
+            visit(child);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package ast;
+
+import lexer.Scanner;
+import lexer.Tokeniser;
+import parser.HeaderCache;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that ASTReader gives back the program ASTWriter wrote, and nothing else:
+ *
+ *   - each program in tests/ that parses, before and after the semantic analysis, prints the same with ASTPrinter once
+ *     written and read back, and is written again to the same bytes, declaration references and types included;
+ *   - an analysed program read back, or copied, is analysed again with the same errors, the built-in functions it
+ *     has been given not being added twice;
+ *   - the encoding of each, cut short at any point, with a byte changed, or with bytes after it, is rejected with an
+ *     IOException rather than read in part;
+ *   - a header kept by HeaderCache whose cache file has been damaged is parsed again.
+ */
+public class ASTWriterTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        File[] files = new File(args.length > 0 ? args[0] : "tests").listFiles((dir, name) -> name.endsWith(".c"));
+        Arrays.sort(files);
+        Random random = new Random(42);
+        for (File file : files) {
+            Program program = parse(file);
+            if (program == null)
+                continue;
+            byte[] parsed = roundTrip(file.getName(), program);
+            checkRejected(file.getName(), parsed, random);
+            int errors = analyze(program);
+            byte[] analysed = roundTrip(file.getName() + " after the semantic analysis", program);
+            checkAnalysedAgain(file.getName(), new ASTReader(new ByteArrayInputStream(analysed)).read(), errors);
+            checkAnalysedAgain(file.getName() + " copied", (Program) program.accept(new ASTCopier(program.ids)), errors);
+        }
+        checkHeaderCache();
+
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static Program parse(File file) throws IOException {
+        Program[] program = new Program[1];
+        Scanner scanner = new Scanner(file);
+        quietly(() -> {
+            Parser parser = new Parser(new Tokeniser(scanner));
+            program[0] = parser.parse();
+            if (parser.getErrorCount() > 0)
+                program[0] = null;
+        });
+        return program[0];
+    }
+
+    // the encoding of the program, once checked
+    private static byte[] roundTrip(String name, Program program) throws IOException {
+        byte[] bytes = write(program);
+        Program read;
+        try {
+            read = new ASTReader(new ByteArrayInputStream(bytes)).read();
+        } catch (IOException e) {
+            fail(name + ": " + e.getMessage());
+            return bytes;
+        }
+        if (!print(read).equals(print(program)))
+            fail(name + ": prints as\n" + print(read) + "\nexpected\n" + print(program));
+        else if (!Arrays.equals(write(read), bytes))
+            fail(name + ": is not written again to the same bytes");
+        return bytes;
+    }
+
+    private static int analyze(Program program) {
+        int[] errors = new int[1];
+        quietly(() -> errors[0] = new SemanticAnalyzer().analyze(program));
+        return errors[0];
+    }
+
+    private static void checkAnalysedAgain(String name, Program program, int errors) {
+        int functions = program.funDecls.size();
+        int again = analyze(program);
+        if (program.funDecls.size() != functions)
+            fail(name + ": analysed again, has " + program.funDecls.size() + " functions, expected " + functions);
+        else if (again != errors)
+            fail(name + ": analysed again, " + again + " errors, expected " + errors);
+    }
+
+    private static void checkRejected(String name, byte[] bytes, Random random) {
+        for (int length = 0; length < bytes.length; length++)
+            expectRejected(name + " cut to " + length + " bytes", Arrays.copyOf(bytes, length));
+        for (int n = 0; n < 200; n++) {
+            byte[] changed = bytes.clone();
+            int i = random.nextInt(changed.length);
+            changed[i] ^= 1 + random.nextInt(255);
+            expectRejected(name + " with byte " + i + " changed", changed);
+        }
+        byte[] longer = Arrays.copyOf(bytes, bytes.length + 1);
+        expectRejected(name + " followed by a byte", longer);
+    }
+
+    private static void expectRejected(String what, byte[] bytes) {
+        try {
+            new ASTReader(new ByteArrayInputStream(bytes)).read();
+            fail(what + " is read");
+        } catch (IOException e) {
+            // as it should be
+        } catch (RuntimeException | Error e) {
+            fail(what + " throws " + e);
+        }
+    }
+
+    private static void checkHeaderCache() throws IOException {
+        File directory = Files.createTempDirectory("headers").toFile();
+        File cacheDirectory = new File(directory, "cache");
+        try {
+            Files.write(new File(directory, "point.h").toPath(),
+                    "struct point { int x; int y; };\nint x(struct point* p) { return (*p).x; }\n"
+                            .getBytes(StandardCharsets.UTF_8));
+            String main = "#include \"point.h\"\nint main() { struct point p; p.y = 1; return p.y; }\n";
+            HeaderCache first = new HeaderCache(cacheDirectory);
+            String expected = printWithHeaders(main, directory, first);
+
+            File[] cached = cacheDirectory.listFiles();
+            if (cached == null || cached.length != 1) {
+                fail("the header is not kept in the cache directory");
+                return;
+            }
+            byte[] bytes = Files.readAllBytes(cached[0].toPath());
+            Files.write(cached[0].toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+            HeaderCache second = new HeaderCache(cacheDirectory);
+            String actual = printWithHeaders(main, directory, second);
+            if (second.getParseCount() != 1)
+                fail("a truncated cache file is used");
+            if (!actual.equals(expected))
+                fail("the header parsed again prints as\n" + actual + "\nexpected\n" + expected);
+        } finally {
+            File[] cached = cacheDirectory.listFiles();
+            for (File f : cached != null ? cached : new File[0])
+                f.delete();
+            cacheDirectory.delete();
+            new File(directory, "point.h").delete();
+            directory.delete();
+        }
+    }
+
+    private static String printWithHeaders(String text, File directory, HeaderCache cache) {
+        Parser parser = new Parser(new Tokeniser(new Scanner(text)));
+        parser.setHeaderCache(cache, directory);
+        Program program = parser.parse();
+        if (parser.getErrorCount() > 0)
+            fail("the program including the header does not parse");
+        return print(program);
+    }
+
+    private static byte[] write(Program program) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ASTWriter(out).write(program);
+        return out.toByteArray();
+    }
+
+    private static String print(Program program) {
+        StringWriter sw = new StringWriter();
+        PrintWriter writer = new PrintWriter(sw);
+        program.accept(new ASTPrinter(writer));
+        writer.flush();
+        return sw.toString();
+    }
+
+    // the passes print their errors, which do not matter here
+    private static void quietly(Runnable run) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream none = new PrintStream(new ByteArrayOutputStream());
+        System.setOut(none);
+        System.setErr(none);
+        try {
+            run.run();
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
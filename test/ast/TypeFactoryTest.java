@@ -0,0 +1,98 @@
+package ast;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that TypeFactory makes one object per distinct type, also when several threads ask for the same types at
+ * once, and that it does not keep the types no program uses any more.
+ */
+public class TypeFactoryTest {
+
+    private static final int TYPES = 1000;
+    private static final int THREADS = 4;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        checkSame();
+        checkThreads();
+        checkForgotten();
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static void checkSame() {
+        StructType s = TypeFactory.struct("s");
+        if (TypeFactory.struct("s") != s || TypeFactory.struct("t") == s)
+            fail("struct types by name");
+        if (TypeFactory.pointer(BaseType.INT) != TypeFactory.pointer(BaseType.INT)
+                || TypeFactory.pointer(BaseType.INT) == TypeFactory.pointer(BaseType.CHAR))
+            fail("pointer types by pointed type");
+        if (TypeFactory.pointer(s) != TypeFactory.pointer(TypeFactory.struct("s")))
+            fail("pointers to a struct type");
+        if (TypeFactory.array(BaseType.CHAR, 3) != TypeFactory.array(BaseType.CHAR, 3)
+                || TypeFactory.array(BaseType.CHAR, 3) == TypeFactory.array(BaseType.CHAR, 4)
+                || TypeFactory.array(BaseType.CHAR, 3) == TypeFactory.array(BaseType.INT, 3))
+            fail("array types by element type and size");
+        PointerType p = TypeFactory.pointer(TypeFactory.pointer(BaseType.INT));
+        if (TypeFactory.array(p, 2) != TypeFactory.array(TypeFactory.pointer(TypeFactory.pointer(BaseType.INT)), 2))
+            fail("arrays of pointers to pointers");
+        if (!s.equals(TypeFactory.struct("s")) || p.equals(TypeFactory.pointer(BaseType.INT)))
+            fail("equals() is not ==");
+    }
+
+    // each thread makes the same types, in its own order, and must get the same objects as the others
+    private static void checkThreads() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Type[]>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                Type[] types = new Type[TYPES];
+                for (int n = 0; n < TYPES; n++) {
+                    int i = (n * 7 + thread * 13) % TYPES;
+                    StructType struct = TypeFactory.struct("threads" + i % 10);
+                    types[i] = TypeFactory.array(TypeFactory.pointer(struct), i);
+                }
+                return types;
+            }));
+        }
+        Type[] first = results.get(0).get();
+        for (Future<Type[]> result : results) {
+            Type[] types = result.get();
+            for (int i = 0; i < TYPES; i++)
+                if (types[i] != first[i]) {
+                    fail("two threads got different objects for the array of " + i + " pointers");
+                    break;
+                }
+        }
+        pool.shutdown();
+    }
+
+    // a type no longer used is collected, and asking for it again makes it anew
+    private static void checkForgotten() {
+        WeakReference<Type> unused = new WeakReference<>(TypeFactory.array(TypeFactory.struct("unused"), 12345));
+        for (int i = 0; i < 10 && unused.get() != null; i++) {
+            for (int n = 0; n < 10000; n++)
+                TypeFactory.pointer(TypeFactory.struct("garbage" + n));
+            System.gc();
+        }
+        if (unused.get() != null)
+            fail("an unused type is kept");
+        ArrayType again = TypeFactory.array(TypeFactory.struct("unused"), 12345);
+        if (again != TypeFactory.array(TypeFactory.struct("unused"), 12345))
+            fail("a type made again after it was collected is not kept while used");
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
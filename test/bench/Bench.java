@@ -0,0 +1,78 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * A small benchmark harness in the manner of JMH, for the *Bench classes under test/: each operation is run for a
+ * number of warm-up iterations, so that it has been compiled, and then for a number of measured ones, of which the best
+ * and the median rate are reported, along with the bytes allocated per unit of work in the best one. An iteration
+ * repeats the operation for at least ITERATION_NANOS, so that short operations are not timed one by one. What each
+ * operation returns is folded into a sink, so that its work cannot be optimised away. test/run-benchmarks.sh runs
+ * each benchmark in a JVM of its own.
+ */
+public final class Bench {
+
+    public interface Operation {
+        /** Does one iteration of the work and returns something computed from it, e.g. a count. */
+        long run() throws Exception;
+    }
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 200_000_000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static long sink;
+
+    private Bench() {
+    }
+
+    /** The bytes allocated so far by the current thread, or -1 if the JVM does not count them. */
+    public static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    /**
+     * Runs op and prints one line: its label, the best and median rate of units (of which each call of op does units)
+     * per second over the measured iterations, and the bytes allocated per unit in the best one. Returns the best rate.
+     */
+    public static double run(String label, long units, String unit, Operation op) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            iteration(op);
+        double[] rates = new double[MEASURED_ITERATIONS];
+        double bestRate = 0;
+        double bestAllocated = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            long ops = iteration(op);
+            rates[i] = ops * units * 1e9 / (System.nanoTime() - start);
+            allocated = allocatedBytes() - allocated;
+            if (rates[i] > bestRate) {
+                bestRate = rates[i];
+                bestAllocated = (double) allocated / (ops * units);
+            }
+        }
+        Arrays.sort(rates);
+        System.out.printf("%-44s %,14.0f %s/s best %,14.0f %s/s median %,10.1f B/%s%n", label, bestRate, unit,
+                          rates[MEASURED_ITERATIONS / 2], unit, allocatedBytes() < 0 ? Double.NaN : bestAllocated,
+                          unit);
+        return bestRate;
+    }
+
+    // runs op for at least ITERATION_NANOS, returns how many times
+    private static long iteration(Operation op) throws Exception {
+        long start = System.nanoTime();
+        long ops = 0;
+        do {
+            sink += op.run();
+            ops++;
+        } while (System.nanoTime() - start < ITERATION_NANOS);
+        return ops;
+    }
+}
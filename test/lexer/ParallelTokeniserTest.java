@@ -0,0 +1,94 @@
+package lexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that ParallelTokeniser gives the stream Tokeniser.tokenise() gives: the same tokens, with the same data and
+ * positions, and the same errors at the same tokens. The programs in tests/, and random ones made mostly of
+ * comments, strings and character literals, are lexed in chunks of a few characters, so that the cuts fall inside
+ * each of those as well as between tokens.
+ */
+public class ParallelTokeniserTest {
+
+    private static final int[] CHUNK_SIZES = { 1, 3, 7, 16, 64, 1024 };
+
+    private static final String[] PIECES = {
+        "/* a comment */", "/* a comment\n over\n lines */", "/**/", "/* ** / * */", "/*\r\n*/", "// to the end\n",
+        "//\n", "\"a string\"", "\"esc \\\" \\n \\\\\"", "\"\"", "'a'", "'\\n'", "'\\''", "'\\\\'", "'\"'", "' '",
+        "x", "id_1", "int", "char", "while", "return", "struct", "sizeof", "#include", "0", "123", "=", "==", "!=", "<=",
+        ">=", "<", ">", "&&", "||", "+", "-", "*", "/", "%", ".", ",", ";", "(", ")", "{", "}", "[", "]",
+        " ", "  ", "\t", "\n", "\n", "\r\n", "\r", "\n\n\n",
+        // broken ones, for the errors
+        "@", "$", "!", "&", "|", "'ab'", "'", "\"unterminated\n", "\"", "/* not closed",
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        File[] files = new File(args.length > 0 ? args[0] : "tests").listFiles((dir, name) -> name.endsWith(".c"));
+        Arrays.sort(files);
+        for (File file : files) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            for (int chunkSize : CHUNK_SIZES)
+                compare(file.getName(), text, chunkSize, pool);
+        }
+        Random random = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            String text = randomProgram(random);
+            for (int chunkSize : CHUNK_SIZES)
+                compare("random program " + n, text, chunkSize, pool);
+        }
+        pool.shutdown();
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static String randomProgram(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int pieces = 20 + random.nextInt(400);
+        for (int i = 0; i < pieces; i++)
+            sb.append(PIECES[random.nextInt(PIECES.length)]);
+        return sb.toString();
+    }
+
+    private static void compare(String name, String text, int chunkSize, ForkJoinPool pool) {
+        TokenStream sequential = new Tokeniser(new Scanner(text)).tokenise();
+        TokenStream parallel = new ParallelTokeniser(new Scanner(text), pool, chunkSize).tokenise();
+
+        String what = name + ", chunks of " + chunkSize + ": ";
+        int size = Math.min(sequential.size(), parallel.size());
+        for (int i = 0; i < size; i++) {
+            if (sequential.tokenClass(i) != parallel.tokenClass(i) || !sequential.data(i).equals(parallel.data(i))
+                    || sequential.position(i) != parallel.position(i)) {
+                fail(what + "token " + i + " is " + describe(parallel, i) + ", expected " + describe(sequential, i));
+                return;
+            }
+            if (!String.valueOf(sequential.error(i)).equals(String.valueOf(parallel.error(i)))) {
+                fail(what + "error at token " + i + " is " + parallel.error(i) + ", expected " + sequential.error(i));
+                return;
+            }
+        }
+        if (sequential.size() != parallel.size())
+            fail(what + parallel.size() + " tokens, expected " + sequential.size());
+        else if (sequential.getErrorCount() != parallel.getErrorCount())
+            fail(what + parallel.getErrorCount() + " errors, expected " + sequential.getErrorCount());
+    }
+
+    private static String describe(TokenStream tokens, int i) {
+        return tokens.token(i) + " at " + tokens.token(i).getPosition();
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
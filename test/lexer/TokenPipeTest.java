@@ -0,0 +1,73 @@
+package lexer;
+
+import parser.Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Checks that the lexing thread of a TokenPipe ends once its consumer is done with it, even when the consumer stops
+ * long before EOF and the thread is waiting for it to release a slot: when the pipe is closed after a few tokens, and
+ * when a Parser gives up at its first error.
+ */
+public class TokenPipeTest {
+
+    private static final int FUNCTIONS = 20000; // well over the tokens the pipe holds at once
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        String text = program();
+
+        Tokeniser tokeniser = new Tokeniser(new TokenPipe(new Scanner(text)).start());
+        for (int i = 0; i < 10; i++)
+            tokeniser.nextToken();
+        Thread producer = producer();
+        tokeniser.close();
+        awaitEnd(producer, "closed after 10 tokens");
+
+        Parser parser = new Parser(new Tokeniser(new TokenPipe(new Scanner("int ; " + text)).start()));
+        parser.setMaxErrors(1);
+        producer = producer();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            parser.parse();
+        } finally {
+            System.setOut(out);
+        }
+        awaitEnd(producer, "parser stopped at its first error");
+
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static String program() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < FUNCTIONS; i++)
+            sb.append("int f").append(i).append("(int a) { return a + 1; }\n");
+        return sb.toString();
+    }
+
+    // the lexing thread of the pipe just started, there is one at a time
+    private static Thread producer() {
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals("tokeniser") && thread.isAlive())
+                return thread;
+        throw new IllegalStateException("no lexing thread");
+    }
+
+    private static void awaitEnd(Thread producer, String what) throws InterruptedException {
+        producer.join(TIMEOUT_MILLIS);
+        if (producer.isAlive())
+            fail(what + ": the lexing thread is still running");
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
@@ -0,0 +1,72 @@
+package lexer;
+
+import bench.Bench;
+
+import java.util.Random;
+
+/**
+ * Measures how many tokens a second Tokeniser.nextToken() produces from an identifier-heavy program: declarations and
+ * statements in which most tokens are identifiers, keywords or types, so that the time goes into scanning words and
+ * telling keywords from names. A second program of keywords and types only isolates the keyword classification.
+ *
+ * Results on one CPU (JDK 17), with this class compiled against the compiler before and after keywords were classified
+ * on the raw character range rather than by comparing a String against each of them, and against the compiler as it is
+ * now:
+ *
+ *   identifier-heavy program, before   33.5M tokens/s best, 89.6 B/token
+ *   identifier-heavy program, after    36.3M tokens/s best, 78.6 B/token
+ *   identifier-heavy program, now      37.1M tokens/s best, 62.6 B/token
+ *   keywords only, before              26.4M tokens/s best, 106.9 B/token
+ *   keywords only, after               31.2M tokens/s best, 58.9 B/token
+ *   keywords only, now                 34.4M tokens/s best, 42.9 B/token
+ */
+public class TokeniserBench {
+
+    private static final String[] WORDS = {
+        "int", "char", "void", "struct", "while", "if", "else", "return", "sizeof",
+        "i", "n", "count", "node", "next", "value", "buffer_size", "list_head", "x1", "_tmp", "read_char", "total",
+    };
+
+    private static final String[] KEYWORDS = {
+        "int", "char", "void", "struct", "while", "if", "else", "return", "sizeof",
+    };
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+        measure("identifier-heavy program", identifierHeavyProgram(random, 1 << 20));
+        measure("keywords only", words(random, KEYWORDS, 1 << 20));
+    }
+
+    private static void measure(String label, String text) throws Exception {
+        long tokens = lex(text);
+        Bench.run(label, tokens, "token", () -> lex(text));
+    }
+
+    private static long lex(String text) {
+        Tokeniser tokeniser = new Tokeniser(new Scanner(text));
+        long tokens = 0;
+        while (tokeniser.nextToken().tokenClass != Token.TokenClass.EOF)
+            tokens++;
+        return tokens;
+    }
+
+    // statements like "int count; node = next(value, i);" over about size characters
+    private static String identifierHeavyProgram(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            for (int i = 2 + random.nextInt(5); i > 0; i--)
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            sb.append(random.nextBoolean() ? "= " : "( ");
+            sb.append(WORDS[9 + random.nextInt(WORDS.length - 9)]);
+            sb.append(random.nextBoolean() ? ";\n" : ");\n");
+        }
+        return sb.toString();
+    }
+
+    private static String words(Random random, String[] words, int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size)
+            sb.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package lexer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Lexes 50 MB of white space and comments, with a token every few megabytes, on a thread with a small stack: the
+ * stack the Tokeniser needs must not grow with the amount of trivia between two tokens. The file is lexed token by
+ * token and in one go into a TokenStream, from a buffer and from a mapped file, and each time must give the same
+ * tokens at the same lines as a file with the same tokens and the trivia counted in lines only.
+ */
+public class TriviaStressTest {
+
+    private static final long SIZE = 50L << 20;
+    private static final long TOKEN_EVERY = 4 << 20;
+    private static final long STACK_SIZE = 256 << 10;
+
+    private static final String[] TRIVIA = {
+        " ", "  ", "\t", "\n", "\r\n", "\r", "// a comment to the end of the line\n", "//\n", "/* a comment */",
+        "/* a comment\n over\n lines */", "/**/", "/* ** / * */", "/*/ still a comment */",
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("trivia", ".c");
+        file.deleteOnExit();
+        int tokens = write(file, new Random(42));
+        for (boolean mapped : new boolean[] { false, true }) {
+            check(file, mapped, false, tokens);
+            check(file, mapped, true, tokens);
+        }
+        file.delete();
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    // writes SIZE bytes of trivia with the identifier t<n> on line n every TOKEN_EVERY bytes, returns how many
+    private static int write(File file, Random random) throws IOException {
+        long written = 0;
+        long nextToken = TOKEN_EVERY;
+        int lines = 1;
+        int tokens = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            while (written < SIZE) {
+                String trivia = TRIVIA[random.nextInt(TRIVIA.length)];
+                out.write(trivia);
+                written += trivia.length();
+                lines += lineBreaks(trivia);
+                if (written >= nextToken) {
+                    // on a line of its own, the one after the line break before it
+                    String token = "\nt" + (lines + 1) + "\n";
+                    out.write(token);
+                    written += token.length();
+                    lines += 2;
+                    tokens++;
+                    nextToken += TOKEN_EVERY;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    // as the Scanner counts them, each '\r' and each '\n' starting a line
+    private static int lineBreaks(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n' || s.charAt(i) == '\r')
+                n++;
+        }
+        return n;
+    }
+
+    private static void check(File file, boolean mapped, boolean stream, int tokens) throws Exception {
+        String what = (mapped ? "mapped file" : "buffered file") + (stream ? ", token stream" : ", token by token");
+        String[] failure = new String[1];
+        Thread lexer = new Thread(null, () -> {
+            try {
+                failure[0] = lex(new Scanner(file, mapped), stream, tokens);
+            } catch (StackOverflowError e) {
+                failure[0] = "stack overflow";
+            } catch (IOException e) {
+                failure[0] = e.toString();
+            }
+        }, "lexer", STACK_SIZE);
+        lexer.start();
+        lexer.join();
+        if (failure[0] != null) {
+            System.out.println("FAIL " + what + ": " + failure[0]);
+            failures++;
+        }
+    }
+
+    // returns why the tokens are not those written, or null if they are
+    private static String lex(Scanner scanner, boolean stream, int tokens) {
+        Tokeniser tokeniser = new Tokeniser(scanner);
+        if (stream)
+            tokeniser = new Tokeniser(tokeniser.tokenise());
+        for (int n = 0; n < tokens; n++) {
+            Token t = tokeniser.nextToken();
+            String expected = "t" + t.getLine();
+            if (t.tokenClass != Token.TokenClass.IDENTIFIER || !expected.equals(t.data))
+                return "token " + n + " is " + t + " at " + t.getPosition() + ", expected " + expected;
+        }
+        Token t = tokeniser.nextToken();
+        if (t.tokenClass != Token.TokenClass.EOF)
+            return "expected the end of the file, got " + t + " at " + t.getPosition();
+        if (tokeniser.getErrorCount() != 0)
+            return tokeniser.getErrorCount() + " errors";
+        return null;
+    }
+}
@@ -0,0 +1,538 @@
+package parser;
+
+import lexer.Scanner;
+import lexer.Token.TokenClass;
+import lexer.Tokeniser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the parser's own copies of the grammar against grammar/ebnf.txt, so that they cannot drift apart unnoticed:
+ *
+ *   - the token-class masks of TokenSets are those of the type and binary operator rules of ebnf.txt;
+ *   - ParseTable's rules use the same terminals as ebnf.txt, and every sentence they derive is one of ebnf.txt (checked
+ *     with an Earley recogniser, which takes ebnf.txt as it is, left recursion, ambiguity and all);
+ *   - every sentence of ebnf.txt parses, with the recursive-descent parser in both of its expression modes and with the
+ *     table-driven one.
+ *
+ * The parser has always accepted a little less than ebnf.txt: a primary is followed by at most one postfix operator
+ * ("[" exp "]" or "." IDENT), and sizeof by none, so a[1][2] and sizeof(int).x are syntax errors. Sentences of ebnf.txt
+ * with either are left out of the last check, see isKnownDifference.
+ */
+public class GrammarTest {
+
+    private static final int SENTENCES = 400;
+    private static final int MAX_TOKENS = 60;
+    private static final int MAX_DEPTH = 40;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        Bnf ebnf = readEbnf(args.length > 0 ? args[0] : "grammar/ebnf.txt");
+        Bnf table = readParseTable();
+
+        checkTokenSets(ebnf);
+
+        if (!ebnf.terminals().equals(table.terminals()))
+            fail("ParseTable uses the terminals " + table.terminals() + ", ebnf.txt " + ebnf.terminals());
+
+        Random random = new Random(42);
+        for (int n = 0; n < SENTENCES; n++) {
+            List<TokenClass> sentence = table.generate("program", random);
+            if (!ebnf.recognises("program", sentence))
+                fail("ParseTable derives " + render(sentence) + ", which is not a program of ebnf.txt");
+        }
+
+        int checked = 0;
+        for (int n = 0; checked < SENTENCES; n++) {
+            List<TokenClass> sentence = ebnf.generate("program", random);
+            if (isKnownDifference(sentence))
+                continue;
+            checked++;
+            String text = render(sentence);
+            for (String mode : new String[] { "recursive descent", "precedence climbing", "table driven" }) {
+                String errors = parse(text, mode);
+                if (errors != null)
+                    fail("the " + mode + " parser rejects " + text + "\n" + errors);
+            }
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static void checkTokenSets(Bnf ebnf) {
+        // type ::= ("int" | "char" | "void" | structtype) ["*"]
+        EnumSet<TokenClass> baseTypes = EnumSet.noneOf(TokenClass.class);
+        for (List<Object> alt : ebnf.rules.get(ebnf.groupIn("type")))
+            if (alt.size() == 1 && alt.get(0) instanceof TokenClass)
+                baseTypes.add((TokenClass) alt.get(0));
+        expect("TokenSets.BASE_TYPES", TokenSets.BASE_TYPES, baseTypes);
+        expect("TokenSets.FIRST_TYPE", TokenSets.FIRST_TYPE, ebnf.first("type"));
+
+        // exp ::= ... | exp (">" | "<" | ... | "&&") exp | ...
+        EnumSet<TokenClass> operators = EnumSet.noneOf(TokenClass.class);
+        for (List<Object> alt : ebnf.rules.get("exp"))
+            if (alt.size() == 3 && "exp".equals(alt.get(0)) && "exp".equals(alt.get(2)))
+                for (List<Object> op : ebnf.rules.get((String) alt.get(1)))
+                    operators.add((TokenClass) op.get(0));
+        long[] levels = { TokenSets.EQ_OPS, TokenSets.REL_OPS, TokenSets.ADD_OPS, TokenSets.MUL_OPS,
+                          TokenSets.of(TokenClass.AND), TokenSets.of(TokenClass.OR) };
+        long all = 0;
+        for (long level : levels) {
+            if ((all & level) != 0)
+                fail("an operator is in more than one precedence level of TokenSets");
+            all |= level;
+        }
+        expect("the binary operators of TokenSets", all, operators);
+    }
+
+    private static void expect(String what, long set, Set<TokenClass> expected) {
+        EnumSet<TokenClass> actual = EnumSet.noneOf(TokenClass.class);
+        for (TokenClass c : TokenClass.values())
+            if (TokenSets.contains(set, c))
+                actual.add(c);
+        if (!actual.equals(expected))
+            fail(what + " is " + actual + ", ebnf.txt gives " + expected);
+    }
+
+    // a[1][2], a.b[1], sizeof(int).x ...: a postfix operator right after another one, or after sizeof
+    private static boolean isKnownDifference(List<TokenClass> sentence) {
+        List<Boolean> sizeOfParens = new ArrayList<>(); // whether each open parenthesis is the one of a sizeof
+        boolean afterPostfix = false;
+        for (int i = 0; i < sentence.size(); i++) {
+            TokenClass c = sentence.get(i);
+            if ((c == TokenClass.LSBR || c == TokenClass.DOT) && afterPostfix)
+                return true;
+            afterPostfix = false;
+            if (c == TokenClass.LPAR) {
+                sizeOfParens.add(i > 0 && sentence.get(i - 1) == TokenClass.SIZEOF);
+            } else if (c == TokenClass.RPAR && !sizeOfParens.isEmpty()) {
+                afterPostfix = sizeOfParens.remove(sizeOfParens.size() - 1);
+            } else if (c == TokenClass.RSBR) {
+                afterPostfix = true;
+            } else if (c == TokenClass.IDENTIFIER && i > 0 && sentence.get(i - 1) == TokenClass.DOT) {
+                afterPostfix = true;
+            }
+        }
+        return false;
+    }
+
+    // the syntax errors the parser reports for the text, or null if there are none
+    private static String parse(String text, String mode) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(errors, true));
+        try {
+            Parser parser = new Parser(new Tokeniser(new Scanner(text)));
+            parser.setPrecedenceClimbing(mode.equals("precedence climbing"));
+            parser.setTableDriven(mode.equals("table driven"));
+            parser.parse();
+            return parser.getErrorCount() == 0 ? null : errors.toString();
+        } catch (RuntimeException e) {
+            return e.toString();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    // the spelling of each token class with a fixed one, from the literals of ebnf.txt
+    private static final Map<TokenClass, String> SPELLINGS = new EnumMap<>(TokenClass.class);
+
+    private static String render(List<TokenClass> sentence) {
+        StringBuilder sb = new StringBuilder();
+        int names = 0;
+        for (TokenClass c : sentence) {
+            switch (c) {
+                case IDENTIFIER:     sb.append((char) ('a' + names++ % 26)); break;
+                case INT_LITERAL:    sb.append("1"); break;
+                case CHAR_LITERAL:   sb.append("'c'"); break;
+                case STRING_LITERAL: sb.append("\"s\""); break;
+                case EOF:            continue;
+                default:             sb.append(SPELLINGS.get(c));
+            }
+            sb.append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    /*
+     * A grammar in BNF: each nonterminal, a String, has a list of alternatives, each a list of symbols, which are
+     * nonterminals or TokenClass terminals.
+     */
+    private static final class Bnf {
+        final Map<String, List<List<Object>>> rules = new LinkedHashMap<>();
+        private final Map<String, Integer> shortest = new HashMap<>();
+        private final Set<String> nullable = new HashSet<>();
+        private int emitted;
+
+        void add(String nonterminal, List<Object> alternative) {
+            rules.computeIfAbsent(nonterminal, k -> new ArrayList<>()).add(alternative);
+        }
+
+        EnumSet<TokenClass> terminals() {
+            EnumSet<TokenClass> terminals = EnumSet.noneOf(TokenClass.class);
+            for (List<List<Object>> alts : rules.values())
+                for (List<Object> alt : alts)
+                    for (Object symbol : alt)
+                        if (symbol instanceof TokenClass)
+                            terminals.add((TokenClass) symbol);
+            return terminals;
+        }
+
+        // the nonterminal made for the first group of the rule
+        String groupIn(String nonterminal) {
+            for (Object symbol : rules.get(nonterminal).get(0))
+                if (symbol instanceof String && ((String) symbol).startsWith(nonterminal + "'"))
+                    return (String) symbol;
+            throw new IllegalStateException("No group in " + nonterminal);
+        }
+
+        // called once all the rules are in
+        void analyse() {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Map.Entry<String, List<List<Object>>> rule : rules.entrySet()) {
+                    for (List<Object> alt : rule.getValue()) {
+                        int length = length(alt);
+                        Integer known = shortest.get(rule.getKey());
+                        if (length < Integer.MAX_VALUE && (known == null || length < known)) {
+                            shortest.put(rule.getKey(), length);
+                            changed = true;
+                        }
+                        if (length == 0 && nullable.add(rule.getKey()))
+                            changed = true;
+                    }
+                }
+            }
+            for (String nonterminal : rules.keySet())
+                if (!shortest.containsKey(nonterminal))
+                    throw new IllegalStateException(nonterminal + " derives no sentence");
+        }
+
+        private int length(List<Object> alt) {
+            int length = 0;
+            for (Object symbol : alt) {
+                Integer l = symbol instanceof TokenClass ? Integer.valueOf(1) : shortest.get(symbol);
+                if (l == null)
+                    return Integer.MAX_VALUE;
+                length += l;
+            }
+            return length;
+        }
+
+        EnumSet<TokenClass> first(String nonterminal) {
+            EnumSet<TokenClass> first = EnumSet.noneOf(TokenClass.class);
+            first(nonterminal, first, new HashSet<>());
+            return first;
+        }
+
+        private void first(String nonterminal, EnumSet<TokenClass> first, Set<String> seen) {
+            if (!seen.add(nonterminal))
+                return;
+            for (List<Object> alt : rules.get(nonterminal)) {
+                for (Object symbol : alt) {
+                    if (symbol instanceof TokenClass) {
+                        first.add((TokenClass) symbol);
+                        break;
+                    }
+                    first((String) symbol, first, seen);
+                    if (!nullable.contains(symbol))
+                        break;
+                }
+            }
+        }
+
+        // a random sentence, its size kept down by taking the shortest alternatives once it has grown large or deep
+        List<TokenClass> generate(String start, Random random) {
+            List<TokenClass> sentence = new ArrayList<>();
+            emitted = 0;
+            generate(start, random, 0, sentence);
+            return sentence;
+        }
+
+        private void generate(Object symbol, Random random, int depth, List<TokenClass> sentence) {
+            if (symbol instanceof TokenClass) {
+                sentence.add((TokenClass) symbol);
+                emitted++;
+                return;
+            }
+            List<List<Object>> alts = rules.get(symbol);
+            List<Object> alt;
+            if (emitted > MAX_TOKENS || depth > MAX_DEPTH) {
+                alt = alts.get(0);
+                for (List<Object> a : alts)
+                    if (length(a) < length(alt))
+                        alt = a;
+            } else {
+                alt = alts.get(random.nextInt(alts.size()));
+            }
+            for (Object s : alt)
+                generate(s, random, depth + 1, sentence);
+        }
+
+        boolean recognises(String start, List<TokenClass> input) {
+            List<List<Item>> sets = new ArrayList<>();
+            List<Set<Item>> seen = new ArrayList<>();
+            for (int i = 0; i <= input.size(); i++) {
+                sets.add(new ArrayList<>());
+                seen.add(new HashSet<>());
+            }
+            for (List<Object> alt : rules.get(start))
+                add(new Item(start, alt, 0, 0), 0, sets, seen);
+            for (int i = 0; i <= input.size(); i++) {
+                List<Item> set = sets.get(i);
+                for (int j = 0; j < set.size(); j++) {
+                    Item item = set.get(j);
+                    if (item.dot == item.rhs.size()) {
+                        // complete
+                        for (Item waiting : new ArrayList<>(sets.get(item.origin)))
+                            if (waiting.dot < waiting.rhs.size() && item.lhs.equals(waiting.rhs.get(waiting.dot)))
+                                add(waiting.advance(), i, sets, seen);
+                        continue;
+                    }
+                    Object next = item.rhs.get(item.dot);
+                    if (next instanceof TokenClass) {
+                        // scan
+                        if (i < input.size() && input.get(i) == next)
+                            add(item.advance(), i + 1, sets, seen);
+                    } else {
+                        // predict, moving past a nonterminal that can be empty at once (Aycock and Horspool)
+                        for (List<Object> alt : rules.get(next))
+                            add(new Item((String) next, alt, 0, i), i, sets, seen);
+                        if (nullable.contains(next))
+                            add(item.advance(), i, sets, seen);
+                    }
+                }
+            }
+            for (Item item : sets.get(input.size()))
+                if (item.lhs.equals(start) && item.origin == 0 && item.dot == item.rhs.size())
+                    return true;
+            return false;
+        }
+
+        private static void add(Item item, int i, List<List<Item>> sets, List<Set<Item>> seen) {
+            if (seen.get(i).add(item))
+                sets.get(i).add(item);
+        }
+    }
+
+    private static final class Item {
+        final String lhs;
+        final List<Object> rhs;
+        final int dot;
+        final int origin;
+
+        Item(String lhs, List<Object> rhs, int dot, int origin) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.dot = dot;
+            this.origin = origin;
+        }
+
+        Item advance() {
+            return new Item(lhs, rhs, dot + 1, origin);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item))
+                return false;
+            Item other = (Item) o;
+            return rhs == other.rhs && dot == other.dot && origin == other.origin && lhs.equals(other.lhs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lhs, System.identityHashCode(rhs), dot, origin);
+        }
+    }
+
+    /*
+     * The rules of ParseTable, as the tables give them: the alternatives of each nonterminal are the productions its
+     * guards and its PREDICT row lead to. Actions are left out, and so are &TOKEN checks, which consume nothing.
+     */
+    private static Bnf readParseTable() {
+        Bnf bnf = new Bnf();
+        for (int n = 0; n < ParseTable.PREDICT.length; n++) {
+            Set<Integer> productions = new java.util.TreeSet<>();
+            for (int i = 1; i < ParseTable.GUARDED[n].length; i += 2)
+                productions.add(ParseTable.GUARDED[n][i]);
+            for (int p : ParseTable.PREDICT[n])
+                productions.add(p);
+            for (int p : productions) {
+                List<Object> alt = new ArrayList<>();
+                for (int symbol : ParseTable.PRODUCTIONS[p]) {
+                    if (ParseTable.isTerminal(symbol))
+                        alt.add(ParseTable.terminal(symbol));
+                    else if (ParseTable.isNonterminal(symbol))
+                        alt.add(name(ParseTable.nonterminal(symbol)));
+                }
+                bnf.add(name(n), alt);
+            }
+        }
+        bnf.analyse();
+        return bnf;
+    }
+
+    // the start symbol is the first rule of both grammars
+    private static String name(int nonterminal) {
+        return nonterminal == ParseTable.nonterminal(ParseTable.START) ? "program" : "table" + nonterminal;
+    }
+
+    /*
+     * Reads ebnf.txt into BNF: each group, option and repetition becomes a nonterminal of its own, named after the
+     * rule it is in. A rule given twice, as exp is, has the alternatives of both.
+     */
+    private static Bnf readEbnf(String path) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            int i = 0;
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (c == '#') {
+                    break; // a comment, "#include" is quoted
+                } else if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    int end = line.indexOf('"', i + 1);
+                    tokens.add(line.substring(i, end + 1));
+                    i = end + 1;
+                } else if (line.startsWith("::=", i)) {
+                    tokens.add("::=");
+                    i += 3;
+                } else if (Character.isLetter(c) || c == '_') {
+                    int end = i;
+                    while (end < line.length() && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '_'))
+                        end++;
+                    tokens.add(line.substring(i, end));
+                    i = end;
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            }
+        }
+        Bnf bnf = new Bnf();
+        EbnfReader reader = new EbnfReader(tokens, bnf);
+        while (reader.position < tokens.size())
+            reader.rule();
+        bnf.analyse();
+        return bnf;
+    }
+
+    private static final class EbnfReader {
+        final List<String> tokens;
+        final Bnf bnf;
+        int position = 0;
+        String rule;
+        int made;
+
+        EbnfReader(List<String> tokens, Bnf bnf) {
+            this.tokens = tokens;
+            this.bnf = bnf;
+        }
+
+        void rule() {
+            rule = tokens.get(position++);
+            made = bnf.rules.containsKey(rule) ? 100 : 0; // the second exp names its groups apart from the first's
+            expect("::=");
+            for (List<Object> alt : alternatives())
+                bnf.add(rule, alt);
+        }
+
+        private List<List<Object>> alternatives() {
+            List<List<Object>> alts = new ArrayList<>();
+            alts.add(sequence());
+            while (at("|")) {
+                position++;
+                alts.add(sequence());
+            }
+            return alts;
+        }
+
+        private List<Object> sequence() {
+            List<Object> symbols = new ArrayList<>();
+            while (position < tokens.size() && !at("|") && !at(")") && !at("]") && !atRuleStart()) {
+                Object symbol = item();
+                if (at("*") || at("+")) {
+                    String repeated = fresh();
+                    bnf.add(repeated, new ArrayList<>(Arrays.asList(symbol, repeated)));
+                    bnf.add(repeated, new ArrayList<>());
+                    if (tokens.get(position++).equals("+"))
+                        symbols.add(symbol);
+                    symbol = repeated;
+                }
+                symbols.add(symbol);
+            }
+            return symbols;
+        }
+
+        private Object item() {
+            String token = tokens.get(position++);
+            if (token.equals("(") || token.equals("[")) {
+                String group = fresh();
+                for (List<Object> alt : alternatives())
+                    bnf.add(group, alt);
+                if (token.equals("["))
+                    bnf.add(group, new ArrayList<>());
+                expect(token.equals("(") ? ")" : "]");
+                return group;
+            }
+            if (token.startsWith("\"")) {
+                String spelling = token.substring(1, token.length() - 1);
+                TokenClass c = new Tokeniser(new Scanner(spelling)).nextToken().tokenClass;
+                SPELLINGS.put(c, spelling);
+                return c;
+            }
+            if (Character.isUpperCase(token.charAt(0)))
+                return token.equals("IDENT") ? TokenClass.IDENTIFIER : TokenClass.valueOf(token);
+            return token;
+        }
+
+        private String fresh() {
+            return rule + "'" + made++;
+        }
+
+        private boolean at(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        private boolean atRuleStart() {
+            return position + 1 < tokens.size() && tokens.get(position + 1).equals("::=");
+        }
+
+        private void expect(String token) {
+            if (!at(token))
+                throw new IllegalStateException("Expected " + token + " at " + tokens.subList(position,
+                        Math.min(position + 5, tokens.size())) + " in " + rule);
+            position++;
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
@@ -0,0 +1,105 @@
+package parser;
+
+import ast.Program;
+import bench.Bench;
+import lexer.Scanner;
+import lexer.Token;
+import lexer.Tokeniser;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Profiles what the parser allocates per token on an expression-heavy program, where every operand goes through the
+ * predicates of each precedence level (accept on a set of operators, expect ...). Lexing alone is measured too: what
+ * parsing adds on top of it per token is the tree it builds plus any garbage of its own, the tree being the same
+ * whatever the predicates do.
+ *
+ * Results on one CPU (JDK 17), with this class compiled against the compiler before and after the predicates were
+ * given token-class masks rather than varargs arrays of token classes, and against the compiler as it is now:
+ *
+ *   lex only                          55.3 B/token
+ *   lex and parse, before            138.7 B/token, 23.3M tokens/s best
+ *   lex and parse, after              92.5 B/token, 28.8M tokens/s best
+ *   lex and parse, now                75.1 B/token, 32.7M tokens/s best
+ *   retained by the tree              about 23 B/token, every time
+ *
+ * So parsing adds 83 bytes a token before and 37 after: the predicates allocate nothing any more. Of the 37, 14 the
+ * tree did not keep were the copies made by the lists of statements, parameters and declarations, each of which was
+ * built by adding the rest of the list, parsed recursively, to its first element. Now that lists are parsed in loops,
+ * into one list each, parsing adds 20 bytes a token, little more than the tree.
+ */
+public class ParserAllocationBench {
+
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "%", "<", ">", "<=", ">=", "==", "!=", "&&", "||" };
+
+    public static void main(String[] args) throws Exception {
+        String text = expressionHeavyProgram(new Random(42), 400, 20);
+        long tokens = lex(text);
+        Bench.run("lex only", tokens, "token", () -> lex(text));
+        Bench.run("lex and parse", tokens, "token", () -> parse(text));
+        System.out.printf("%-44s %,10.1f B/token%n", "retained by the tree", (double) retained(text) / tokens);
+    }
+
+    // the heap still in use, after a full collection, once the program has been parsed and held on to
+    private static long retained(String text) {
+        long before = usedAfterGc();
+        Program program = new Parser(new Tokeniser(new Scanner(text))).parse();
+        long after = usedAfterGc();
+        Bench.sink += program.funDecls.size();
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long lex(String text) {
+        Tokeniser tokeniser = new Tokeniser(new Scanner(text));
+        long tokens = 0;
+        while (tokeniser.nextToken().tokenClass != Token.TokenClass.EOF)
+            tokens++;
+        return tokens;
+    }
+
+    private static long parse(String text) {
+        Parser parser = new Parser(new Tokeniser(new Scanner(text)));
+        return parser.parse().funDecls.size() + parser.getErrorCount();
+    }
+
+    // functions made of assignments, conditions and returns of random binary expressions
+    static String expressionHeavyProgram(Random random, int functions, int statements) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            sb.append("int f").append(i).append("(int a, int b, int* p) {\n    int x;\n");
+            for (int j = 0; j < statements; j++) {
+                switch (random.nextInt(3)) {
+                    case 0: expression(sb.append("    x = "), random, 3).append(";\n"); break;
+                    case 1: expression(sb.append("    if ("), random, 2).append(") x = 1;\n"); break;
+                    default: expression(sb.append("    while ("), random, 2).append(") x = x - 1;\n"); break;
+                }
+            }
+            expression(sb.append("    return "), random, 3).append(";\n}\n");
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder expression(StringBuilder sb, Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            switch (random.nextInt(5)) {
+                case 0: return sb.append('a');
+                case 1: return sb.append('b');
+                case 2: return sb.append("p[").append(random.nextInt(8)).append(']');
+                case 3: return sb.append(random.nextInt(100));
+                default: return sb.append('x');
+            }
+        }
+        if (random.nextInt(6) == 0)
+            return expression(sb.append('('), random, depth - 1).append(')');
+        expression(sb, random, depth - 1);
+        sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+        return expression(sb, random, depth - 1);
+    }
+}
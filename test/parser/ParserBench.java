@@ -0,0 +1,83 @@
+package parser;
+
+import bench.Bench;
+import lexer.Scanner;
+import lexer.Token;
+import lexer.Tokeniser;
+
+import java.util.Random;
+
+/**
+ * Measures parse throughput, in tokens a second, on a declaration-heavy program: structs, global variables and
+ * functions with parameters and local variables, parsed by a Parser pulling its tokens from a Tokeniser, so through
+ * the lookahead buffer. The time of lexing alone is measured too, what parsing adds is the difference.
+ *
+ * Results on one CPU (JDK 17), with this class compiled against the compiler before and after the lookahead LinkedList
+ * was replaced by a ring buffer, and against the compiler as it is now:
+ *
+ *   lex only                         61.3M tokens/s best, 55.5 B/token
+ *   lex and parse, before            24.2M tokens/s best, 292.4 B/token
+ *   lex and parse, after             25.9M tokens/s best, 264.3 B/token
+ *   lex and parse, now               39.7M tokens/s best, 70.1 B/token
+ *
+ * The ring buffer saves the list node every token took on its way through the lookahead buffer, 28 bytes, and about
+ * 7% of the time. Most of the rest, before lists were parsed in loops, went into copying the lists of declarations:
+ * each was built by adding the rest of the list, parsed recursively, to its first element, so the thousand globals
+ * were copied over and over. Now what parsing adds to lexing is mostly building the tree. Making the suppliers given to
+ * parseItem once per parser, rather than binding a method reference at every item, saves 0.2 B/token and no
+ * measurable time: an item is many tokens long.
+ */
+public class ParserBench {
+
+    private static final String[] TYPES = { "int", "char", "int*", "char*", "struct node", "struct node*" };
+
+    public static void main(String[] args) throws Exception {
+        String text = declarationHeavyProgram(new Random(42), 30, 1000, 300);
+        long tokens = lex(text);
+        Bench.run("lex only", tokens, "token", () -> lex(text));
+        Bench.run("lex and parse", tokens, "token", () -> parse(text));
+    }
+
+    private static long lex(String text) {
+        Tokeniser tokeniser = new Tokeniser(new Scanner(text));
+        long tokens = 0;
+        while (tokeniser.nextToken().tokenClass != Token.TokenClass.EOF)
+            tokens++;
+        return tokens;
+    }
+
+    private static long parse(String text) {
+        Parser parser = new Parser(new Tokeniser(new Scanner(text)));
+        return parser.parse().funDecls.size() + parser.getErrorCount();
+    }
+
+    static String declarationHeavyProgram(Random random, int structs, int globals, int functions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("struct node { int value; struct node* next; };\n");
+        for (int i = 0; i < structs; i++) {
+            sb.append("struct s").append(i).append(" {\n");
+            for (int j = 1 + random.nextInt(8); j > 0; j--)
+                declaration(sb.append("    "), random, "f" + j);
+            sb.append("};\n");
+        }
+        for (int i = 0; i < globals; i++)
+            declaration(sb, random, "g" + i);
+        for (int i = 0; i < functions; i++) {
+            sb.append(TYPES[random.nextInt(TYPES.length)]).append(" fun").append(i).append("(");
+            for (int j = random.nextInt(5); j >= 0; j--)
+                sb.append(TYPES[random.nextInt(TYPES.length)]).append(" p").append(j).append(j > 0 ? ", " : "");
+            sb.append(") {\n");
+            for (int j = 4 + random.nextInt(12); j > 0; j--)
+                declaration(sb.append("    "), random, "v" + j);
+            sb.append("    v1 = p0;\n    return 0;\n}\n");
+        }
+        return sb.toString();
+    }
+
+    private static void declaration(StringBuilder sb, Random random, String name) {
+        sb.append(TYPES[random.nextInt(TYPES.length)]).append(' ').append(name);
+        if (random.nextInt(4) == 0)
+            sb.append('[').append(1 + random.nextInt(64)).append(']');
+        sb.append(";\n");
+    }
+}
@@ -0,0 +1,37 @@
+package parser;
+
+import bench.Bench;
+import lexer.Scanner;
+import lexer.TokenStream;
+import lexer.Tokeniser;
+
+import java.util.Random;
+
+/**
+ * Compares the two ways the recursive parser has of parsing binary expressions, by precedence climbing and by the
+ * chain of one method per precedence level, on the expression-heavy program of ParserAllocationBench. The program is
+ * lexed once into a TokenStream, so that only parsing is timed.
+ *
+ * Results on one CPU (JDK 17):
+ *
+ *   precedence climbing              43.5M tokens/s best, 88.0 B/token
+ *   one method per level             41.1M tokens/s best, 88.0 B/token
+ *
+ * Precedence climbing is about 6% faster: an operand no longer goes down six method calls, each testing for its own
+ * operators, before it is parsed. Both build the same tree, so allocate the same.
+ */
+public class PrecedenceClimbingBench {
+
+    public static void main(String[] args) throws Exception {
+        String text = ParserAllocationBench.expressionHeavyProgram(new Random(42), 400, 20);
+        TokenStream tokens = new Tokeniser(new Scanner(text)).tokenise();
+        Bench.run("precedence climbing", tokens.size(), "token", () -> parse(tokens, true));
+        Bench.run("one method per level", tokens.size(), "token", () -> parse(tokens, false));
+    }
+
+    private static long parse(TokenStream tokens, boolean precedenceClimbing) {
+        Parser parser = new Parser(tokens);
+        parser.setPrecedenceClimbing(precedenceClimbing);
+        return parser.parse().funDecls.size() + parser.getErrorCount();
+    }
+}
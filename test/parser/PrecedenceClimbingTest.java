@@ -0,0 +1,153 @@
+package parser;
+
+import ast.ASTPrinter;
+import ast.Program;
+import lexer.Scanner;
+import lexer.Tokeniser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that parsing binary expressions by precedence climbing and by the chain of one method per precedence level
+ * are interchangeable: the same program must print the same tree (with ASTPrinter) and the same errors either way, and
+ * so must it with the table-driven parser. The programs in tests/ are parsed, and random ones made of expressions over
+ * every operator, operand and postfix form, some of them with a token dropped or added. Each is parsed with and
+ * without error recovery.
+ */
+public class PrecedenceClimbingTest {
+
+    private static final int PROGRAMS = 2000;
+
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "%", "<", ">", "<=", ">=", "==", "!=", "&&", "||" };
+    private static final String[] DAMAGE = { "+", "*", "||", "(", ")", "[", "]", ".", ",", ";", "=", "-", "sizeof" };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        File[] files = new File(args.length > 0 ? args[0] : "tests").listFiles((dir, name) -> name.endsWith(".c"));
+        Arrays.sort(files);
+        for (File file : files)
+            compare(file.getName(), new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        Random random = new Random(42);
+        for (int n = 0; n < PROGRAMS; n++)
+            compare("random program " + n, randomProgram(random));
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static void compare(String name, String text) {
+        for (boolean recovery : new boolean[] { false, true }) {
+            String what = name + (recovery ? ", with error recovery" : "");
+            String expected = parse(text, "recursive descent", recovery);
+            for (String mode : new String[] { "precedence climbing", "table driven" }) {
+                String output = parse(text, mode, recovery);
+                if (!output.equals(expected))
+                    fail(what + ", " + mode + ": printed\n" + output + "\nexpected\n" + expected + "\nfor\n" + text);
+            }
+        }
+    }
+
+    // what the parser prints, then the tree it returns as ASTPrinter prints it. The stack trace it prints to System.err
+    // on a null pointer is left out, as the methods in it are those of the mode
+    private static String parse(String text, String mode, boolean recovery) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(messages, true));
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        StringWriter tree = new StringWriter();
+        try {
+            Parser parser = new Parser(new Tokeniser(new Scanner(text)));
+            parser.setPrecedenceClimbing(mode.equals("precedence climbing"));
+            parser.setTableDriven(mode.equals("table driven"));
+            parser.setErrorRecovery(recovery);
+            Program program = parser.parse();
+            tree.write(parser.getErrorCount() + " errors\n");
+            if (program != null) {
+                PrintWriter writer = new PrintWriter(tree);
+                program.accept(new ASTPrinter(writer));
+                writer.flush();
+            }
+        } catch (RuntimeException e) {
+            tree.write(e.toString());
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return messages + tree.toString();
+    }
+
+    private static String randomProgram(Random random) {
+        StringBuilder sb = new StringBuilder("struct s { int f; };\nint f(int a, int b) {\n    struct s t;\n");
+        for (int i = 1 + random.nextInt(4); i > 0; i--) {
+            StringBuilder statement = new StringBuilder();
+            switch (random.nextInt(4)) {
+                case 0: expression(statement.append("a = "), random, 4).append(';'); break;
+                case 1: expression(statement.append("if ("), random, 4).append(") a = 1;"); break;
+                case 2: expression(statement.append("return "), random, 4).append(';'); break;
+                default: expression(statement, random, 4).append(';'); break;
+            }
+            if (random.nextInt(4) == 0)
+                damage(statement, random);
+            sb.append("    ").append(statement).append('\n');
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static StringBuilder expression(StringBuilder sb, Random random, int depth) {
+        if (depth == 0 || random.nextInt(3) == 0)
+            return operand(sb, random, depth);
+        switch (random.nextInt(8)) {
+            case 0:  return expression(sb.append('('), random, depth - 1).append(')');
+            case 1:  return expression(sb.append('-'), random, depth - 1);
+            case 2:  return expression(sb.append("(int*) "), random, depth - 1);
+            case 3:  return expression(sb.append('*'), random, depth - 1);
+            default:
+                expression(sb, random, depth - 1);
+                sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+                return expression(sb, random, depth - 1);
+        }
+    }
+
+    private static StringBuilder operand(StringBuilder sb, Random random, int depth) {
+        switch (random.nextInt(9)) {
+            case 0:  return sb.append('a');
+            case 1:  return sb.append(random.nextInt(10));
+            case 2:  return sb.append("'c'");
+            case 3:  return sb.append("\"s\"");
+            case 4:  return sb.append("sizeof(char)");
+            case 5:  return sb.append("t.f");
+            case 6:  return expression(sb.append("a["), random, Math.max(depth - 1, 0)).append(']');
+            case 7:
+                sb.append("f(");
+                expression(sb, random, Math.max(depth - 1, 0));
+                return expression(sb.append(", "), random, Math.max(depth - 1, 0)).append(')');
+            default: return sb.append('b');
+        }
+    }
+
+    // drops a character or adds a token, at random
+    private static void damage(StringBuilder sb, Random random) {
+        int at = random.nextInt(sb.length());
+        if (random.nextBoolean())
+            sb.deleteCharAt(at);
+        else
+            sb.insert(at, " " + DAMAGE[random.nextInt(DAMAGE.length)] + " ");
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
@@ -0,0 +1,179 @@
+package parser;
+
+import ast.FunDecl;
+import ast.Program;
+import lexer.Scanner;
+import lexer.TokenStream;
+import lexer.Tokeniser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that a program lexed in one go into a TokenStream parses as it does when the parser pulls its tokens from a
+ * Tokeniser: the recursive parser over the stream, the table-driven one and the one parsing function bodies on a pool
+ * must print the same lexing and syntax errors, in the same order, and count as many. The programs in tests/ are
+ * parsed as they are and with random damage: stray characters the lexer rejects and tokens dropped or repeated, and so
+ * are programs with more errors than the parser is allowed to report.
+ *
+ * A program with thousands of structs, globals and functions, and a function with thousands of parameters and
+ * statements, must also parse in every mode on a thread with a small stack: lists are not parsed one frame per item.
+ */
+public class StreamParseTest {
+
+    private static final int MANY = 20000;
+    private static final long STACK_SIZE = 256 << 10;
+
+    private static final String[] DAMAGE = { "@", "$", "'ab'", "!", "&", "|", ";", "{", "}", "(", ")", "int", "," };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        File[] files = new File(args.length > 0 ? args[0] : "tests").listFiles((dir, name) -> name.endsWith(".c"));
+        Arrays.sort(files);
+        Random random = new Random(42);
+        for (File file : files) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            compare(file.getName(), text, pool);
+            for (int n = 0; n < 20; n++)
+                compare(file.getName() + " damaged " + n, damage(text, random), pool);
+        }
+        compare("errors in 400 bodies", manyErrors(400, 0), pool);
+        compare("errors in 50 bodies and 150 headers", manyErrors(50, 150), pool);
+        String many = manyItems();
+        for (String mode : new String[] { "tokeniser", "token stream", "table driven", "parallel bodies" })
+            parseMany(many, mode, pool);
+        pool.shutdown();
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    // inserts a few pieces of DAMAGE at random places
+    private static String damage(String text, Random random) {
+        StringBuilder sb = new StringBuilder(text);
+        for (int i = 1 + random.nextInt(4); i > 0; i--)
+            sb.insert(random.nextInt(sb.length() + 1), " " + DAMAGE[random.nextInt(DAMAGE.length)] + " ");
+        return sb.toString();
+    }
+
+    private static void compare(String name, String text, ForkJoinPool pool) {
+        String[] expected = new String[1];
+        int errors = parse(expected, () -> newParser(new Parser(new Tokeniser(new Scanner(text)))));
+        TokenStream tokens = new Tokeniser(new Scanner(text)).tokenise();
+        String[] modes = { "token stream", "table driven", "parallel bodies" };
+        for (String mode : modes) {
+            String[] output = new String[1];
+            int modeErrors = parse(output, () -> {
+                Parser parser = newParser(new Parser(tokens));
+                if (mode.equals("table driven"))
+                    parser.setTableDriven(true);
+                else if (mode.equals("parallel bodies"))
+                    parser.setParallelBodies(pool);
+                return parser;
+            });
+            if (!output[0].equals(expected[0]))
+                fail(name + ", " + mode + ": printed\n" + output[0] + "expected\n" + expected[0]);
+            else if (modeErrors != errors)
+                fail(name + ", " + mode + ": " + modeErrors + " errors, expected " + errors);
+        }
+    }
+
+    // more errors than maxErrors: functions with a syntax and a lexing error in their bodies, then functions with a
+    // syntax error in their parameters, which the program's own parser finds before any body is parsed
+    private static String manyErrors(int bodies, int headers) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < bodies; i++)
+            sb.append("int f").append(i).append("(int a) {\n    a = ;\n    a = a $ 1;\n    return a;\n}\n");
+        for (int i = 0; i < headers; i++)
+            sb.append("int g").append(i).append("(int a, 3) {\n    return a;\n}\n");
+        return sb.toString();
+    }
+
+    private static String manyItems() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MANY; i++)
+            sb.append("struct s").append(i).append(" { int x; };\n");
+        for (int i = 0; i < MANY; i++)
+            sb.append("int g").append(i).append(";\n");
+        for (int i = 0; i < MANY; i++)
+            sb.append("int f").append(i).append("(int a) { return a; }\n");
+        sb.append("void main(int p0");
+        for (int i = 1; i < MANY; i++)
+            sb.append(", int p").append(i);
+        sb.append(") {\n");
+        for (int i = 0; i < MANY; i++)
+            sb.append("    p0 = p").append(i).append(";\n");
+        return sb.append("}\n").toString();
+    }
+
+    private static void parseMany(String text, String mode, ForkJoinPool pool) throws InterruptedException {
+        String[] failure = new String[1];
+        Thread parsing = new Thread(null, () -> {
+            try {
+                Tokeniser tokeniser = new Tokeniser(new Scanner(text));
+                Parser parser = newParser(mode.equals("tokeniser") ? new Parser(tokeniser)
+                                                                     : new Parser(tokeniser.tokenise()));
+                parser.setTableDriven(mode.equals("table driven"));
+                if (mode.equals("parallel bodies"))
+                    parser.setParallelBodies(pool);
+                Program program = parser.parse();
+                FunDecl main = program.funDecls.get(program.funDecls.size() - 1);
+                if (parser.getErrorCount() != 0)
+                    failure[0] = parser.getErrorCount() + " errors";
+                else if (program.structTypeDecls.size() != MANY || program.varDecls.size() != MANY
+                        || program.funDecls.size() != MANY + 1)
+                    failure[0] = program.structTypeDecls.size() + " structs, " + program.varDecls.size()
+                            + " globals and " + program.funDecls.size() + " functions";
+                else if (main.params.size() != MANY || main.getBlock().stmts.size() != MANY)
+                    failure[0] = main.params.size() + " parameters and " + main.getBlock().stmts.size() + " statements";
+            } catch (StackOverflowError e) {
+                failure[0] = "stack overflow";
+            }
+        }, "parser", STACK_SIZE);
+        parsing.start();
+        parsing.join();
+        if (failure[0] != null)
+            fail(MANY + " of each item, " + mode + ": " + failure[0]);
+    }
+
+    // as Main sets it up
+    private static Parser newParser(Parser parser) {
+        parser.setErrorRecovery(true);
+        parser.setMaxErrors(100);
+        return parser;
+    }
+
+    private interface NewParser {
+        Parser get();
+    }
+
+    // parses with the given parser, leaves what it printed in output and returns its error count
+    private static int parse(String[] output, NewParser newParser) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            Parser parser = newParser.get();
+            parser.parse();
+            return parser.getErrorCount();
+        } finally {
+            System.setOut(out);
+            output[0] = bytes.toString();
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+}
@@ -0,0 +1,19 @@
+#!/bin/sh
+# Builds the compiler, then compiles the classes under test/ and runs each *Bench in a JVM of its own, from the root of
+# the repository: all of them, or those named as arguments (e.g. lexer.TokeniserBench). The results each benchmark got
+# when it was written are in its comment.
+set -e
+cd "$(dirname "$0")/.."
+ant -q build
+rm -rf bin-test
+mkdir bin-test
+javac -nowarn -cp bin -d bin-test $(find test -name '*.java')
+if [ $# -gt 0 ]; then
+    benchmarks="$*"
+else
+    benchmarks=$(cd test && find . -name '*Bench.java' | sort | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g')
+fi
+for benchmark in $benchmarks; do
+    echo "$benchmark"
+    java -cp bin:bin-test "$benchmark"
+done
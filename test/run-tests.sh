@@ -0,0 +1,13 @@
+#!/bin/sh
+# Builds the compiler, then compiles the test classes under test/ and runs each *Test in turn, from the root of the
+# repository. Stops at the first test that fails.
+set -e
+cd "$(dirname "$0")/.."
+ant -q build
+rm -rf bin-test
+mkdir bin-test
+javac -nowarn -cp bin -d bin-test $(find test -name '*.java')
+for test in $(cd test && find . -name '*Test.java' | sort | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g'); do
+    echo "$test"
+    java -cp bin:bin-test "$test"
+done